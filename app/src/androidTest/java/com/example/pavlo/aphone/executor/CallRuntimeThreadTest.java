@@ -0,0 +1,297 @@
+package com.example.pavlo.aphone.executor;
+
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import com.example.pavlo.aphone.http_url_connection.AsyncHttpUrlConnection;
+import com.example.pavlo.aphone.http_url_connection.HttpDispatcher;
+import com.example.pavlo.aphone.interfaces.AsyncHttpEvents;
+import com.example.pavlo.aphone.interfaces.WebSocketChannelEvents;
+import com.example.pavlo.aphone.interfaces.WebSocketCloseEvents;
+import com.example.pavlo.aphone.interfaces.WebSocketFactory;
+import com.example.pavlo.aphone.web_rtc_client.WebRtcChannelClient;
+
+import java.net.URI;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import de.tavendo.autobahn.WebSocket;
+import de.tavendo.autobahn.WebSocketOptions;
+
+/**
+ * Created by pavlo on 18.10.26.
+ *
+ * Runs the per-call work of the call runtime over and over without a network or a media device
+ * and checks that the runtime thread count stays flat: scheduled and cancelled executor tasks,
+ * HTTP requests through the dispatcher to a closed local port, and a WebSocket channel on a fake
+ * socket that starts reader and writer threads named like the autobahn ones.
+ */
+public class CallRuntimeThreadTest extends InstrumentationTestCase {
+
+    private static final String LOG_TAG = "Call runtime test";
+
+    private static final int WARMUP_CYCLES = 2;
+    private static final int CYCLES = 20;
+    private static final int REQUESTS_PER_CYCLE = 8;
+    private static final long TIMEOUT_MS = 5000;
+
+    // Nothing listens on port 1, so requests fail at once without leaving the device.
+    private static final String CLOSED_PORT_URL = "http://127.0.0.1:1";
+
+    private final CallRuntime runtime = CallRuntime.getInstance();
+
+    public void testRuntimeThreadCountStaysFlat() throws Exception {
+        for (int i = 0; i < WARMUP_CYCLES; i++) {
+            runCallCycle();
+        }
+        int baseline = awaitSettledThreadCount(-1);
+
+        for (int i = 0; i < CYCLES; i++) {
+            runCallCycle();
+            int count = awaitSettledThreadCount(baseline);
+            Log.d(LOG_TAG, "Cycle " + i + ": " + count + " runtime threads, baseline " + baseline);
+            assertEquals("Runtime threads after cycle " + i, baseline, count);
+        }
+        assertTrue("Runtime threads over budget: " + baseline, baseline <= runtime.getThreadBudget());
+    }
+
+    private void runCallCycle() throws Exception {
+        runtime.checkThreadBudget();
+        scheduleAndCancel();
+        sendRequests();
+        openAndCloseChannel();
+    }
+
+    private void scheduleAndCancel() throws Exception {
+        final LooperExecutor executor = runtime.getSignalingExecutor();
+        final CountDownLatch ran = new CountDownLatch(1);
+        final AtomicBoolean cancelledRan = new AtomicBoolean();
+        ScheduledTask cancelled = executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                cancelledRan.set(true);
+            }
+        }, 20);
+        ScheduledTask periodic = executor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                ran.countDown();
+            }
+        }, 0, 10);
+
+        executor.cancel(cancelled);
+        assertTrue(ran.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        executor.cancel(periodic);
+        assertTrue(periodic.isCancelled());
+
+        // Anything still posted for either task would run before this one.
+        SystemClock.sleep(40);
+        runOnExecutorAndWait(new Runnable() {
+            @Override
+            public void run() {
+
+            }
+        });
+        assertFalse("Cancelled task ran", cancelledRan.get());
+    }
+
+    private void sendRequests() throws Exception {
+        final CountDownLatch finished = new CountDownLatch(REQUESTS_PER_CYCLE);
+        for (int i = 0; i < REQUESTS_PER_CYCLE; i++) {
+            new AsyncHttpUrlConnection("POST", CLOSED_PORT_URL + "/message/" + i, "{}", new AsyncHttpEvents() {
+                @Override
+                public void onHttpError(String errorMessage) {
+                    finished.countDown();
+                }
+
+                @Override
+                public void onHttpComplete(String response) {
+                    finished.countDown();
+                }
+            }).send();
+        }
+        assertTrue(finished.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        HttpDispatcher.getInstance().release();
+        assertTrue(HttpDispatcher.getInstance().awaitRelease(TIMEOUT_MS));
+    }
+
+    private void openAndCloseChannel() throws Exception {
+        final LooperExecutor executor = runtime.getSignalingExecutor();
+        final CountDownLatch closed = new CountDownLatch(1);
+        final AtomicBoolean closeTimedOut = new AtomicBoolean();
+        final WebSocketChannelEvents channelEvents = new WebSocketChannelEvents() {
+            @Override
+            public void onWebSocketMessage(String message) {
+
+            }
+
+            @Override
+            public void onWebSocketClose() {
+
+            }
+
+            @Override
+            public void onWebSocketError(String description) {
+
+            }
+        };
+        final WebRtcChannelClient[] channelClient = new WebRtcChannelClient[1];
+
+        runOnExecutorAndWait(new Runnable() {
+            @Override
+            public void run() {
+                channelClient[0] = new WebRtcChannelClient(executor, channelEvents, new WebSocketFactory() {
+                    @Override
+                    public WebSocket createWebSocket() {
+                        return new FakeWebSocket();
+                    }
+                });
+                channelClient[0].connect("ws://127.0.0.1:1/ws", CLOSED_PORT_URL);
+                channelClient[0].register("room", "client");
+            }
+        });
+        awaitChannelState(channelClient[0], WebRtcChannelClient.WebSocketConnectionState.REGISTERED);
+        int openCount = runtime.countRuntimeThreads();
+        assertTrue("Runtime threads over budget during a call: " + openCount,
+                openCount <= runtime.getThreadBudget());
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                channelClient[0].disconnect(new WebSocketCloseEvents() {
+                    @Override
+                    public void onWebSocketCloseComplete(boolean timedOut) {
+                        closeTimedOut.set(timedOut);
+                        closed.countDown();
+                    }
+                });
+            }
+        });
+        assertTrue(closed.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertFalse("Fake socket close timed out", closeTimedOut.get());
+        HttpDispatcher.getInstance().release();
+        assertTrue(HttpDispatcher.getInstance().awaitRelease(TIMEOUT_MS));
+    }
+
+    private void awaitChannelState(final WebRtcChannelClient channelClient,
+                                   WebRtcChannelClient.WebSocketConnectionState state) throws Exception {
+        final WebRtcChannelClient.WebSocketConnectionState[] current =
+                new WebRtcChannelClient.WebSocketConnectionState[1];
+        long deadlineMs = SystemClock.uptimeMillis() + TIMEOUT_MS;
+        while (true) {
+            runOnExecutorAndWait(new Runnable() {
+                @Override
+                public void run() {
+                    current[0] = channelClient.getState();
+                }
+            });
+            if (current[0] == state) {
+                return;
+            }
+            assertTrue("WebSocket channel never reached " + state + ", state: " + current[0],
+                    SystemClock.uptimeMillis() < deadlineMs);
+            SystemClock.sleep(10);
+        }
+    }
+
+    private void runOnExecutorAndWait(final Runnable command) throws Exception {
+        final CountDownLatch done = new CountDownLatch(1);
+        runtime.getSignalingExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                command.run();
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Waits until the count equals {@code expected}, or for a stable count if it is negative.
+     * Threads of a closed socket or a released pool may take a moment to exit.
+     */
+    private int awaitSettledThreadCount(int expected) {
+        long deadlineMs = SystemClock.uptimeMillis() + TIMEOUT_MS;
+        int lastCount = -1;
+        while (true) {
+            int count = runtime.countRuntimeThreads();
+            if (count == expected || (expected < 0 && count == lastCount) ||
+                    SystemClock.uptimeMillis() >= deadlineMs) {
+                return count;
+            }
+            lastCount = count;
+            SystemClock.sleep(50);
+        }
+    }
+
+    /**
+     * Stands in for the autobahn connection: connecting starts a reader and a writer thread with
+     * the autobahn names, which run until {@link #disconnect} and report the close on the way out.
+     */
+    private static class FakeWebSocket implements WebSocket {
+
+        private final CountDownLatch disconnected = new CountDownLatch(1);
+
+        private volatile boolean connected;
+
+        @Override
+        public void connect(URI uri, final WebSocketConnectionObserver observer) {
+            connected = true;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    awaitDisconnect();
+                }
+            }, "WebSocketWriter").start();
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    observer.onOpen();
+                    awaitDisconnect();
+                    observer.onClose(WebSocketConnectionObserver.WebSocketCloseNotification.NORMAL, "");
+                }
+            }, "WebSocketReader").start();
+        }
+
+        @Override
+        public void connect(URI uri, WebSocketConnectionObserver observer, WebSocketOptions options) {
+            connect(uri, observer);
+        }
+
+        @Override
+        public void disconnect() {
+            connected = false;
+            disconnected.countDown();
+        }
+
+        @Override
+        public boolean isConnected() {
+            return connected;
+        }
+
+        @Override
+        public void sendBinaryMessage(byte[] payload) {
+
+        }
+
+        @Override
+        public void sendRawTextMessage(byte[] payload) {
+
+        }
+
+        @Override
+        public void sendTextMessage(String payload) {
+
+        }
+
+        private void awaitDisconnect() {
+            try {
+                disconnected.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
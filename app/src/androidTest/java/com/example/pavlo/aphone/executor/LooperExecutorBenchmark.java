@@ -0,0 +1,97 @@
+package com.example.pavlo.aphone.executor;
+
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.Suppress;
+import android.util.Log;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Created by pavlo on 18.10.26.
+ *
+ * Task throughput of a real LooperExecutor in {@link LooperExecutor.Mode#HANDLER} and
+ * {@link LooperExecutor.Mode#LOCK_FREE_QUEUE} mode with several producer threads, measured from
+ * the first submit until the looper thread ran the last task. The numbers are logged, not
+ * asserted, since they depend on the device. Suppressed in regular runs; run it by hand.
+ */
+@Suppress
+public class LooperExecutorBenchmark extends InstrumentationTestCase {
+
+    private static final String LOG_TAG = "Looper executor benchmark";
+
+    private static final int PRODUCERS = 4;
+    private static final int TASKS_PER_PRODUCER = 20000;
+    private static final int WARMUP_ROUNDS = 2;
+    private static final int ROUNDS = 5;
+    private static final long ROUND_TIMEOUT_MS = 30000;
+
+    public void testCompareModes() throws Exception {
+        for (LooperExecutor.Mode mode : LooperExecutor.Mode.values()) {
+            LooperExecutor executor = new LooperExecutor(mode, "benchmark-" + mode);
+            executor.requestStart();
+            try {
+                for (int i = 0; i < WARMUP_ROUNDS; i++) {
+                    runRound(executor);
+                }
+                long totalNanos = 0;
+                for (int i = 0; i < ROUNDS; i++) {
+                    totalNanos += runRound(executor);
+                }
+                long tasks = (long) PRODUCERS * TASKS_PER_PRODUCER * ROUNDS;
+                Log.i(LOG_TAG, mode + ": " + (totalNanos / tasks) + " ns/task, " +
+                        (tasks * 1000000000L / totalNanos) + " tasks/s with " + PRODUCERS + " producers. " +
+                        executor.getMetrics());
+            } finally {
+                executor.requestStop();
+            }
+        }
+    }
+
+    private long runRound(final LooperExecutor executor) throws Exception {
+        final CountDownLatch startSignal = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicInteger remaining = new AtomicInteger(PRODUCERS * TASKS_PER_PRODUCER);
+        final Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                if (remaining.decrementAndGet() == 0) {
+                    done.countDown();
+                }
+            }
+        };
+
+        Thread[] producers = new Thread[PRODUCERS];
+        for (int p = 0; p < PRODUCERS; p++) {
+            producers[p] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        startSignal.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < TASKS_PER_PRODUCER; i++) {
+                        executor.execute(task);
+                    }
+                }
+            });
+            producers[p].start();
+        }
+
+        long start = System.nanoTime();
+        startSignal.countDown();
+        assertTrue("Round did not finish in " + ROUND_TIMEOUT_MS + "ms",
+                done.await(ROUND_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        long elapsed = System.nanoTime() - start;
+
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        SystemClock.sleep(100);
+
+        return elapsed;
+    }
+}
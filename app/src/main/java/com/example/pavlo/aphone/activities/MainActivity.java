@@ -14,25 +14,22 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import com.example.pavlo.aphone.R;
-import com.example.pavlo.aphone.audio_manager.RtcAudioManager;
-import com.example.pavlo.aphone.executor.LooperExecutor;
-import com.example.pavlo.aphone.interfaces.PeerConnectionEvents;
-import com.example.pavlo.aphone.interfaces.SignalingEvents;
-import com.example.pavlo.aphone.parameters.PeerConnectionParameters;
-import com.example.pavlo.aphone.parameters.RoomConnectionParameters;
-import com.example.pavlo.aphone.parameters.SignalingParameters;
+import com.example.pavlo.aphone.call_controller.CallController;
+import com.example.pavlo.aphone.executor.CallRuntime;
+import com.example.pavlo.aphone.http_url_connection.HttpConnectionPool;
+import com.example.pavlo.aphone.http_url_connection.HttpDispatcher;
+import com.example.pavlo.aphone.interfaces.CallStatusEvents;
 import com.example.pavlo.aphone.permissions_manager.PermissionsManager;
+import com.example.pavlo.aphone.tracing.CallTracer;
 import com.example.pavlo.aphone.util.Config;
-import com.example.pavlo.aphone.util.PeerConnectionUtilities;
-import com.example.pavlo.aphone.web_rtc_client.PeerConnectionClient;
-import com.example.pavlo.aphone.web_rtc_client.WebRtcClient;
+import com.example.pavlo.aphone.web_rtc_client.IceRecoveryMetrics;
+import com.example.pavlo.aphone.web_rtc_client.SignalingTransportMetrics;
+import com.example.pavlo.aphone.web_rtc_client.TeardownMetrics;
 
-import org.webrtc.IceCandidate;
-import org.webrtc.SessionDescription;
-import org.webrtc.StatsReport;
+import java.io.File;
+import java.io.IOException;
 
-public class MainActivity extends AppCompatActivity implements SignalingEvents,
-        PeerConnectionEvents, View.OnClickListener{
+public class MainActivity extends AppCompatActivity implements CallStatusEvents, View.OnClickListener{
 
     private static final String LOG_TAG = "Main activity log " ;
 
@@ -42,21 +39,11 @@ public class MainActivity extends AppCompatActivity implements SignalingEvents,
     private ImageView connectButton;
     private ImageView disconnectButton;
 
-    private PeerConnectionClient peerConnectionClient = null;
-    private WebRtcClient webRtcClient;
-    private SignalingParameters signalingParameters;
-    private RtcAudioManager audioManager = null;
-
-    private RoomConnectionParameters roomConnectionParameters;
-    private PeerConnectionParameters peerConnectionParameters;
+    private CallController callController;
 
     private Toast toast;
 
     private boolean activityRunning;
-    private boolean iceConnected;
-    private boolean isError;
-
-    private long callStartedTimeMs = 0;
 
     private String roomId = "";
 
@@ -65,8 +52,8 @@ public class MainActivity extends AppCompatActivity implements SignalingEvents,
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
-        iceConnected = false;
-        signalingParameters = null;
+        callController = new CallController(this);
+        callController.setStatusEvents(this);
 
         initViewComponents();
         PermissionsManager.requestPermissions(MainActivity.this);
@@ -75,13 +62,43 @@ public class MainActivity extends AppCompatActivity implements SignalingEvents,
     @Override
     public void onDestroy() {
         disconnect();
+        callController.setStatusEvents(null);
         if (toast != null) {
             toast.cancel();
         }
         activityRunning = false;
+        if (isFinishing()) {
+            Log.d(LOG_TAG, "HTTP dispatcher: " + HttpDispatcher.getInstance().getStats());
+            Log.d(LOG_TAG, "HTTP connection pool: " + HttpConnectionPool.getInstance());
+            Log.d(LOG_TAG, "ICE recovery: " + IceRecoveryMetrics.getInstance());
+            Log.d(LOG_TAG, "Call runtime: " + CallRuntime.getInstance());
+            Log.d(LOG_TAG, "Teardown: " + TeardownMetrics.getInstance());
+            Log.d(LOG_TAG, "Signaling transports: " + SignalingTransportMetrics.getInstance());
+            final File traceFile = new File(getCacheDir(), "call_trace.json");
+            // Runs after the disconnect posted above, so the teardown requests are already queued.
+            CallRuntime.getInstance().getSignalingExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    HttpDispatcher.getInstance().release();
+                    try {
+                        CallTracer.getInstance().writeChromeTrace(traceFile);
+                    } catch (IOException e) {
+                        Log.e(LOG_TAG, "Can not write call trace: " + e.getMessage());
+                    }
+                }
+            });
+        }
         super.onDestroy();
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level >= TRIM_MEMORY_BACKGROUND || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            callController.trimMemory();
+        }
+    }
+
     @Override
     public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResult) {
         super.onRequestPermissionsResult(requestCode, permissions, grantResult);
@@ -108,138 +125,26 @@ public class MainActivity extends AppCompatActivity implements SignalingEvents,
         disconnectButton.setOnClickListener(this);
     }
 
-    private void startCall() {
-        if (webRtcClient == null) {
-            Log.d(LOG_TAG, "WebRTC cliaent is not alocated for a call!");
-            return;
-        }
-        callStartedTimeMs = System.currentTimeMillis();
-        webRtcClient.connectToRoom(roomConnectionParameters);
-
-        audioManager = new RtcAudioManager(MainActivity.this, new Runnable() {
-            @Override
-            public void run() {
-                onAudioManagerChangedState();
-            }
-        });
-
-        Log.d(LOG_TAG, "Initializing the audio manager...");
-        audioManager.init();
-    }
-
-    private void onAudioManagerChangedState() {
-        // TODO(henrika): disable video if AppRTCAudioManager.AudioDevice.EARPIECE
-        // is active.
-    }
-
-    private void callConnected() {
-        final long delta = System.currentTimeMillis() - callStartedTimeMs;
-        Log.i(LOG_TAG, "Call connected: delay=" + delta + "ms");
-        if (peerConnectionClient == null || isError) {
-            Log.w(LOG_TAG, "Call is connected in closed or error state");
-            return;
-        }
-        peerConnectionClient.enableStatsEvents(true, Config.STAT_CALLBACK_PERIOD);
-    }
-
     private void disconnect() {
         activityRunning = false;
-        if (webRtcClient != null) {
-            webRtcClient.disconnectFromRoom();
-            webRtcClient = null;
-        }
-        if (peerConnectionClient != null) {
-            peerConnectionClient.closeInternal();
-            peerConnectionClient = null;
-        }
-        if (audioManager != null) {
-            audioManager.close();
-            audioManager = null;
-        }
-        if (iceConnected && !isError) {
+        callController.disconnect();
+        if (callController.isCallSucceeded()) {
             setResult(RESULT_OK);
         } else {
             setResult(RESULT_CANCELED);
         }
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                if (callStatusProgressBar.getVisibility() == View.VISIBLE) {
-                    callStatusProgressBar.setVisibility(View.INVISIBLE);
-                }
-                if (callStatusTextView.getVisibility() == View.VISIBLE) {
-                    callStatusTextView.setVisibility(View.INVISIBLE);
-                }
-                if (disconnectButton.getVisibility() == View.VISIBLE) {
-                    disconnectButton.setVisibility(View.INVISIBLE);
-                }
-            }
-        });
-        //finish();
     }
 
-    private void disconnectWithErrorMessage(final String errorMessage) {
-        if (!activityRunning) {
-            Log.e(LOG_TAG, "Critical error: " + errorMessage);
-            disconnect();
-            Toast.makeText(MainActivity.this, "Disconnect from " + roomId + " room!", Toast.LENGTH_SHORT).show();
-        } else {
-            new AlertDialog.Builder(this)
-                    .setTitle("Connection error!")
-                    .setMessage(errorMessage)
-                    .setCancelable(false)
-                    .setNeutralButton("Ok", new DialogInterface.OnClickListener() {
-                        @Override
-                        public void onClick(DialogInterface dialog, int id) {
-                            dialog.cancel();
-                            disconnect();
-                        }
-                    }).create().show();
-        }
+    private void showCallViews(boolean connecting) {
+        callStatusProgressBar.setVisibility(connecting ? View.VISIBLE : View.INVISIBLE);
+        callStatusTextView.setVisibility(View.VISIBLE);
+        disconnectButton.setVisibility(connecting ? View.INVISIBLE : View.VISIBLE);
     }
 
-    private void reportError(final String description) {
-        if (!isError) {
-            isError = true;
-            disconnectWithErrorMessage(description);
-        }
-    }
-
-    private void onConnectedToRoomInternal(final SignalingParameters params) {
-        final long delta = System.currentTimeMillis() - callStartedTimeMs;
-
-        signalingParameters = params;
-        Toast.makeText(this, "Creating peer connection, delay=" + delta + "ms", Toast.LENGTH_SHORT).show();
-        Log.d(LOG_TAG, "Creating peer connection, delay=" + delta + "ms");
-        peerConnectionClient.createPeerConnection(signalingParameters);
-
-        if (signalingParameters.isInitiator()) {
-            Toast.makeText(this, "Creating OFFER...", Toast.LENGTH_SHORT).show();
-            Log.d(LOG_TAG, "Creating OFFER...");
-            peerConnectionClient.createOffer();
-        } else {
-            if (params.getOfferSdp() != null) {
-                peerConnectionClient.setRemoteDescription(params.getOfferSdp());
-                Toast.makeText(this, "Creating ANSWER...", Toast.LENGTH_SHORT).show();
-                Log.d(LOG_TAG, "Creating ANSWER...");
-                peerConnectionClient.createAnswer();
-            }
-            if (params.getIceCandidates() != null) {
-                for (IceCandidate candidate : params.getIceCandidates()) {
-                    peerConnectionClient.addRemoteIceCandidate(candidate);
-                }
-            }
-        }
-        if (callStatusProgressBar.getVisibility() == View.VISIBLE) {
-            callStatusProgressBar.setVisibility(View.INVISIBLE);
-        }
-        if (disconnectButton.getVisibility() == View.INVISIBLE) {
-            disconnectButton.setVisibility(View.VISIBLE);
-        }
-        if (callStatusTextView.getVisibility() == View.INVISIBLE) {
-            callStatusTextView.setVisibility(View.VISIBLE);
-        }
-        callStatusTextView.setText("Connected to " + roomId + " room.");
+    private void hideCallViews() {
+        callStatusProgressBar.setVisibility(View.INVISIBLE);
+        callStatusTextView.setVisibility(View.INVISIBLE);
+        disconnectButton.setVisibility(View.INVISIBLE);
     }
 
     @Override
@@ -247,26 +152,8 @@ public class MainActivity extends AppCompatActivity implements SignalingEvents,
         switch (view.getId()) {
             case R.id.connectButton:
                 roomId = roomNameEditText.getText().toString();
-                callStatusProgressBar.setVisibility(View.VISIBLE);
-                callStatusTextView.setVisibility(View.VISIBLE);
-                callStatusTextView.setText("CREATE CONNECTION...");
-
-                peerConnectionParameters = PeerConnectionParameters.newBuilder().
-                        setAudioStartBitrate(Config.AUDIO_BITRATE).
-                        setAudioCodec(PeerConnectionUtilities.AUDIO_CODEC_OPUS).
-                        setAecDump(false).
-                        setNoAudioProcessing(false).
-                        setUseOpenSLES(true).
-                        setLoopback(false).
-                        build();
-
-                webRtcClient = new WebRtcClient(this, new LooperExecutor());
-
-                roomConnectionParameters = new RoomConnectionParameters(Config.ROOM_URL, roomId, false);
-
-                peerConnectionClient = PeerConnectionClient.getInstance();
-                peerConnectionClient.createPeerConnectionFactory(this, peerConnectionParameters, this);
-                startCall();
+                activityRunning = true;
+                callController.connectToRoom(roomId);
                 break;
             case R.id.disconnectButton:
                 disconnect();
@@ -275,146 +162,48 @@ public class MainActivity extends AppCompatActivity implements SignalingEvents,
         }
     }
 
-    // SignalingEvents implementation
-
-    @Override
-    public void onConnectedToRoom(final SignalingParameters parameters) {
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                onConnectedToRoomInternal(parameters);
-            }
-        });
-    }
-
-    @Override
-    public void onRemoteDescription(final SessionDescription sdp) {
-        final long delta = System.currentTimeMillis() - callStartedTimeMs;
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                if (peerConnectionClient == null) {
-                    Log.e(LOG_TAG, "Received remote SDP for non-initilized peer connection.");
-                    return;
-                }
-                Log.d(LOG_TAG, "Received remote " + sdp.type + ", delay=" + delta + "ms");
-                Toast.makeText(MainActivity.this, "Received remote " + sdp.type + ", delay=" + delta + "ms",
-                        Toast.LENGTH_SHORT).show();;
-                peerConnectionClient.setRemoteDescription(sdp);
-
-                if (!signalingParameters.isInitiator()) {
-                    Log.d(LOG_TAG, "Creating ANSWER...");
-                    Toast.makeText(MainActivity.this, "Creating ANSWER...", Toast.LENGTH_SHORT).show();
-                    peerConnectionClient.createAnswer();
-                }
-            }
-        });
-    }
-
-    @Override
-    public void onRemoteIceCandidate(final IceCandidate candidate) {
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                if (peerConnectionClient == null) {
-                    Log.e(LOG_TAG, "Received ICE candidate for non-initilized peer connection.");
-                    return;
-                }
-                peerConnectionClient.addRemoteIceCandidate(candidate);
-            }
-        });
-    }
-
-    @Override
-    public void onChannelClose() {
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                Log.d(LOG_TAG, "Remote end hung up; dropping PeerConnection");
-                Toast.makeText(MainActivity.this, "Remote end hung up; dropping PeerConnection", Toast.LENGTH_SHORT).show();
-                disconnect();
-            }
-        });
-    }
+    // CallStatusEvents implementation
 
     @Override
-    public void onChannelError(final String description) {
-        reportError(description);
+    public void onCallStateChanged(final CallController.State state) {
+        Log.d(LOG_TAG, "Call state: " + state);
+        switch (state) {
+            case CONNECTING:
+                showCallViews(true);
+                callStatusTextView.setText("CREATE CONNECTION...");
+                break;
+            case CONNECTED_TO_ROOM:
+            case ICE_CONNECTED:
+                showCallViews(false);
+                callStatusTextView.setText("Connected to " + roomId + " room.");
+                break;
+            case RECONNECTING:
+                showCallViews(false);
+                callStatusTextView.setText("Reconnecting to " + roomId + " room...");
+                break;
+            case DISCONNECTED:
+            case IDLE:
+                hideCallViews();
+                break;
+        }
     }
 
-    // PeerConnectionEvents implementation
-
     @Override
-    public void onLocalDescription(final SessionDescription sdp) {
-        final long delta = System.currentTimeMillis() - callStartedTimeMs;
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                if (webRtcClient != null) {
-                    Log.d(LOG_TAG, "Sending " + sdp.type + ", delay=" + delta + "ms");
-                    Toast.makeText(MainActivity.this, "Sending " + sdp.type + ", delay=" + delta + "ms",
-                            Toast.LENGTH_SHORT).show();
-                    if (signalingParameters.isInitiator()) {
-                        webRtcClient.sendOfferSdp(sdp);
-                    } else {
-                        webRtcClient.sendAnswerSdp(sdp);
+    public void onCallError(final String errorMessage) {
+        if (!activityRunning) {
+            Toast.makeText(MainActivity.this, "Disconnect from " + roomId + " room!", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        activityRunning = false;
+        new AlertDialog.Builder(this)
+                .setTitle("Connection error!")
+                .setMessage(errorMessage)
+                .setCancelable(false)
+                .setNeutralButton("Ok", new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int id) {
+                        dialog.cancel();
                     }
-                }
-            }
-        });
-    }
-
-    @Override
-    public void onIceCandidate(final IceCandidate candidate) {
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                if (webRtcClient != null) {
-                    webRtcClient.sendLocalIceCandidate(candidate);
-                }
-            }
-        });
-    }
-
-    @Override
-    public void onIceConnected() {
-        final long delta = System.currentTimeMillis() - callStartedTimeMs;
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                Log.d(LOG_TAG, "ICE connected, delay=" + delta + "ms");
-                Toast.makeText(MainActivity.this, "ICE connected, delay=" + delta + "ms", Toast.LENGTH_SHORT).show();
-                iceConnected = true;
-                callConnected();
-            }
-        });
-    }
-
-    @Override
-    public void onIceDisconnected() {
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                Log.d(LOG_TAG, "ICE disconnected");
-                Toast.makeText(MainActivity.this, "ICE disconnected", Toast.LENGTH_SHORT).show();
-                iceConnected = false;
-                disconnect();
-            }
-        });
-    }
-
-    @Override
-    public void onPeerConnectionClosed() {
-
-    }
-
-    @Override
-    public void onPeerConnectionStatsReady(final StatsReport[] reports) {
-
-    }
-
-    @Override
-    public void onPeerConnectionError(final String description) {
-        reportError(description);
+                }).create().show();
     }
 }
@@ -0,0 +1,45 @@
+package com.example.pavlo.aphone.bitrate_control;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.pavlo.aphone.interfaces.AudioBitrateEvents;
+import com.example.pavlo.aphone.interfaces.StatsSubscriber;
+import com.example.pavlo.aphone.stats.CallStatsIngestor;
+
+import org.webrtc.StatsReport;
+
+/**
+ * Created by pavlo on 18.10.26.
+ *
+ * Feeds the live loss, RTT and bandwidth estimate of a call into a {@link BitrateControlLaw} on
+ * every stats poll and reports the decisions that change the target bitrate or FEC. Loss is the
+ * send side loss reported by the remote end, since only what this side sends can be adapted.
+ */
+public class AudioBitrateController implements StatsSubscriber {
+
+    private static final String LOG_TAG = "Audio bitrate";
+
+    private final CallStatsIngestor callStats;
+    private final BitrateControlLaw law;
+    private final AudioBitrateEvents events;
+
+    public AudioBitrateController(CallStatsIngestor callStats, BitrateControlLaw law, AudioBitrateEvents events) {
+        this.callStats = callStats;
+        this.law = law;
+        this.events = events;
+    }
+
+    @Override
+    public void onStatsReport(final StatsReport[] reports) {
+        double lossPercent = callStats.getCurrent(CallStatsIngestor.Metric.SEND_PACKET_LOSS_PERCENT, 0);
+        double rttMs = callStats.getCurrent(CallStatsIngestor.Metric.RTT_MS, 0);
+        double availableKbps = callStats.getCurrent(CallStatsIngestor.Metric.AVAILABLE_SEND_BANDWIDTH_KBPS, 0);
+
+        if (law.update(SystemClock.elapsedRealtime(), lossPercent, rttMs, availableKbps)) {
+            Log.d(LOG_TAG, "Target " + law.getBitrateKbps() + "kbps, fec=" + law.isFec() + " (loss=" +
+                    lossPercent + "%, rtt=" + rttMs + "ms, available=" + availableKbps + "kbps)");
+            events.onAudioBitrateChanged(law.getBitrateKbps(), law.isFec());
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.example.pavlo.aphone.bitrate_control;
+
+/**
+ * Created by pavlo on 18.10.26.
+ *
+ * Pure control law of the audio bitrate, free of Android and WebRTC types so traces can be
+ * replayed offline by {@link BitrateTraceSimulator}.
+ *
+ * Congestion (high loss or RTT) cuts the target multiplicatively once it lasted
+ * {@code decreaseAfterMs}; a clean link raises it additively once it stayed clean for
+ * {@code increaseAfterMs}. The target never exceeds a share of the estimated available bandwidth.
+ * After every change the law holds for {@code holdMs} and ignores changes smaller than
+ * {@code minChangeKbps}, so the call is not renegotiated on every wobble. In-band FEC is switched
+ * on above {@code fecOnLossPercent} and off again only below {@code fecOffLossPercent}.
+ *
+ * Hysteresis is measured in sample time, not in sample counts, so the law reacts alike whether
+ * stats are polled every 500ms or every 5s.
+ */
+public class BitrateControlLaw {
+
+    private int startKbps = 32;
+    private boolean startFec = true;
+    private int minKbps = 8;
+    private int maxKbps = 64;
+    private int increaseStepKbps = 4;
+    private double decreaseFactor = 0.75;
+    private double bandwidthShare = 0.8;
+    private double highLossPercent = 5;
+    private double lowLossPercent = 1;
+    private double highRttMs = 400;
+    private double lowRttMs = 200;
+    private double fecOnLossPercent = 2;
+    private double fecOffLossPercent = 0.5;
+    private long increaseAfterMs = 4000;
+    private long decreaseAfterMs = 1000;
+    private long holdMs = 2000;
+    private int minChangeKbps = 4;
+
+    private int bitrateKbps;
+    private boolean fec;
+
+    private long goodSinceMs;
+    private long badSinceMs;
+    private long lastChangeMs;
+
+    private BitrateControlLaw() {
+
+    }
+
+    public void reset(int bitrateKbps, boolean fec) {
+        this.bitrateKbps = clamp(bitrateKbps);
+        this.fec = fec;
+        goodSinceMs = -1;
+        badSinceMs = -1;
+        lastChangeMs = -1;
+    }
+
+    /**
+     * Feeds one stats sample.
+     *
+     * @param nowMs time of the sample on a monotonic clock, never smaller than the previous one.
+     * @param availableKbps estimated available send bandwidth, 0 or less if unknown.
+     * @return true if the target bitrate or FEC setting changed.
+     */
+    public boolean update(long nowMs, double lossPercent, double rttMs, double availableKbps) {
+        boolean newFec = fec;
+        if (!fec && lossPercent >= fecOnLossPercent) {
+            newFec = true;
+        } else if (fec && lossPercent < fecOffLossPercent) {
+            newFec = false;
+        }
+
+        boolean congested = lossPercent >= highLossPercent || rttMs >= highRttMs;
+        boolean clean = lossPercent < lowLossPercent && rttMs < lowRttMs;
+        if (!congested) {
+            badSinceMs = -1;
+        } else if (badSinceMs < 0) {
+            badSinceMs = nowMs;
+        }
+        if (!clean) {
+            goodSinceMs = -1;
+        } else if (goodSinceMs < 0) {
+            goodSinceMs = nowMs;
+        }
+
+        int target = bitrateKbps;
+        if (badSinceMs >= 0 && nowMs - badSinceMs >= decreaseAfterMs) {
+            target = (int) (bitrateKbps * decreaseFactor);
+        } else if (goodSinceMs >= 0 && nowMs - goodSinceMs >= increaseAfterMs) {
+            target = bitrateKbps + increaseStepKbps;
+        }
+        if (availableKbps > 0) {
+            target = Math.min(target, (int) (availableKbps * bandwidthShare));
+        }
+        target = clamp(target);
+
+        boolean bitrateChanged = Math.abs(target - bitrateKbps) >= minChangeKbps ||
+                (target != bitrateKbps && (target == minKbps || target == maxKbps));
+        boolean holding = lastChangeMs >= 0 && nowMs - lastChangeMs < holdMs;
+        if (!(bitrateChanged || newFec != fec) || holding) {
+            return false;
+        }
+        if (bitrateChanged) {
+            bitrateKbps = target;
+        }
+        fec = newFec;
+        goodSinceMs = clean ? nowMs : -1;
+        badSinceMs = congested ? nowMs : -1;
+        lastChangeMs = nowMs;
+
+        return true;
+    }
+
+    public int getBitrateKbps() {
+        return bitrateKbps;
+    }
+
+    public boolean isFec() {
+        return fec;
+    }
+
+    private int clamp(int kbps) {
+        return Math.max(minKbps, Math.min(maxKbps, kbps));
+    }
+
+    public static Builder newBuilder() {
+        return new BitrateControlLaw().new Builder();
+    }
+
+    public class Builder {
+
+        private Builder() {
+
+        }
+
+        public Builder setStart(int startKbps, boolean startFec) {
+            BitrateControlLaw.this.startKbps = startKbps;
+            BitrateControlLaw.this.startFec = startFec;
+
+            return this;
+        }
+
+        public Builder setRange(int minKbps, int maxKbps) {
+            BitrateControlLaw.this.minKbps = minKbps;
+            BitrateControlLaw.this.maxKbps = maxKbps;
+
+            return this;
+        }
+
+        public Builder setSteps(int increaseStepKbps, double decreaseFactor, int minChangeKbps) {
+            BitrateControlLaw.this.increaseStepKbps = increaseStepKbps;
+            BitrateControlLaw.this.decreaseFactor = decreaseFactor;
+            BitrateControlLaw.this.minChangeKbps = minChangeKbps;
+
+            return this;
+        }
+
+        public Builder setBandwidthShare(double bandwidthShare) {
+            BitrateControlLaw.this.bandwidthShare = bandwidthShare;
+
+            return this;
+        }
+
+        public Builder setLossThresholds(double lowLossPercent, double highLossPercent) {
+            BitrateControlLaw.this.lowLossPercent = lowLossPercent;
+            BitrateControlLaw.this.highLossPercent = highLossPercent;
+
+            return this;
+        }
+
+        public Builder setRttThresholds(double lowRttMs, double highRttMs) {
+            BitrateControlLaw.this.lowRttMs = lowRttMs;
+            BitrateControlLaw.this.highRttMs = highRttMs;
+
+            return this;
+        }
+
+        public Builder setFecThresholds(double fecOffLossPercent, double fecOnLossPercent) {
+            BitrateControlLaw.this.fecOffLossPercent = fecOffLossPercent;
+            BitrateControlLaw.this.fecOnLossPercent = fecOnLossPercent;
+
+            return this;
+        }
+
+        public Builder setHysteresis(long increaseAfterMs, long decreaseAfterMs, long holdMs) {
+            BitrateControlLaw.this.increaseAfterMs = increaseAfterMs;
+            BitrateControlLaw.this.decreaseAfterMs = decreaseAfterMs;
+            BitrateControlLaw.this.holdMs = holdMs;
+
+            return this;
+        }
+
+        public BitrateControlLaw build() {
+            reset(startKbps, startFec);
+
+            return BitrateControlLaw.this;
+        }
+    }
+}
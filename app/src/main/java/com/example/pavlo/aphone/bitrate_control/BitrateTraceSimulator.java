@@ -0,0 +1,129 @@
+package com.example.pavlo.aphone.bitrate_control;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Created by pavlo on 18.10.26.
+ *
+ * Replays a stats trace through a {@link BitrateControlLaw} offline. A trace is CSV with one
+ * sample per line: {@code timeMs,lossPercent,rttMs,availableKbps}; empty lines and lines starting
+ * with {@code #} are skipped. The result tells how often the law would have renegotiated, how much
+ * it sent on average and how long it sent more than the link could carry.
+ */
+public class BitrateTraceSimulator {
+
+    private static final double CONGESTED_LOSS_PERCENT = 5;
+
+    private final BitrateControlLaw law;
+
+    public BitrateTraceSimulator(BitrateControlLaw law) {
+        this.law = law;
+    }
+
+    public Result replay(Reader trace) throws IOException {
+        Result result = new Result();
+        BufferedReader reader = new BufferedReader(trace);
+        long lastTimeMs = -1;
+        String line;
+
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.length() == 0 || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split(",");
+            if (fields.length < 4) {
+                throw new IOException("Bad trace line: " + line);
+            }
+            long timeMs;
+            double lossPercent;
+            double rttMs;
+            double availableKbps;
+            try {
+                timeMs = Long.parseLong(fields[0].trim());
+                lossPercent = Double.parseDouble(fields[1].trim());
+                rttMs = Double.parseDouble(fields[2].trim());
+                availableKbps = Double.parseDouble(fields[3].trim());
+            } catch (NumberFormatException e) {
+                throw new IOException("Bad trace line: " + line, e);
+            }
+
+            int previousKbps = law.getBitrateKbps();
+            if (law.update(timeMs, lossPercent, rttMs, availableKbps)) {
+                result.renegotiations++;
+            }
+            if (lastTimeMs >= 0) {
+                long intervalMs = timeMs - lastTimeMs;
+                result.durationMs += intervalMs;
+                result.sentKbit += previousKbps * intervalMs / 1000.0;
+                if (lossPercent >= CONGESTED_LOSS_PERCENT) {
+                    result.congestedMs += intervalMs;
+                }
+                if (availableKbps > 0 && previousKbps > availableKbps) {
+                    result.overBandwidthMs += intervalMs;
+                }
+            }
+            result.minKbps = Math.min(result.minKbps, law.getBitrateKbps());
+            result.maxKbps = Math.max(result.maxKbps, law.getBitrateKbps());
+            result.samples++;
+            lastTimeMs = timeMs;
+        }
+
+        return result;
+    }
+
+    public static class Result {
+
+        private int samples;
+        private int renegotiations;
+        private long durationMs;
+        private long congestedMs;
+        private long overBandwidthMs;
+        private double sentKbit;
+        private int minKbps = Integer.MAX_VALUE;
+        private int maxKbps;
+
+        public int getSamples() {
+            return samples;
+        }
+
+        public int getRenegotiations() {
+            return renegotiations;
+        }
+
+        public double getAverageKbps() {
+            return durationMs == 0 ? 0 : sentKbit * 1000 / durationMs;
+        }
+
+        /**
+         * @return time spent sending more than the available bandwidth of the trace.
+         */
+        public long getOverBandwidthMs() {
+            return overBandwidthMs;
+        }
+
+        /**
+         * @return time with at least 5% loss in the trace.
+         */
+        public long getCongestedMs() {
+            return congestedMs;
+        }
+
+        public int getMinKbps() {
+            return minKbps;
+        }
+
+        public int getMaxKbps() {
+            return maxKbps;
+        }
+
+        @Override
+        public String toString() {
+            return "samples=" + samples + ", renegotiations=" + renegotiations + ", avg=" + getAverageKbps() +
+                    "kbps, range=" + minKbps + "-" + maxKbps + "kbps, congested=" + congestedMs +
+                    "ms, overBandwidth=" + overBandwidthMs + "ms";
+        }
+    }
+}
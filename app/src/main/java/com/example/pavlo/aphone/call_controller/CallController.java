@@ -0,0 +1,380 @@
+package com.example.pavlo.aphone.call_controller;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.pavlo.aphone.audio_manager.RtcAudioManager;
+import com.example.pavlo.aphone.executor.CallRuntime;
+import com.example.pavlo.aphone.interfaces.CallStatusEvents;
+import com.example.pavlo.aphone.interfaces.PeerConnectionEvents;
+import com.example.pavlo.aphone.interfaces.SignalingEvents;
+import com.example.pavlo.aphone.network_monitor.ConnectivityNetworkMonitor;
+import com.example.pavlo.aphone.parameters.AudioProfile;
+import com.example.pavlo.aphone.parameters.IcePolicy;
+import com.example.pavlo.aphone.parameters.PeerConnectionParameters;
+import com.example.pavlo.aphone.parameters.RoomConnectionParameters;
+import com.example.pavlo.aphone.parameters.SignalingParameters;
+import com.example.pavlo.aphone.tracing.CallTracer;
+import com.example.pavlo.aphone.util.Config;
+import com.example.pavlo.aphone.util.NetworkUtilities;
+import com.example.pavlo.aphone.util.PeerConnectionUtilities;
+import com.example.pavlo.aphone.web_rtc_client.IcePolicyMetrics;
+import com.example.pavlo.aphone.web_rtc_client.PeerConnectionClient;
+import com.example.pavlo.aphone.web_rtc_client.SignalingUrlCache;
+import com.example.pavlo.aphone.web_rtc_client.TurnServerCache;
+import com.example.pavlo.aphone.web_rtc_client.WebRtcClient;
+
+import org.webrtc.IceCandidate;
+import org.webrtc.SessionDescription;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Created by pavlo on 18.10.26.
+ *
+ * Wires PeerConnectionClient and WebRtcClient to each other. Signaling callbacks arrive on the
+ * signaling executor and peer connection callbacks on the peer connection executor, and both are
+ * forwarded from there without a main thread hop. The UI only gets the latest call state: updates
+ * posted while an earlier one is still queued on the main thread replace it.
+ */
+public class CallController implements SignalingEvents, PeerConnectionEvents {
+
+    private static final String LOG_TAG = "Call controller";
+
+    public enum State {
+        IDLE, CONNECTING, CONNECTED_TO_ROOM, ICE_CONNECTED, RECONNECTING, DISCONNECTED
+    }
+
+    private final Context context;
+    private final Handler uiHandler = new Handler(Looper.getMainLooper());
+
+    private final AtomicReference<State> pendingState = new AtomicReference<>(State.IDLE);
+    private final AtomicBoolean statePosted = new AtomicBoolean();
+    private final AtomicInteger coalescedStates = new AtomicInteger();
+
+    private final Runnable publishStateTask = new Runnable() {
+        @Override
+        public void run() {
+            statePosted.set(false);
+            State state = pendingState.get();
+            if (state != publishedState) {
+                publishedState = state;
+                if (statusEvents != null) {
+                    statusEvents.onCallStateChanged(state);
+                }
+            }
+        }
+    };
+
+    private CallStatusEvents statusEvents;
+    private State publishedState = State.IDLE;
+
+    private volatile PeerConnectionClient peerConnectionClient;
+    private volatile WebRtcClient webRtcClient;
+    private volatile SignalingParameters signalingParameters;
+    private RtcAudioManager audioManager;
+
+    private volatile boolean iceConnected;
+    private volatile boolean isError;
+
+    private long callStartedMs;
+
+    public CallController(Context context) {
+        this.context = context.getApplicationContext();
+
+        TurnServerCache.getInstance().setContext(this.context);
+        SignalingUrlCache.getInstance().setContext(this.context);
+        PeerConnectionClient.getInstance().prewarmFactory(this.context);
+        PeerConnectionClient.getInstance().setNetworkMonitor(new ConnectivityNetworkMonitor(this.context));
+    }
+
+    /**
+     * Must be called on the main thread, {@code null} detaches the UI.
+     */
+    public void setStatusEvents(CallStatusEvents statusEvents) {
+        this.statusEvents = statusEvents;
+    }
+
+    /**
+     * Must be called on the main thread.
+     */
+    public synchronized void connectToRoom(String roomId) {
+        if (webRtcClient != null) {
+            Log.w(LOG_TAG, "Call is already in progress.");
+            return;
+        }
+        iceConnected = false;
+        isError = false;
+        signalingParameters = null;
+        coalescedStates.set(0);
+        callStartedMs = SystemClock.elapsedRealtime();
+        CallTracer.getInstance().startCall(roomId + "-" + System.currentTimeMillis());
+        publishState(State.CONNECTING);
+
+        PeerConnectionParameters peerConnectionParameters = PeerConnectionParameters.newBuilder().
+                setAudioStartBitrate(Config.AUDIO_BITRATE).
+                setAudioCodec(PeerConnectionUtilities.AUDIO_CODEC_OPUS).
+                setAudioProfile(selectAudioProfile()).
+                // No explicit speculative setup: only a policy with a candidate pool pre-gathers, so
+                // the policies compared by IcePolicyMetrics really differ.
+                setIcePolicy(IcePolicyMetrics.getInstance().selectPolicy(
+                        NetworkUtilities.getActiveNetworkType(context), IcePolicy.DEFAULT, IcePolicy.PREGATHER)).
+                setAecDump(false).
+                setNoAudioProcessing(false).
+                setUseOpenSLES(true).
+                setAdaptiveAudioBitrate(true).
+                setLoopback(false).
+                build();
+
+        CallRuntime.getInstance().checkThreadBudget();
+        webRtcClient = new WebRtcClient(this, CallRuntime.getInstance().getSignalingExecutor());
+        peerConnectionClient = PeerConnectionClient.getInstance();
+        peerConnectionClient.createPeerConnectionFactory(context, peerConnectionParameters, this);
+
+        webRtcClient.connectToRoom(new RoomConnectionParameters(Config.ROOM_URL, roomId, false));
+        peerConnectionClient.createSpeculativePeerConnection();
+
+        audioManager = new RtcAudioManager(context, new Runnable() {
+            @Override
+            public void run() {
+                onAudioManagerChangedState();
+            }
+        });
+        Log.d(LOG_TAG, "Initializing the audio manager...");
+        audioManager.init();
+    }
+
+    /**
+     * Ends the call. Safe to call from any thread and more than once.
+     */
+    public synchronized void disconnect() {
+        if (webRtcClient == null && peerConnectionClient == null) {
+            return;
+        }
+        CallTracer.getInstance().endCall();
+        if (webRtcClient != null) {
+            Log.d(LOG_TAG, "Executor " + webRtcClient.getExecutorMetrics());
+            webRtcClient.disconnectFromRoom();
+            webRtcClient = null;
+        }
+        if (peerConnectionClient != null) {
+            Log.d(LOG_TAG, "Executor " + peerConnectionClient.getExecutorMetrics());
+            peerConnectionClient.close();
+            peerConnectionClient = null;
+        }
+        if (audioManager != null) {
+            audioManager.close();
+            audioManager = null;
+        }
+        Log.d(LOG_TAG, "Coalesced UI state updates: " + coalescedStates.get());
+        publishState(State.DISCONNECTED);
+    }
+
+    /**
+     * @return true if the last call reached ICE connected without an error.
+     */
+    public boolean isCallSucceeded() {
+        return iceConnected && !isError;
+    }
+
+    public void trimMemory() {
+        PeerConnectionClient.getInstance().trimMemory();
+    }
+
+    private AudioProfile selectAudioProfile() {
+        if (NetworkUtilities.isMobileNetwork(context)) {
+            return AudioProfile.LOW_BANDWIDTH_CELLULAR;
+        }
+
+        return AudioProfile.WIDEBAND_WIFI;
+    }
+
+    private void onAudioManagerChangedState() {
+        // TODO(henrika): disable video if AppRTCAudioManager.AudioDevice.EARPIECE
+        // is active.
+    }
+
+    private void publishState(State state) {
+        pendingState.set(state);
+        if (statePosted.compareAndSet(false, true)) {
+            uiHandler.post(publishStateTask);
+        } else {
+            coalescedStates.incrementAndGet();
+        }
+    }
+
+    private void reportError(final String description) {
+        if (isError) {
+            return;
+        }
+        isError = true;
+        Log.e(LOG_TAG, "Critical error: " + description);
+        disconnect();
+        uiHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (statusEvents != null) {
+                    statusEvents.onCallError(description);
+                }
+            }
+        });
+    }
+
+    private long getCallDurationMs() {
+        return SystemClock.elapsedRealtime() - callStartedMs;
+    }
+
+    // SignalingEvents implementation, called on the signaling executor thread.
+
+    @Override
+    public void onConnectedToRoom(final SignalingParameters parameters) {
+        PeerConnectionClient client = peerConnectionClient;
+        if (client == null) {
+            Log.e(LOG_TAG, "Connected to room without a peer connection.");
+            return;
+        }
+        signalingParameters = parameters;
+        Log.d(LOG_TAG, "Creating peer connection, delay=" + getCallDurationMs() + "ms");
+        client.createPeerConnection(parameters);
+
+        if (parameters.isInitiator()) {
+            Log.d(LOG_TAG, "Creating OFFER...");
+            client.createOffer();
+        } else {
+            if (parameters.getOfferSdp() != null) {
+                client.setRemoteDescription(parameters.getOfferSdp());
+                Log.d(LOG_TAG, "Creating ANSWER...");
+                client.createAnswer();
+            }
+            if (parameters.getIceCandidates() != null) {
+                for (IceCandidate candidate : parameters.getIceCandidates()) {
+                    client.addRemoteIceCandidate(candidate);
+                }
+            }
+        }
+        publishState(State.CONNECTED_TO_ROOM);
+    }
+
+    @Override
+    public void onRemoteDescription(final SessionDescription sdp) {
+        PeerConnectionClient client = peerConnectionClient;
+        SignalingParameters parameters = signalingParameters;
+        if (client == null || parameters == null) {
+            Log.e(LOG_TAG, "Received remote SDP for non-initilized peer connection.");
+            return;
+        }
+        Log.d(LOG_TAG, "Received remote " + sdp.type + ", delay=" + getCallDurationMs() + "ms");
+        client.setRemoteDescription(sdp);
+
+        if (!parameters.isInitiator()) {
+            Log.d(LOG_TAG, "Creating ANSWER...");
+            client.createAnswer();
+        }
+    }
+
+    @Override
+    public void onRemoteIceCandidate(final IceCandidate candidate) {
+        PeerConnectionClient client = peerConnectionClient;
+        if (client == null) {
+            Log.e(LOG_TAG, "Received ICE candidate for non-initilized peer connection.");
+            return;
+        }
+        client.addRemoteIceCandidate(candidate);
+    }
+
+    @Override
+    public void onIceRestartRequested() {
+        PeerConnectionClient client = peerConnectionClient;
+        if (client == null) {
+            Log.e(LOG_TAG, "Received ICE restart request for non-initilized peer connection.");
+            return;
+        }
+        client.restartIce();
+    }
+
+    @Override
+    public void onChannelClose() {
+        Log.d(LOG_TAG, "Remote end hung up; dropping PeerConnection");
+        disconnect();
+    }
+
+    @Override
+    public void onChannelError(final String description) {
+        reportError(description);
+    }
+
+    // PeerConnectionEvents implementation, called on the peer connection executor thread.
+
+    @Override
+    public void onLocalDescription(final SessionDescription sdp) {
+        WebRtcClient client = webRtcClient;
+        SignalingParameters parameters = signalingParameters;
+        if (client == null || parameters == null) {
+            return;
+        }
+        Log.d(LOG_TAG, "Sending " + sdp.type + ", delay=" + getCallDurationMs() + "ms");
+        if (parameters.isInitiator()) {
+            client.sendOfferSdp(sdp);
+        } else {
+            client.sendAnswerSdp(sdp);
+        }
+    }
+
+    @Override
+    public void onIceCandidate(final IceCandidate candidate) {
+        WebRtcClient client = webRtcClient;
+        if (client != null) {
+            client.sendLocalIceCandidate(candidate);
+        }
+    }
+
+    @Override
+    public void onIceConnected() {
+        Log.i(LOG_TAG, "Call connected: delay=" + getCallDurationMs() + "ms");
+        iceConnected = true;
+        publishState(State.ICE_CONNECTED);
+    }
+
+    @Override
+    public void onIceDisconnected() {
+        Log.d(LOG_TAG, "ICE disconnected");
+        disconnect();
+    }
+
+    @Override
+    public void onIceReconnecting() {
+        Log.d(LOG_TAG, "ICE reconnecting");
+        publishState(State.RECONNECTING);
+        onIceRestartNeeded();
+    }
+
+    @Override
+    public void onIceRestartNeeded() {
+        WebRtcClient client = webRtcClient;
+        SignalingParameters parameters = signalingParameters;
+        if (client != null && parameters != null && !parameters.isInitiator()) {
+            client.requestIceRestart();
+        }
+    }
+
+    @Override
+    public void onIceReconnected() {
+        Log.d(LOG_TAG, "ICE reconnected");
+        publishState(State.ICE_CONNECTED);
+    }
+
+    @Override
+    public void onPeerConnectionClosed() {
+
+    }
+
+    @Override
+    public void onPeerConnectionError(final String description) {
+        reportError(description);
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.pavlo.aphone.executor;
+
+import android.util.Log;
+
+import com.example.pavlo.aphone.util.Config;
+
+/**
+ * Created by pavlo on 18.10.26.
+ *
+ * Threads shared by every call: one signaling executor, one peer connection control executor and
+ * the HTTP dispatcher pool of {@link Config#HTTP_MAX_THREADS} I/O threads. The executors are
+ * started once and never stopped, a LooperExecutor thread can not be started again anyway.
+ * Autobahn still creates its own reader and writer threads for every WebSocket connection.
+ */
+public class CallRuntime {
+
+    private static final String LOG_TAG = "Call runtime";
+
+    private static final int WEBSOCKET_THREADS = 2;
+
+    private static final String SIGNALING_THREAD = "signaling";
+    private static final String PEER_CONNECTION_THREAD = "peer-connection";
+    private static final String HTTP_THREAD_PREFIX = "http-dispatcher-";
+    private static final String WEBSOCKET_READER_THREAD = "WebSocketReader";
+    private static final String WEBSOCKET_WRITER_THREAD = "WebSocketWriter";
+
+    private static final CallRuntime instance = new CallRuntime();
+
+    private final LooperExecutor signalingExecutor;
+    private final LooperExecutor peerConnectionExecutor;
+
+    private final Runnable checkThreadBudgetTask = new Runnable() {
+        @Override
+        public void run() {
+            checkThreadBudgetInternal();
+        }
+    };
+
+    private int maxThreadCount;
+    private int callCycles;
+    private int overruns;
+
+    private CallRuntime() {
+        signalingExecutor = new LooperExecutor(LooperExecutor.Mode.LOCK_FREE_QUEUE, SIGNALING_THREAD,
+                Config.SIGNALING_THREAD_PRIORITY);
+        peerConnectionExecutor = new LooperExecutor(LooperExecutor.Mode.LOCK_FREE_QUEUE, PEER_CONNECTION_THREAD,
+                Config.PEER_CONNECTION_THREAD_PRIORITY);
+        signalingExecutor.requestStart();
+        peerConnectionExecutor.requestStart();
+    }
+
+    public static CallRuntime getInstance() {
+        return instance;
+    }
+
+    public LooperExecutor getSignalingExecutor() {
+        return signalingExecutor;
+    }
+
+    public LooperExecutor getPeerConnectionExecutor() {
+        return peerConnectionExecutor;
+    }
+
+    /**
+     * @return the most Java threads a call may add: both executors, the HTTP pool and the
+     * WebSocket reader and writer.
+     */
+    public int getThreadBudget() {
+        return 2 + Config.HTTP_MAX_THREADS + WEBSOCKET_THREADS;
+    }
+
+    /**
+     * @return live threads that belong to the call runtime: both executors, the HTTP dispatcher
+     * pool and Autobahn WebSocket readers and writers. Other threads of the process are not
+     * counted, so the result does not move with GC, binder or UI threads.
+     */
+    public int countRuntimeThreads() {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            String name = thread.getName();
+            if (name.equals(SIGNALING_THREAD) || name.equals(PEER_CONNECTION_THREAD) ||
+                    name.startsWith(HTTP_THREAD_PREFIX) || name.equals(WEBSOCKET_READER_THREAD) ||
+                    name.equals(WEBSOCKET_WRITER_THREAD)) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Counts the runtime threads on the signaling executor before a call starts. More than
+     * {@link #getThreadBudget()} plus {@link Config#THREAD_BUDGET_SLACK} for a WebSocket of the
+     * previous call that is still closing means a per-call thread leak, which is logged.
+     */
+    public void checkThreadBudget() {
+        signalingExecutor.execute(checkThreadBudgetTask);
+    }
+
+    private synchronized void checkThreadBudgetInternal() {
+        int threadCount = countRuntimeThreads();
+        callCycles++;
+        maxThreadCount = Math.max(maxThreadCount, threadCount);
+        Log.d(LOG_TAG, "Call cycle " + callCycles + ": " + threadCount + " runtime threads, budget: " +
+                getThreadBudget());
+        if (threadCount > getThreadBudget() + Config.THREAD_BUDGET_SLACK) {
+            overruns++;
+            Log.e(LOG_TAG, "Runtime threads over budget: " + threadCount + " after " + callCycles +
+                    " call cycles");
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "cycles=" + callCycles + ", max=" + maxThreadCount + ", budget=" + getThreadBudget() +
+                ", overruns=" + overruns;
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.pavlo.aphone.executor;
+
+import android.util.Log;
+
+import com.example.pavlo.aphone.util.Config;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Created by pavlo on 18.10.26.
+ *
+ * Instrumentation of one {@link LooperExecutor}: how long tasks wait in the queue and run, how
+ * deep the queue is, and which tasks run longer than {@link Config#EXECUTOR_LONG_TASK_MS}. A task
+ * is identified by its class, which for the anonymous runnables used everywhere names the
+ * enclosing class and its position, e.g. {@code PeerConnectionClient$12}.
+ */
+public class ExecutorMetrics {
+
+    private static final String LOG_TAG = "Executor metrics";
+
+    private static final long LONG_TASK_NANOS = TimeUnit.MILLISECONDS.toNanos(Config.EXECUTOR_LONG_TASK_MS);
+
+    private final String name;
+
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final LatencyHistogram waitHistogram = new LatencyHistogram();
+    private final LatencyHistogram runHistogram = new LatencyHistogram();
+
+    private int maxQueueDepth;
+    private long longTasks;
+
+    private volatile Runnable runningTask;
+    private volatile long runningTaskStartNanos;
+    private volatile boolean runningTaskReported;
+
+    ExecutorMetrics(String name) {
+        this.name = name;
+    }
+
+    void onEnqueued() {
+        queueDepth.incrementAndGet();
+        checkRunningTask();
+    }
+
+    /**
+     * @param queued false for scheduled tasks, which wait for their due time and are not part of
+     *               the queue depth.
+     */
+    void onStarted(Runnable task, long enqueuedNanos, boolean queued) {
+        long now = System.nanoTime();
+        int depth = queued ? queueDepth.getAndDecrement() : queueDepth.get();
+        synchronized (this) {
+            maxQueueDepth = Math.max(maxQueueDepth, depth);
+            waitHistogram.record(TimeUnit.NANOSECONDS.toMicros(now - enqueuedNanos));
+        }
+        runningTaskReported = false;
+        runningTaskStartNanos = now;
+        runningTask = task;
+    }
+
+    void onFinished(Runnable task) {
+        long runNanos = System.nanoTime() - runningTaskStartNanos;
+        runningTask = null;
+        synchronized (this) {
+            runHistogram.record(TimeUnit.NANOSECONDS.toMicros(runNanos));
+            if (runNanos >= LONG_TASK_NANOS) {
+                longTasks++;
+            }
+        }
+        if (runNanos >= LONG_TASK_NANOS) {
+            Log.w(LOG_TAG, name + ": long task " + task.getClass().getName() + " ran " +
+                    TimeUnit.NANOSECONDS.toMillis(runNanos) + "ms, queue depth " + queueDepth.get());
+        }
+    }
+
+    /**
+     * Reports a task that is still running past the long-task threshold. Called from producers,
+     * so a stuck looper is noticed by the next thread that tries to post to it.
+     */
+    void checkRunningTask() {
+        Runnable task = runningTask;
+        if (task == null || runningTaskReported) {
+            return;
+        }
+        long runningNanos = System.nanoTime() - runningTaskStartNanos;
+        if (runningNanos >= LONG_TASK_NANOS) {
+            runningTaskReported = true;
+            Log.w(LOG_TAG, name + ": task " + task.getClass().getName() + " still running after " +
+                    TimeUnit.NANOSECONDS.toMillis(runningNanos) + "ms, queue depth " + queueDepth.get());
+        }
+    }
+
+    public synchronized Snapshot getSnapshot() {
+        return new Snapshot(name, queueDepth.get(), maxQueueDepth, longTasks,
+                waitHistogram.copy(), runHistogram.copy());
+    }
+
+    public static class Snapshot {
+
+        private final String name;
+        private final int queueDepth;
+        private final int maxQueueDepth;
+        private final long longTasks;
+        private final LatencyHistogram waitHistogram;
+        private final LatencyHistogram runHistogram;
+
+        private Snapshot(String name, int queueDepth, int maxQueueDepth, long longTasks,
+                         LatencyHistogram waitHistogram, LatencyHistogram runHistogram) {
+            this.name = name;
+            this.queueDepth = queueDepth;
+            this.maxQueueDepth = maxQueueDepth;
+            this.longTasks = longTasks;
+            this.waitHistogram = waitHistogram;
+            this.runHistogram = runHistogram;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getQueueDepth() {
+            return queueDepth;
+        }
+
+        public int getMaxQueueDepth() {
+            return maxQueueDepth;
+        }
+
+        public long getLongTasks() {
+            return longTasks;
+        }
+
+        /**
+         * @return time from {@code execute} to the start of the task.
+         */
+        public LatencyHistogram getWaitHistogram() {
+            return waitHistogram;
+        }
+
+        public LatencyHistogram getRunHistogram() {
+            return runHistogram;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": depth=" + queueDepth + ", maxDepth=" + maxQueueDepth + ", longTasks=" + longTasks +
+                    ", wait[" + waitHistogram + "], run[" + runHistogram + "]";
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.pavlo.aphone.executor;
+
+/**
+ * Created by pavlo on 18.10.26.
+ *
+ * Histogram with power-of-two microsecond buckets: bucket {@code i} counts values in
+ * {@code [2^i, 2^(i+1))} microseconds, the last bucket also holds everything above. Not thread
+ * safe, the owner synchronizes.
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKETS = 22;
+
+    private final long[] buckets = new long[BUCKETS];
+
+    private long count;
+    private long totalMicros;
+    private long maxMicros;
+
+    public void record(long micros) {
+        if (micros < 0) {
+            micros = 0;
+        }
+        int bucket = micros == 0 ? 0 : 63 - Long.numberOfLeadingZeros(micros);
+        buckets[Math.min(bucket, BUCKETS - 1)]++;
+        count++;
+        totalMicros += micros;
+        maxMicros = Math.max(maxMicros, micros);
+    }
+
+    public LatencyHistogram copy() {
+        LatencyHistogram copy = new LatencyHistogram();
+        System.arraycopy(buckets, 0, copy.buckets, 0, BUCKETS);
+        copy.count = count;
+        copy.totalMicros = totalMicros;
+        copy.maxMicros = maxMicros;
+
+        return copy;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getAverageMicros() {
+        return count == 0 ? 0 : totalMicros / count;
+    }
+
+    public long getMaxMicros() {
+        return maxMicros;
+    }
+
+    /**
+     * @return upper bound of the bucket holding the {@code percentile} (0-100) value.
+     */
+    public long getPercentileMicros(int percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (count * percentile + 99) / 100;
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return Math.min(1L << (i + 1), maxMicros);
+            }
+        }
+
+        return maxMicros;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + count + ", avg=" + getAverageMicros() + "us, p50=" + getPercentileMicros(50) +
+                "us, p95=" + getPercentileMicros(95) + "us, p99=" + getPercentileMicros(99) +
+                "us, max=" + maxMicros + "us";
+    }
+}
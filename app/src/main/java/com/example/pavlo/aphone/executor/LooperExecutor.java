@@ -2,9 +2,14 @@ package com.example.pavlo.aphone.executor;
 
 import android.os.Handler;
 import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
 
+import com.example.pavlo.aphone.util.Config;
+
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Created by pavlo on 25.06.16.
@@ -13,14 +18,62 @@ public class LooperExecutor extends Thread implements Executor {
 
     private static final String LOG_TAG = "Looper executor";
 
+    /**
+     * {@link Mode#HANDLER} posts every task to the handler under the executor monitor.
+     * {@link Mode#LOCK_FREE_QUEUE} lets producers append to a lock-free queue without locking and
+     * posts a single wake-up, which drains the queue in batches on the looper thread.
+     */
+    public enum Mode {
+        HANDLER, LOCK_FREE_QUEUE
+    }
+
     private final Object looperStartedEvent = new Object();
 
-    private Handler handler = null;
-    private boolean running = false;
-    private long threadId;
+    private final Mode mode;
+    private final int priority;
+    private final ExecutorMetrics metrics;
+    private final MpscTaskQueue taskQueue;
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            drainTaskQueue();
+        }
+    };
+
+    private volatile Handler handler = null;
+    private volatile boolean running = false;
+    private volatile long threadId;
+
+    private long drainedTasks;
+    private long wakeups;
+
+    public LooperExecutor() {
+        this(Mode.HANDLER);
+    }
+
+    public LooperExecutor(Mode mode) {
+        this(mode, "looper-executor");
+    }
+
+    public LooperExecutor(Mode mode, String name) {
+        this(mode, name, Process.THREAD_PRIORITY_DEFAULT);
+    }
+
+    /**
+     * @param priority Linux thread priority, see {@link Process#setThreadPriority(int)}.
+     */
+    public LooperExecutor(Mode mode, String name, int priority) {
+        super(name);
+        this.mode = mode;
+        this.priority = priority;
+        metrics = new ExecutorMetrics(name);
+        taskQueue = mode == Mode.LOCK_FREE_QUEUE ? new MpscTaskQueue() : null;
+    }
 
     @Override
     public void run() {
+        Process.setThreadPriority(priority);
         Looper.prepare();
         synchronized (looperStartedEvent) {
             Log.d(LOG_TAG, "Looper thread started.");
@@ -31,24 +84,33 @@ public class LooperExecutor extends Thread implements Executor {
         Looper.loop();
     }
 
+    /**
+     * Starts the looper thread and waits for its handler. {@code running} is published only after
+     * the handler, so a producer that sees it set never finds the handler missing. An interrupt
+     * does not cut the wait short, but the interrupt flag is restored afterwards.
+     */
     public synchronized void requestStart() {
         if (running) {
             return;
         }
-        running = true;
         handler = null;
         start();
 
+        boolean interrupted = false;
         synchronized (looperStartedEvent) {
             while (handler == null) {
                 try {
                     looperStartedEvent.wait();
                 } catch (InterruptedException e) {
-                    Log.e(LOG_TAG, "Can not started looper thread!");
-                    running = false;
+                    Log.e(LOG_TAG, "Interrupted while waiting for the looper thread to start.");
+                    interrupted = true;
                 }
             }
         }
+        running = true;
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     public synchronized void requestStop() {
@@ -59,6 +121,10 @@ public class LooperExecutor extends Thread implements Executor {
         handler.post(new Runnable() {
             @Override
             public void run() {
+                if (taskQueue != null) {
+                    drainTaskQueue();
+                    Log.d(LOG_TAG, "Drained " + drainedTasks + " tasks in " + wakeups + " wake-ups.");
+                }
                 Looper.myLooper().quit();
                 Log.d(LOG_TAG, "Looper thread finished!");
             }
@@ -69,16 +135,183 @@ public class LooperExecutor extends Thread implements Executor {
         return Thread.currentThread().getId() == threadId;
     }
 
+    public Mode getMode() {
+        return mode;
+    }
+
+    public ExecutorMetrics.Snapshot getMetrics() {
+        return metrics.getSnapshot();
+    }
+
+    /**
+     * Runs {@code command} once on the looper thread after {@code delayMs}.
+     */
+    public ScheduledTask schedule(final Runnable command, long delayMs) {
+        return schedule(command, delayMs, 0);
+    }
+
+    /**
+     * Runs {@code command} every {@code periodMs}, first after {@code initialDelayMs}, until the
+     * returned task is cancelled.
+     */
+    public ScheduledTask scheduleAtFixedRate(final Runnable command, long initialDelayMs, long periodMs) {
+        if (periodMs <= 0) {
+            throw new IllegalArgumentException("Period must be positive: " + periodMs);
+        }
+
+        return schedule(command, initialDelayMs, periodMs);
+    }
+
+    /**
+     * Cancels {@code task}, safe to call from any thread and more than once. A run that already
+     * started completes, but a periodic task is not rescheduled.
+     */
+    public void cancel(ScheduledTask task) {
+        if (task == null) {
+            return;
+        }
+        task.markCancelled();
+        Handler handler = this.handler;
+        if (handler != null) {
+            handler.removeCallbacksAndMessages(task);
+        }
+    }
+
+    private ScheduledTask schedule(final Runnable command, long delayMs, long periodMs) {
+        ScheduledTask task = new ScheduledTask(command, periodMs);
+        synchronized (this) {
+            if (!running) {
+                Log.w(LOG_TAG, "Running looper executor without calling requestStart()");
+                task.markCancelled();
+                return task;
+            }
+            task.nextRunMs = SystemClock.uptimeMillis() + Math.max(delayMs, 0);
+            postScheduledTask(task);
+        }
+
+        return task;
+    }
+
+    private void postScheduledTask(final ScheduledTask task) {
+        handler.postAtTime(new Runnable() {
+            @Override
+            public void run() {
+                runScheduledTask(task);
+            }
+        }, task, task.nextRunMs);
+    }
+
+    private void runScheduledTask(ScheduledTask task) {
+        if (task.isCancelled()) {
+            return;
+        }
+        long dueNanos = System.nanoTime() - (SystemClock.uptimeMillis() - task.nextRunMs) * 1000000L;
+        metrics.onStarted(task.getCommand(), dueNanos, false);
+        try {
+            task.getCommand().run();
+        } finally {
+            metrics.onFinished(task.getCommand());
+        }
+
+        if (!task.isPeriodic() || task.isCancelled() || !running) {
+            return;
+        }
+        long now = SystemClock.uptimeMillis();
+        long periodMs = task.getPeriodMs();
+        task.nextRunMs += periodMs;
+        if (task.nextRunMs <= now) {
+            long missed = (now - task.nextRunMs) / periodMs + 1;
+            task.coalescedRuns += missed;
+            task.nextRunMs += missed * periodMs;
+        }
+        postScheduledTask(task);
+    }
+
     @Override
-    public synchronized void execute(final Runnable command) {
+    public void execute(final Runnable command) {
+        if (mode == Mode.LOCK_FREE_QUEUE) {
+            enqueue(command);
+            return;
+        }
+        synchronized (this) {
+            if (!running) {
+                Log.w(LOG_TAG, "Running looper executor without calling requestStart()");
+                return;
+            }
+            if (checkOnLooperThread()) {
+                command.run();
+            } else {
+                metrics.onEnqueued();
+                handler.post(new InstrumentedTask(command, System.nanoTime()));
+            }
+        }
+    }
+
+    /**
+     * Lock-free path: reads {@code running} without the monitor, which is safe because
+     * {@link #requestStart()} sets it only after {@code handler}.
+     */
+    private void enqueue(final Runnable command) {
         if (!running) {
             Log.w(LOG_TAG, "Running looper executor without calling requestStart()");
             return;
         }
         if (checkOnLooperThread()) {
             command.run();
-        } else {
-            handler.post(command);
+            return;
+        }
+        metrics.onEnqueued();
+        taskQueue.offer(new InstrumentedTask(command, System.nanoTime()));
+        if (wakeupPending.compareAndSet(false, true)) {
+            handler.post(drainTask);
+        }
+    }
+
+    /**
+     * Runs up to {@link Config#EXECUTOR_DRAIN_BATCH_SIZE} queued tasks, then yields the looper to
+     * other messages if more are left. The pending flag is cleared before draining, so a task
+     * queued during the drain either runs in this batch or posts the next wake-up.
+     */
+    private void drainTaskQueue() {
+        wakeupPending.set(false);
+        wakeups++;
+
+        for (int i = 0; i < Config.EXECUTOR_DRAIN_BATCH_SIZE; i++) {
+            Runnable task = taskQueue.poll();
+            if (task == null) {
+                return;
+            }
+            drainedTasks++;
+            task.run();
+        }
+
+        if (!taskQueue.isEmpty() && wakeupPending.compareAndSet(false, true)) {
+            handler.post(drainTask);
+        }
+    }
+
+    /**
+     * Task posted from another thread. Tasks run inline on the looper thread are part of the
+     * calling task and are not measured on their own.
+     */
+    private class InstrumentedTask implements Runnable {
+
+        private final Runnable command;
+        private final long enqueuedNanos;
+
+        private InstrumentedTask(Runnable command, long enqueuedNanos) {
+            this.command = command;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+
+        @Override
+        public void run() {
+            metrics.onStarted(command, enqueuedNanos, true);
+            try {
+                command.run();
+            } finally {
+                metrics.onFinished(command);
+            }
         }
     }
 }
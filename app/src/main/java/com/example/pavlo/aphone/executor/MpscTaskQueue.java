@@ -0,0 +1,59 @@
+package com.example.pavlo.aphone.executor;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Created by pavlo on 18.10.26.
+ *
+ * Unbounded lock-free multi-producer single-consumer queue of tasks (Vyukov's linked queue).
+ * Producers pay one atomic swap per {@link #offer}; only the consumer thread may call
+ * {@link #poll}. A producer that swapped the tail but has not linked its node yet makes
+ * {@link #poll} return null for a moment, so callers must not use null as "empty forever".
+ */
+class MpscTaskQueue {
+
+    private final AtomicReference<Node> tail;
+    private Node head;
+
+    MpscTaskQueue() {
+        Node stub = new Node(null);
+        head = stub;
+        tail = new AtomicReference<>(stub);
+    }
+
+    void offer(Runnable task) {
+        Node node = new Node(task);
+        Node previous = tail.getAndSet(node);
+        Node.NEXT.lazySet(previous, node);
+    }
+
+    Runnable poll() {
+        Node next = head.next;
+        if (next == null) {
+            return null;
+        }
+        Runnable task = next.task;
+        next.task = null;
+        head = next;
+
+        return task;
+    }
+
+    boolean isEmpty() {
+        return head.next == null;
+    }
+
+    private static class Node {
+
+        private static final AtomicReferenceFieldUpdater<Node, Node> NEXT =
+                AtomicReferenceFieldUpdater.newUpdater(Node.class, Node.class, "next");
+
+        private Runnable task;
+        private volatile Node next;
+
+        private Node(Runnable task) {
+            this.task = task;
+        }
+    }
+}
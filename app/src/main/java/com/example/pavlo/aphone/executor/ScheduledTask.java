@@ -0,0 +1,50 @@
+package com.example.pavlo.aphone.executor;
+
+/**
+ * Created by pavlo on 18.10.26.
+ *
+ * Handle of a task scheduled on a {@link LooperExecutor}. A periodic task that falls behind
+ * does not replay the ticks it missed: they are coalesced into the next run and counted.
+ */
+public class ScheduledTask {
+
+    private final Runnable command;
+    private final long periodMs;
+
+    private volatile boolean cancelled;
+
+    long nextRunMs;
+    long coalescedRuns;
+
+    ScheduledTask(Runnable command, long periodMs) {
+        this.command = command;
+        this.periodMs = periodMs;
+    }
+
+    Runnable getCommand() {
+        return command;
+    }
+
+    long getPeriodMs() {
+        return periodMs;
+    }
+
+    void markCancelled() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public boolean isPeriodic() {
+        return periodMs > 0;
+    }
+
+    /**
+     * @return number of periodic runs skipped because the previous run was late.
+     */
+    public long getCoalescedRuns() {
+        return coalescedRuns;
+    }
+}
@@ -1,6 +1,6 @@
 package com.example.pavlo.aphone.http_url_connection;
 
-import android.os.AsyncTask;
+import android.util.Log;
 
 import com.example.pavlo.aphone.interfaces.AsyncHttpEvents;
 import com.example.pavlo.aphone.util.Config;
@@ -9,6 +9,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
 import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.util.Scanner;
@@ -20,6 +21,8 @@ import javax.net.ssl.HttpsURLConnection;
  */
 public class AsyncHttpUrlConnection {
 
+    private static final String LOG_TAG = "Async http connection";
+
     private final String method;
     private final String url;
     private final String message;
@@ -27,10 +30,15 @@ public class AsyncHttpUrlConnection {
     private final AsyncHttpEvents events;
 
     private String contentType;
+    private int timeoutMs = Config.HTTP_TIMEOUT_MS;
+    private boolean signalingHeaders = true;
     private String response;
+    private String host;
 
     private int responseCode;
 
+    private boolean connectionReused;
+
     public AsyncHttpUrlConnection(String method, String url, String message, AsyncHttpEvents events) {
         this.method = method;
         this.url = url;
@@ -42,19 +50,46 @@ public class AsyncHttpUrlConnection {
         this.contentType = contentType;
     }
 
+    public void setTimeoutMs(int timeoutMs) {
+        this.timeoutMs = timeoutMs;
+    }
+
+    /**
+     * @param signalingHeaders false to send the request without the room origin and content type,
+     * for requests to hosts other than the room server.
+     */
+    public void setSignalingHeaders(boolean signalingHeaders) {
+        this.signalingHeaders = signalingHeaders;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
     public void send() {
-        Runnable runHttp = new Runnable() {
-            @Override
-            public void run() {
-                sendHttpMessage();
-            }
-        };
-        new Thread(runHttp).start();
+        try {
+            host = new URL(url).getHost();
+        } catch (MalformedURLException e) {
+            events.onHttpError("HTTP " + method + " to " + url + " error: " + e.getMessage());
+            return;
+        }
+        HttpDispatcher.getInstance().enqueue(this);
     }
 
-    public void sendHttpMessage() {
+    void reportDispatchError(String errorMessage) {
+        Log.e(LOG_TAG, errorMessage);
+        events.onHttpError(errorMessage);
+    }
+
+    public boolean isConnectionReused() {
+        return connectionReused;
+    }
+
+    void sendHttpMessage() {
+        HttpConnectionPool pool = HttpConnectionPool.getInstance();
+        HttpURLConnection connection = null;
         try {
-            HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+            connection = pool.open(url);
             byte[] postData= new byte[0];
             if (message != null) {
                 postData = message.getBytes("UTF-8");
@@ -62,9 +97,11 @@ public class AsyncHttpUrlConnection {
             connection.setRequestMethod(method);
             connection.setUseCaches(false);
             connection.setDoInput(true);
-            connection.setConnectTimeout(Config.HTTP_TIMEOUT_MS);
-            connection.setReadTimeout(Config.HTTP_TIMEOUT_MS);
-            connection.addRequestProperty("origin", Config.ROOM_URL);
+            connection.setConnectTimeout(timeoutMs);
+            connection.setReadTimeout(timeoutMs);
+            if (signalingHeaders) {
+                connection.addRequestProperty("origin", Config.ROOM_URL);
+            }
 
             boolean doOutput = false;
 
@@ -74,10 +111,10 @@ public class AsyncHttpUrlConnection {
                 connection.setFixedLengthStreamingMode(postData.length);
             }
 
-            if (contentType == null) {
-                connection.setRequestProperty("Content-Type", "text/plain; charset=utf-8");
-            } else {
+            if (contentType != null) {
                 connection.setRequestProperty("Content-Type", contentType);
+            } else if (signalingHeaders) {
+                connection.setRequestProperty("Content-Type", "text/plain; charset=utf-8");
             }
 
             if (doOutput && postData.length > 0) {
@@ -89,19 +126,25 @@ public class AsyncHttpUrlConnection {
             responseCode = connection.getResponseCode();
 
             if (responseCode != 200) {
+                connectionReused = pool.release(connection.getErrorStream());
                 events.onHttpError("Non-200 response to " + method + " to Url: " + url);
-                connection.disconnect();
                 return;
             }
 
             InputStream inputStream = connection.getInputStream();
             response = drainStream(inputStream);
-            inputStream.close();
-            connection.disconnect();
+            connectionReused = pool.release(inputStream);
+            Log.d(LOG_TAG, method + " " + url + " done, connection reused: " + connectionReused);
             events.onHttpComplete(response);
         } catch (SocketTimeoutException e) {
+            if (connection != null) {
+                connection.disconnect();
+            }
             events.onHttpError("Http " + method + " to " + url + " timeout");
         } catch (IOException e) {
+            if (connection != null) {
+                connection.disconnect();
+            }
             events.onHttpError("HTTP " + method + " to " + url + " error: "
                     + e.getMessage());
         }
@@ -0,0 +1,233 @@
+package com.example.pavlo.aphone.http_url_connection;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.pavlo.aphone.util.Config;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Created by pavlo on 18.10.26.
+ *
+ * Keeps signaling sockets warm between requests. HttpURLConnection returns a socket to its
+ * keep-alive pool only when the body is fully read and disconnect() is not called, so every
+ * connection should be opened and released through this class. HTTPS connections share one
+ * SSLContext, which lets the TLS session cache resume sessions instead of doing full handshakes.
+ * Socket reuse can only be observed through that SSLContext, so plain HTTP requests are counted
+ * apart and never reported as reused.
+ */
+public class HttpConnectionPool {
+
+    private static final String LOG_TAG = "Http connection pool";
+
+    private static final HttpConnectionPool instance = new HttpConnectionPool();
+
+    private final ThreadLocal<int[]> socketsCreated = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1];
+        }
+    };
+    private final ThreadLocal<boolean[]> tracked = new ThreadLocal<boolean[]>() {
+        @Override
+        protected boolean[] initialValue() {
+            return new boolean[1];
+        }
+    };
+
+    private final AtomicLong plainRequestCount = new AtomicLong();
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong reusedCount = new AtomicLong();
+    private final AtomicLong handshakeCount = new AtomicLong();
+    private final AtomicLong resumedHandshakeCount = new AtomicLong();
+
+    private final SSLSocketFactory socketFactory;
+
+    private HttpConnectionPool() {
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", String.valueOf(Config.HTTP_MAX_IDLE_CONNECTIONS));
+
+        SSLSocketFactory factory;
+        try {
+            SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(null, null, null);
+            SSLSessionContext sessionContext = sslContext.getClientSessionContext();
+            sessionContext.setSessionCacheSize(Config.TLS_SESSION_CACHE_SIZE);
+            sessionContext.setSessionTimeout(Config.TLS_SESSION_TIMEOUT_S);
+            factory = new TrackingSocketFactory(sslContext.getSocketFactory());
+        } catch (GeneralSecurityException e) {
+            Log.e(LOG_TAG, "Can not create TLS context, using default socket factory: " + e.getMessage());
+            factory = null;
+        }
+        socketFactory = factory;
+    }
+
+    public static HttpConnectionPool getInstance() {
+        return instance;
+    }
+
+    /**
+     * Opens a connection on the calling thread and starts tracking whether it gets a new socket.
+     * Must be paired with {@link #release} on the same thread.
+     */
+    public HttpURLConnection open(String url) throws IOException {
+        socketsCreated.get()[0] = 0;
+        tracked.get()[0] = false;
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        if (socketFactory != null && connection instanceof HttpsURLConnection) {
+            ((HttpsURLConnection) connection).setSSLSocketFactory(socketFactory);
+            tracked.get()[0] = true;
+        }
+
+        return connection;
+    }
+
+    /**
+     * Fully drains and closes the stream so the socket goes back to the keep-alive pool.
+     *
+     * @return true if the request was served on an already open socket, always false for plain
+     * HTTP where socket creation can not be observed.
+     */
+    public boolean release(InputStream inputStream) {
+        if (inputStream != null) {
+            try {
+                byte[] buffer = new byte[1024];
+                while (inputStream.read(buffer) != -1) {
+                    // Drain the rest of the body.
+                }
+                inputStream.close();
+            } catch (IOException e) {
+                Log.d(LOG_TAG, "Can not drain response stream: " + e.getMessage());
+            }
+        }
+
+        if (!tracked.get()[0]) {
+            plainRequestCount.incrementAndGet();
+            return false;
+        }
+
+        boolean reused = socketsCreated.get()[0] == 0;
+        requestCount.incrementAndGet();
+        if (reused) {
+            reusedCount.incrementAndGet();
+        }
+
+        return reused;
+    }
+
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    public long getPlainRequestCount() {
+        return plainRequestCount.get();
+    }
+
+    public long getReusedCount() {
+        return reusedCount.get();
+    }
+
+    public long getHandshakeCount() {
+        return handshakeCount.get();
+    }
+
+    public long getResumedHandshakeCount() {
+        return resumedHandshakeCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "requests=" + requestCount.get() + ", reused=" + reusedCount.get() +
+                ", handshakes=" + handshakeCount.get() + ", resumed=" + resumedHandshakeCount.get() +
+                ", plain=" + plainRequestCount.get();
+    }
+
+    private class TrackingSocketFactory extends SSLSocketFactory {
+
+        private final SSLSocketFactory delegate;
+
+        private TrackingSocketFactory(SSLSocketFactory delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public String[] getDefaultCipherSuites() {
+            return delegate.getDefaultCipherSuites();
+        }
+
+        @Override
+        public String[] getSupportedCipherSuites() {
+            return delegate.getSupportedCipherSuites();
+        }
+
+        @Override
+        public Socket createSocket() throws IOException {
+            return track(delegate.createSocket());
+        }
+
+        @Override
+        public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+            return track(delegate.createSocket(socket, host, port, autoClose));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return track(delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            return track(delegate.createSocket(host, port, localHost, localPort));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return track(delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort)
+                throws IOException {
+            return track(delegate.createSocket(address, port, localAddress, localPort));
+        }
+
+        private Socket track(Socket socket) {
+            socketsCreated.get()[0]++;
+            if (socket instanceof SSLSocket) {
+                // Session creation time is wall clock, so compare against wall clock as well.
+                final long createdAtMs = System.currentTimeMillis();
+                final long startedAtMs = SystemClock.elapsedRealtime();
+                ((SSLSocket) socket).addHandshakeCompletedListener(new HandshakeCompletedListener() {
+                    @Override
+                    public void handshakeCompleted(HandshakeCompletedEvent event) {
+                        handshakeCount.incrementAndGet();
+                        boolean resumed = event.getSession().getCreationTime() < createdAtMs;
+                        if (resumed) {
+                            resumedHandshakeCount.incrementAndGet();
+                        }
+                        Log.d(LOG_TAG, "TLS handshake with " + event.getSession().getPeerHost() +
+                                " in " + (SystemClock.elapsedRealtime() - startedAtMs) + "ms, resumed: " + resumed);
+                    }
+                });
+            }
+
+            return socket;
+        }
+    }
+}
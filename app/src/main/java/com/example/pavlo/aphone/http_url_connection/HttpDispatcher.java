@@ -0,0 +1,294 @@
+package com.example.pavlo.aphone.http_url_connection;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.pavlo.aphone.util.Config;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Created by pavlo on 18.10.26.
+ *
+ * Shared pool for every signaling HTTP request. Requests to the same host are limited to
+ * {@link Config#HTTP_MAX_REQUESTS_PER_HOST} running at once, the rest wait in a queue bounded by
+ * {@link Config#HTTP_MAX_QUEUED_REQUESTS} pending requests. Like the executors of
+ * {@link com.example.pavlo.aphone.executor.CallRuntime} the dispatcher lives as long as the
+ * process; {@link #release} only gives back its threads once it is idle.
+ */
+public class HttpDispatcher {
+
+    private static final String LOG_TAG = "Http dispatcher";
+
+    private static final HttpDispatcher instance = new HttpDispatcher(Config.HTTP_MAX_THREADS,
+            Config.HTTP_MAX_REQUESTS_PER_HOST, Config.HTTP_MAX_QUEUED_REQUESTS);
+
+    private final Object lock = new Object();
+
+    private final int maxThreads;
+    private final int maxRequestsPerHost;
+    private final int maxQueuedRequests;
+
+    private final Map<String, Integer> runningPerHost = new HashMap<>();
+    private final LinkedList<Call> waitingCalls = new LinkedList<>();
+
+    private ThreadPoolExecutor executor;
+    private boolean releaseRequested;
+
+    private int runningCount;
+    private long submittedCount;
+    private long completedCount;
+    private long rejectedCount;
+    private long totalQueueWaitMs;
+    private long maxQueueWaitMs;
+
+    private HttpDispatcher(int maxThreads, int maxRequestsPerHost, int maxQueuedRequests) {
+        this.maxThreads = maxThreads;
+        this.maxRequestsPerHost = maxRequestsPerHost;
+        this.maxQueuedRequests = maxQueuedRequests;
+    }
+
+    public static HttpDispatcher getInstance() {
+        return instance;
+    }
+
+    public void enqueue(AsyncHttpUrlConnection connection) {
+        boolean rejected;
+        synchronized (lock) {
+            rejected = waitingCalls.size() + runningCount >= maxQueuedRequests;
+            if (rejected) {
+                rejectedCount++;
+            } else {
+                submittedCount++;
+                waitingCalls.add(new Call(connection));
+            }
+        }
+
+        if (rejected) {
+            Log.w(LOG_TAG, "Request rejected: " + connection.getHost());
+            connection.reportDispatchError("HTTP dispatcher rejected request to " + connection.getHost());
+            return;
+        }
+        promoteCalls();
+    }
+
+    /**
+     * Stops the pool threads as soon as no request is queued or running. Requests are never
+     * rejected for it, so the leave and WebSocket DELETE requests of a teardown still in flight
+     * go through; a request enqueued later creates the pool again.
+     */
+    public void release() {
+        synchronized (lock) {
+            releaseRequested = true;
+            if (waitingCalls.isEmpty() && runningCount == 0) {
+                onDrainedLocked();
+            }
+        }
+        Log.d(LOG_TAG, "Release requested.");
+    }
+
+    /**
+     * @return true if the pool was released within {@code timeoutMs} after {@link #release}.
+     */
+    public boolean awaitRelease(long timeoutMs) {
+        long deadline = SystemClock.elapsedRealtime() + timeoutMs;
+        synchronized (lock) {
+            while (releaseRequested) {
+                long remainingMs = deadline - SystemClock.elapsedRealtime();
+                if (remainingMs <= 0) {
+                    return false;
+                }
+                try {
+                    lock.wait(remainingMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    public Stats getStats() {
+        synchronized (lock) {
+            long started = submittedCount - waitingCalls.size();
+            return new Stats(runningCount, waitingCalls.size(), submittedCount, completedCount,
+                    rejectedCount, started > 0 ? totalQueueWaitMs / started : 0, maxQueueWaitMs);
+        }
+    }
+
+    private void promoteCalls() {
+        synchronized (lock) {
+            Iterator<Call> iterator = waitingCalls.iterator();
+            while (iterator.hasNext() && runningCount < maxThreads) {
+                Call call = iterator.next();
+                String host = call.connection.getHost();
+                int running = hostRunningCount(host);
+                if (running >= maxRequestsPerHost) {
+                    continue;
+                }
+                iterator.remove();
+                runningPerHost.put(host, running + 1);
+                runningCount++;
+                getExecutorLocked().execute(call);
+            }
+        }
+    }
+
+    private void finished(Call call) {
+        synchronized (lock) {
+            String host = call.connection.getHost();
+            int running = hostRunningCount(host) - 1;
+            if (running > 0) {
+                runningPerHost.put(host, running);
+            } else {
+                runningPerHost.remove(host);
+            }
+            runningCount--;
+            completedCount++;
+
+            if (releaseRequested && waitingCalls.isEmpty() && runningCount == 0) {
+                onDrainedLocked();
+            }
+        }
+        promoteCalls();
+    }
+
+    private void onDrainedLocked() {
+        Log.d(LOG_TAG, "All requests finished.");
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+        releaseRequested = false;
+        lock.notifyAll();
+    }
+
+    private int hostRunningCount(String host) {
+        Integer running = runningPerHost.get(host);
+
+        return running == null ? 0 : running;
+    }
+
+    private ThreadPoolExecutor getExecutorLocked() {
+        if (executor == null) {
+            executor = new ThreadPoolExecutor(maxThreads, maxThreads,
+                    Config.HTTP_THREAD_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new DispatcherThreadFactory());
+            executor.allowCoreThreadTimeOut(true);
+        }
+
+        return executor;
+    }
+
+    private class Call implements Runnable {
+
+        private final AsyncHttpUrlConnection connection;
+        private final long enqueuedAtMs;
+
+        private Call(AsyncHttpUrlConnection connection) {
+            this.connection = connection;
+            enqueuedAtMs = SystemClock.elapsedRealtime();
+        }
+
+        @Override
+        public void run() {
+            long waitMs = SystemClock.elapsedRealtime() - enqueuedAtMs;
+            synchronized (lock) {
+                totalQueueWaitMs += waitMs;
+                maxQueueWaitMs = Math.max(maxQueueWaitMs, waitMs);
+            }
+            try {
+                connection.sendHttpMessage();
+            } finally {
+                finished(this);
+            }
+        }
+    }
+
+    private static class DispatcherThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Config.IO_THREAD_PRIORITY);
+                    runnable.run();
+                }
+            }, "http-dispatcher-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+
+            return thread;
+        }
+    }
+
+    public static class Stats {
+
+        private final int running;
+        private final int queued;
+        private final long submitted;
+        private final long completed;
+        private final long rejected;
+        private final long averageQueueWaitMs;
+        private final long maxQueueWaitMs;
+
+        private Stats(int running, int queued, long submitted, long completed, long rejected,
+                      long averageQueueWaitMs, long maxQueueWaitMs) {
+            this.running = running;
+            this.queued = queued;
+            this.submitted = submitted;
+            this.completed = completed;
+            this.rejected = rejected;
+            this.averageQueueWaitMs = averageQueueWaitMs;
+            this.maxQueueWaitMs = maxQueueWaitMs;
+        }
+
+        public int getRunning() {
+            return running;
+        }
+
+        public int getQueued() {
+            return queued;
+        }
+
+        public long getSubmitted() {
+            return submitted;
+        }
+
+        public long getCompleted() {
+            return completed;
+        }
+
+        public long getRejected() {
+            return rejected;
+        }
+
+        public long getAverageQueueWaitMs() {
+            return averageQueueWaitMs;
+        }
+
+        public long getMaxQueueWaitMs() {
+            return maxQueueWaitMs;
+        }
+
+        @Override
+        public String toString() {
+            return "running=" + running + ", queued=" + queued + ", submitted=" + submitted +
+                    ", completed=" + completed + ", rejected=" + rejected +
+                    ", avgWait=" + averageQueueWaitMs + "ms, maxWait=" + maxQueueWaitMs + "ms";
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.example.pavlo.aphone.interfaces;
+
+import com.example.pavlo.aphone.call_controller.CallController;
+
+/**
+ * Created by pavlo on 18.10.26.
+ *
+ * Call status published to the UI. Both methods are called on the main thread.
+ */
+public interface CallStatusEvents {
+
+    public void onCallStateChanged(final CallController.State state);
+
+    public void onCallError(final String description);
+}
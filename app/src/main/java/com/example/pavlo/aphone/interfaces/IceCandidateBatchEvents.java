@@ -0,0 +1,13 @@
+package com.example.pavlo.aphone.interfaces;
+
+import org.webrtc.IceCandidate;
+
+import java.util.List;
+
+/**
+ * Created by pavlo on 18.10.26.
+ */
+public interface IceCandidateBatchEvents {
+
+    public void onIceCandidateBatch(final List<IceCandidate> candidates);
+}
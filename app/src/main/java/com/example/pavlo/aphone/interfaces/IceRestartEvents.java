@@ -0,0 +1,9 @@
+package com.example.pavlo.aphone.interfaces;
+
+/**
+ * Created by pavlo on 18.10.26.
+ */
+public interface IceRestartEvents {
+
+    public void onIceRestartNeeded();
+}
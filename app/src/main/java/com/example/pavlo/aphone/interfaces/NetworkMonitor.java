@@ -0,0 +1,16 @@
+package com.example.pavlo.aphone.interfaces;
+
+/**
+ * Created by pavlo on 18.10.26.
+ *
+ * Source of network interface changes. Tests can replace the connectivity based implementation
+ * with a fake that reports changes on demand.
+ */
+public interface NetworkMonitor {
+
+    public void start(final NetworkMonitorEvents events);
+
+    public void stop();
+
+    public String getNetworkType();
+}
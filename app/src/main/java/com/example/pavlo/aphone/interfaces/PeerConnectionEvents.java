@@ -2,7 +2,6 @@ package com.example.pavlo.aphone.interfaces;
 
 import org.webrtc.IceCandidate;
 import org.webrtc.SessionDescription;
-import org.webrtc.StatsReport;
 
 /**
  * Created by pavlo on 22.06.16.
@@ -17,9 +16,17 @@ public interface PeerConnectionEvents {
 
     public void onIceDisconnected();
 
-    public void onPeerConnectionClosed();
+    public void onIceReconnecting();
+
+    public void onIceReconnected();
 
-    public void onPeerConnectionStatsReady(final StatsReport[] reports);
+    /**
+     * Called on the receiving side of a call that needs an ICE restart, e.g. after a network
+     * change. Only the initiator sends the restart offer, so it has to be asked for one.
+     */
+    public void onIceRestartNeeded();
+
+    public void onPeerConnectionClosed();
 
     public void onPeerConnectionError(final String description);
 }
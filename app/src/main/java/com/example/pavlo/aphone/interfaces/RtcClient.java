@@ -18,5 +18,7 @@ public interface RtcClient {
 
     public void sendLocalIceCandidate(IceCandidate candidate);
 
+    public void requestIceRestart();
+
     public void disconnectFromRoom();
 }
@@ -0,0 +1,11 @@
+package com.example.pavlo.aphone.interfaces;
+
+import com.example.pavlo.aphone.sdp.Sdp;
+
+/**
+ * Created by pavlo on 18.10.26.
+ */
+public interface SdpRewrite {
+
+    public void rewrite(Sdp sdp);
+}
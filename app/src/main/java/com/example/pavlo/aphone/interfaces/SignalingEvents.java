@@ -16,6 +16,8 @@ public interface SignalingEvents {
 
     public void onRemoteIceCandidate(final IceCandidate candidate);
 
+    public void onIceRestartRequested();
+
     public void onChannelClose();
 
     public void onChannelError(final String description);
@@ -0,0 +1,11 @@
+package com.example.pavlo.aphone.interfaces;
+
+import org.webrtc.StatsReport;
+
+/**
+ * Created by pavlo on 18.10.26.
+ */
+public interface StatsSubscriber {
+
+    public void onStatsReport(final StatsReport[] reports);
+}
@@ -0,0 +1,15 @@
+package com.example.pavlo.aphone.interfaces;
+
+import org.webrtc.PeerConnection;
+
+import java.util.LinkedList;
+
+/**
+ * Created by pavlo on 18.10.26.
+ */
+public interface TurnServerEvents {
+
+    public void onTurnServersReady(final LinkedList<PeerConnection.IceServer> turnServers);
+
+    public void onTurnServersError(final String description);
+}
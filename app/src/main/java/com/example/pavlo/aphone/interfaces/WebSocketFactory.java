@@ -0,0 +1,11 @@
+package com.example.pavlo.aphone.interfaces;
+
+import de.tavendo.autobahn.WebSocket;
+
+/**
+ * Created by pavlo on 18.10.26.
+ */
+public interface WebSocketFactory {
+
+    public WebSocket createWebSocket();
+}
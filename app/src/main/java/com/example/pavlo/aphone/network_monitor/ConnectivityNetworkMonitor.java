@@ -0,0 +1,120 @@
+package com.example.pavlo.aphone.network_monitor;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.example.pavlo.aphone.interfaces.NetworkMonitor;
+import com.example.pavlo.aphone.interfaces.NetworkMonitorEvents;
+import com.example.pavlo.aphone.util.NetworkUtilities;
+
+/**
+ * Created by pavlo on 18.10.26.
+ *
+ * Watches {@link ConnectivityManager#CONNECTIVITY_ACTION} and reports a change only when the
+ * active interface really changes: its type, or the access point or APN. Mobile subtype changes
+ * keep the address and are ignored. Events are delivered on the main thread. {@link #start} and
+ * {@link #stop} may be called from any thread; they run on the main thread too, so the receiver
+ * never sees the events half torn down.
+ */
+public class ConnectivityNetworkMonitor implements NetworkMonitor {
+
+    private static final String LOG_TAG = "Network monitor";
+
+    private final Context context;
+    private final ConnectivityManager connectivityManager;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private BroadcastReceiver connectivityReceiver;
+    private NetworkMonitorEvents events;
+
+    private volatile String networkType = NetworkUtilities.NETWORK_TYPE_NONE;
+    private String networkKey = NetworkUtilities.NETWORK_TYPE_NONE;
+
+    public ConnectivityNetworkMonitor(Context context) {
+        this.context = context.getApplicationContext();
+        connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+    }
+
+    @Override
+    public void start(final NetworkMonitorEvents events) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                startInternal(events);
+            }
+        });
+    }
+
+    @Override
+    public void stop() {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                stopInternal();
+            }
+        });
+    }
+
+    private void startInternal(NetworkMonitorEvents events) {
+        if (connectivityReceiver != null) {
+            stopInternal();
+        }
+        this.events = events;
+        updateNetwork(connectivityManager.getActiveNetworkInfo());
+
+        connectivityReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                if (isInitialStickyBroadcast()) {
+                    return;
+                }
+                if (updateNetwork(connectivityManager.getActiveNetworkInfo())) {
+                    Log.d(LOG_TAG, "Network changed: " + networkKey);
+                    ConnectivityNetworkMonitor.this.events.onNetworkChanged(networkType,
+                            !NetworkUtilities.NETWORK_TYPE_NONE.equals(networkType));
+                }
+            }
+        };
+        context.registerReceiver(connectivityReceiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+        Log.d(LOG_TAG, "Started on " + networkKey);
+    }
+
+    private void stopInternal() {
+        if (connectivityReceiver == null) {
+            return;
+        }
+        context.unregisterReceiver(connectivityReceiver);
+        connectivityReceiver = null;
+        events = null;
+        Log.d(LOG_TAG, "Stopped.");
+    }
+
+    @Override
+    public String getNetworkType() {
+        return networkType;
+    }
+
+    private boolean updateNetwork(NetworkInfo networkInfo) {
+        String type = NetworkUtilities.NETWORK_TYPE_NONE;
+        String key = NetworkUtilities.NETWORK_TYPE_NONE;
+
+        if (networkInfo != null && networkInfo.isConnected()) {
+            type = networkInfo.getTypeName().toLowerCase();
+            key = type + "/" + networkInfo.getExtraInfo();
+        }
+        networkType = type;
+        if (key.equals(networkKey)) {
+            return false;
+        }
+        networkKey = key;
+
+        return true;
+    }
+}
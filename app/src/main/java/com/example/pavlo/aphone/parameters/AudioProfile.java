@@ -0,0 +1,145 @@
+package com.example.pavlo.aphone.parameters;
+
+import com.example.pavlo.aphone.util.Config;
+
+/**
+ * Created by pavlo on 18.10.26.
+ *
+ * Named set of Opus parameters. A zero {@code ptime} or {@code maxPlaybackRate} leaves the value
+ * negotiated by WebRTC untouched.
+ */
+public class AudioProfile {
+
+    public static final AudioProfile LOW_BANDWIDTH_CELLULAR = AudioProfile.newBuilder().
+            setName("low-bandwidth cellular").
+            setBitrateKbps(16).
+            setUseDtx(true).
+            setUseInbandFec(true).
+            setPtimeMs(40).
+            setMaxPlaybackRate(16000).
+            setStereo(false).
+            build();
+
+    public static final AudioProfile WIDEBAND_WIFI = AudioProfile.newBuilder().
+            setName("wideband wifi").
+            setBitrateKbps(Config.AUDIO_BITRATE).
+            setUseDtx(false).
+            setUseInbandFec(true).
+            setPtimeMs(20).
+            setMaxPlaybackRate(48000).
+            setStereo(false).
+            build();
+
+    public static final AudioProfile VOICE_ONLY_DTX = AudioProfile.newBuilder().
+            setName("voice-only DTX").
+            setBitrateKbps(24).
+            setUseDtx(true).
+            setUseInbandFec(true).
+            setPtimeMs(20).
+            setMaxPlaybackRate(24000).
+            setStereo(false).
+            build();
+
+    private String name;
+    private int bitrateKbps;
+    private boolean useDtx;
+    private boolean useInbandFec;
+    private int ptimeMs;
+    private int maxPlaybackRate;
+    private boolean stereo;
+
+    private AudioProfile() {
+
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getBitrateKbps() {
+        return bitrateKbps;
+    }
+
+    public boolean isUseDtx() {
+        return useDtx;
+    }
+
+    public boolean isUseInbandFec() {
+        return useInbandFec;
+    }
+
+    public int getPtimeMs() {
+        return ptimeMs;
+    }
+
+    public int getMaxPlaybackRate() {
+        return maxPlaybackRate;
+    }
+
+    public boolean isStereo() {
+        return stereo;
+    }
+
+    @Override
+    public String toString() {
+        return name + ": " + bitrateKbps + "kbps, dtx=" + useDtx + ", fec=" + useInbandFec +
+                ", ptime=" + ptimeMs + ", maxplaybackrate=" + maxPlaybackRate + ", stereo=" + stereo;
+    }
+
+    public static Builder newBuilder() {
+        return new AudioProfile().new Builder();
+    }
+
+    public class Builder {
+
+        private Builder() {
+
+        }
+
+        public Builder setName(String name) {
+            AudioProfile.this.name = name;
+
+            return this;
+        }
+
+        public Builder setBitrateKbps(int bitrateKbps) {
+            AudioProfile.this.bitrateKbps = bitrateKbps;
+
+            return this;
+        }
+
+        public Builder setUseDtx(boolean useDtx) {
+            AudioProfile.this.useDtx = useDtx;
+
+            return this;
+        }
+
+        public Builder setUseInbandFec(boolean useInbandFec) {
+            AudioProfile.this.useInbandFec = useInbandFec;
+
+            return this;
+        }
+
+        public Builder setPtimeMs(int ptimeMs) {
+            AudioProfile.this.ptimeMs = ptimeMs;
+
+            return this;
+        }
+
+        public Builder setMaxPlaybackRate(int maxPlaybackRate) {
+            AudioProfile.this.maxPlaybackRate = maxPlaybackRate;
+
+            return this;
+        }
+
+        public Builder setStereo(boolean stereo) {
+            AudioProfile.this.stereo = stereo;
+
+            return this;
+        }
+
+        public AudioProfile build() {
+            return AudioProfile.this;
+        }
+    }
+}
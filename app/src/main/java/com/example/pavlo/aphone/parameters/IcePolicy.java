@@ -0,0 +1,136 @@
+package com.example.pavlo.aphone.parameters;
+
+import org.webrtc.PeerConnection;
+
+/**
+ * Created by pavlo on 18.10.26.
+ *
+ * ICE gathering settings of a call. The bundled libjingle has no native candidate pool and no
+ * continual gathering policy, so a positive candidate pool size starts gathering speculatively
+ * while the room join is in flight, and continual gathering re-gathers on network changes.
+ */
+public class IcePolicy {
+
+    public static final IcePolicy DEFAULT = IcePolicy.newBuilder().
+            setName("default").
+            build();
+
+    public static final IcePolicy PREGATHER = IcePolicy.newBuilder().
+            setName("pregather").
+            setCandidatePoolSize(1).
+            setContinualGathering(true).
+            build();
+
+    public static final IcePolicy RELAY_ONLY = IcePolicy.newBuilder().
+            setName("relay-only").
+            setCandidatePoolSize(1).
+            setRelayOnly(true).
+            build();
+
+    private String name;
+    private int candidatePoolSize;
+    private PeerConnection.TcpCandidatePolicy tcpCandidatePolicy = PeerConnection.TcpCandidatePolicy.DISABLED;
+    private PeerConnection.BundlePolicy bundlePolicy = PeerConnection.BundlePolicy.MAXBUNDLE;
+    private boolean relayOnly;
+    private int networkIgnoreMask;
+    private boolean continualGathering;
+
+    private IcePolicy() {
+
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getCandidatePoolSize() {
+        return candidatePoolSize;
+    }
+
+    public PeerConnection.TcpCandidatePolicy getTcpCandidatePolicy() {
+        return tcpCandidatePolicy;
+    }
+
+    public PeerConnection.BundlePolicy getBundlePolicy() {
+        return bundlePolicy;
+    }
+
+    public boolean isRelayOnly() {
+        return relayOnly;
+    }
+
+    /**
+     * @return mask of {@code PeerConnectionFactory.Options.ADAPTER_TYPE_*} network types to skip.
+     */
+    public int getNetworkIgnoreMask() {
+        return networkIgnoreMask;
+    }
+
+    public boolean isContinualGathering() {
+        return continualGathering;
+    }
+
+    @Override
+    public String toString() {
+        return name + ": pool=" + candidatePoolSize + ", tcp=" + tcpCandidatePolicy + ", bundle=" + bundlePolicy +
+                ", relayOnly=" + relayOnly + ", ignoreMask=" + networkIgnoreMask +
+                ", continual=" + continualGathering;
+    }
+
+    public static Builder newBuilder() {
+        return new IcePolicy().new Builder();
+    }
+
+    public class Builder {
+
+        private Builder() {
+
+        }
+
+        public Builder setName(String name) {
+            IcePolicy.this.name = name;
+
+            return this;
+        }
+
+        public Builder setCandidatePoolSize(int candidatePoolSize) {
+            IcePolicy.this.candidatePoolSize = candidatePoolSize;
+
+            return this;
+        }
+
+        public Builder setTcpCandidatePolicy(PeerConnection.TcpCandidatePolicy tcpCandidatePolicy) {
+            IcePolicy.this.tcpCandidatePolicy = tcpCandidatePolicy;
+
+            return this;
+        }
+
+        public Builder setBundlePolicy(PeerConnection.BundlePolicy bundlePolicy) {
+            IcePolicy.this.bundlePolicy = bundlePolicy;
+
+            return this;
+        }
+
+        public Builder setRelayOnly(boolean relayOnly) {
+            IcePolicy.this.relayOnly = relayOnly;
+
+            return this;
+        }
+
+        public Builder setNetworkIgnoreMask(int networkIgnoreMask) {
+            IcePolicy.this.networkIgnoreMask = networkIgnoreMask;
+
+            return this;
+        }
+
+        public Builder setContinualGathering(boolean continualGathering) {
+            IcePolicy.this.continualGathering = continualGathering;
+
+            return this;
+        }
+
+        public IcePolicy build() {
+            return IcePolicy.this;
+        }
+    }
+}
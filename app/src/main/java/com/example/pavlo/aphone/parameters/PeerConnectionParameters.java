@@ -1,5 +1,7 @@
 package com.example.pavlo.aphone.parameters;
 
+import com.example.pavlo.aphone.util.Config;
+
 /**
  * Created by pavlo on 22.06.16.
  */
@@ -7,11 +9,16 @@ public class PeerConnectionParameters {
 
     private int audioStartBitrate;
     private String audioCodec;
+    private AudioProfile audioProfile;
+    private IcePolicy icePolicy = IcePolicy.DEFAULT;
 
     private boolean loopback;
     private boolean noAudioProcessing;
     private boolean aecDump;
     private boolean useOpenSLES;
+    private boolean speculativeSetup;
+    private boolean adaptiveAudioBitrate;
+    private int iceRestartGracePeriodMs = Config.ICE_RESTART_GRACE_PERIOD_MS;
 
     private PeerConnectionParameters() {
 
@@ -29,6 +36,14 @@ public class PeerConnectionParameters {
         return audioCodec;
     }
 
+    public AudioProfile getAudioProfile() {
+        return audioProfile;
+    }
+
+    public IcePolicy getIcePolicy() {
+        return icePolicy;
+    }
+
     public boolean isNoAudioProcessing() {
         return noAudioProcessing;
     }
@@ -41,6 +56,22 @@ public class PeerConnectionParameters {
         return useOpenSLES;
     }
 
+    public boolean isSpeculativeSetup() {
+        return speculativeSetup;
+    }
+
+    public boolean isAdaptiveAudioBitrate() {
+        return adaptiveAudioBitrate;
+    }
+
+    /**
+     * @return how long a disconnected call may try to recover with an ICE restart before it is
+     * torn down, 0 to tear down right away.
+     */
+    public int getIceRestartGracePeriodMs() {
+        return iceRestartGracePeriodMs;
+    }
+
     public static Builder newBuilder() {
         return new PeerConnectionParameters().new Builder();
     }
@@ -51,6 +82,18 @@ public class PeerConnectionParameters {
 
         }
 
+        public Builder setIceRestartGracePeriodMs(int iceRestartGracePeriodMs) {
+            PeerConnectionParameters.this.iceRestartGracePeriodMs = iceRestartGracePeriodMs;
+
+            return this;
+        }
+
+        public Builder setAdaptiveAudioBitrate(boolean adaptiveAudioBitrate) {
+            PeerConnectionParameters.this.adaptiveAudioBitrate = adaptiveAudioBitrate;
+
+            return this;
+        }
+
         public Builder setLoopback(boolean loopback) {
             PeerConnectionParameters.this.loopback = loopback;
 
@@ -69,6 +112,18 @@ public class PeerConnectionParameters {
             return this;
         }
 
+        public Builder setAudioProfile(AudioProfile audioProfile) {
+            PeerConnectionParameters.this.audioProfile = audioProfile;
+
+            return this;
+        }
+
+        public Builder setIcePolicy(IcePolicy icePolicy) {
+            PeerConnectionParameters.this.icePolicy = icePolicy;
+
+            return this;
+        }
+
         public Builder setNoAudioProcessing(boolean noAudioProcessing) {
             PeerConnectionParameters.this.noAudioProcessing = noAudioProcessing;
 
@@ -87,6 +142,12 @@ public class PeerConnectionParameters {
             return this;
         }
 
+        public Builder setSpeculativeSetup(boolean speculativeSetup) {
+            PeerConnectionParameters.this.speculativeSetup = speculativeSetup;
+
+            return this;
+        }
+
         public PeerConnectionParameters build() {
             return PeerConnectionParameters.this;
         }
@@ -18,6 +18,7 @@ public class SignalingParameters {
     private String wssPostUrl;
     private SessionDescription offerSdp;
     private List<IceCandidate> iceCandidates;
+    private boolean peerCandidateBatches;
 
     private SignalingParameters() {
 
@@ -51,6 +52,13 @@ public class SignalingParameters {
         return iceCandidates;
     }
 
+    /**
+     * @return true if the peer is known to understand one message carrying a batch of candidates.
+     */
+    public boolean isPeerCandidateBatches() {
+        return peerCandidateBatches;
+    }
+
     public static Builder newBuilder() {
         return new SignalingParameters().new Builder();
     }
@@ -103,6 +111,12 @@ public class SignalingParameters {
             return this;
         }
 
+        public Builder setPeerCandidateBatches(boolean peerCandidateBatches) {
+            SignalingParameters.this.peerCandidateBatches = peerCandidateBatches;
+
+            return this;
+        }
+
         public SignalingParameters biuld() {
             return SignalingParameters.this;
         }
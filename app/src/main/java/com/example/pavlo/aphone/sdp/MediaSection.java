@@ -0,0 +1,224 @@
+package com.example.pavlo.aphone.sdp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Created by pavlo on 18.10.26.
+ *
+ * One {@code m=} section. The {@code a=rtpmap} and {@code a=fmtp} lines are indexed by payload
+ * type while parsing so rewrites do not have to scan the section again.
+ */
+public class MediaSection {
+
+    private static final String RTPMAP_PREFIX = "a=rtpmap:";
+    private static final String FMTP_PREFIX = "a=fmtp:";
+
+    private final String media;
+    private final String port;
+    private final String proto;
+    private final List<String> formats = new ArrayList<>();
+
+    private final List<String> lines = new ArrayList<>();
+
+    private final Map<String, String> codecByPayloadType = new HashMap<>();
+    private final Map<String, Integer> rtpmapLineByPayloadType = new HashMap<>();
+    private final Map<String, Integer> fmtpLineByPayloadType = new HashMap<>();
+
+    MediaSection(String mediaLine) {
+        String[] parts = splitBySpace(mediaLine.substring(2));
+        media = parts.length > 0 ? parts[0] : "";
+        port = parts.length > 1 ? parts[1] : "";
+        proto = parts.length > 2 ? parts[2] : "";
+        for (int i = 3; i < parts.length; i++) {
+            formats.add(parts[i]);
+        }
+    }
+
+    void addLine(String line) {
+        lines.add(line);
+        indexLine(line, lines.size() - 1);
+    }
+
+    public String getMedia() {
+        return media;
+    }
+
+    public List<String> getFormats() {
+        return formats;
+    }
+
+    public List<String> getLines() {
+        return lines;
+    }
+
+    /**
+     * @return payload type of the first rtpmap entry for {@code codec}, or null if there is none.
+     */
+    public String getPayloadType(String codec) {
+        for (String payloadType : formats) {
+            String name = codecByPayloadType.get(payloadType);
+            if (name != null && name.equalsIgnoreCase(codec)) {
+                return payloadType;
+            }
+        }
+
+        return null;
+    }
+
+    public boolean moveFormatToFront(String payloadType) {
+        if (!formats.remove(payloadType)) {
+            return false;
+        }
+        formats.add(0, payloadType);
+
+        return true;
+    }
+
+    public Map<String, String> getFmtpParameters(String payloadType) {
+        Integer index = fmtpLineByPayloadType.get(payloadType);
+        if (index == null) {
+            return new LinkedHashMap<>();
+        }
+
+        return parseFmtpParameters(lines.get(index));
+    }
+
+    /**
+     * Replaces the fmtp parameters of {@code payloadType}. A missing fmtp line is added right
+     * after the rtpmap line of the payload type.
+     */
+    public void setFmtpParameters(String payloadType, Map<String, String> parameters) {
+        StringBuilder line = new StringBuilder(FMTP_PREFIX).append(payloadType).append(' ');
+        boolean first = true;
+        for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+            if (!first) {
+                line.append(';');
+            }
+            first = false;
+            line.append(parameter.getKey());
+            if (parameter.getValue() != null) {
+                line.append('=').append(parameter.getValue());
+            }
+        }
+
+        Integer index = fmtpLineByPayloadType.get(payloadType);
+        if (index != null) {
+            lines.set(index, line.toString());
+            return;
+        }
+        Integer rtpmapIndex = rtpmapLineByPayloadType.get(payloadType);
+        insertLine(rtpmapIndex != null ? rtpmapIndex + 1 : lines.size(), line.toString());
+    }
+
+    public String getAttribute(String name) {
+        String prefix = "a=" + name + ":";
+        for (String line : lines) {
+            if (line.startsWith(prefix)) {
+                return line.substring(prefix.length());
+            }
+        }
+
+        return null;
+    }
+
+    public void setAttribute(String name, String value) {
+        String prefix = "a=" + name + ":";
+        for (int i = 0; i < lines.size(); i++) {
+            if (lines.get(i).startsWith(prefix)) {
+                lines.set(i, prefix + value);
+                return;
+            }
+        }
+        insertLine(lines.size(), prefix + value);
+    }
+
+    void appendTo(StringBuilder builder, String lineSeparator) {
+        builder.append("m=").append(media).append(' ').append(port).append(' ').append(proto);
+        for (String format : formats) {
+            builder.append(' ').append(format);
+        }
+        builder.append(lineSeparator);
+        for (String line : lines) {
+            builder.append(line).append(lineSeparator);
+        }
+    }
+
+    private void insertLine(int index, String line) {
+        lines.add(index, line);
+        codecByPayloadType.clear();
+        rtpmapLineByPayloadType.clear();
+        fmtpLineByPayloadType.clear();
+        for (int i = 0; i < lines.size(); i++) {
+            indexLine(lines.get(i), i);
+        }
+    }
+
+    private void indexLine(String line, int index) {
+        if (line.startsWith(RTPMAP_PREFIX)) {
+            int space = line.indexOf(' ', RTPMAP_PREFIX.length());
+            if (space == -1) {
+                return;
+            }
+            String payloadType = line.substring(RTPMAP_PREFIX.length(), space);
+            int slash = line.indexOf('/', space);
+            String codec = line.substring(space + 1, slash == -1 ? line.length() : slash);
+            codecByPayloadType.put(payloadType, codec);
+            rtpmapLineByPayloadType.put(payloadType, index);
+        } else if (line.startsWith(FMTP_PREFIX)) {
+            int space = line.indexOf(' ', FMTP_PREFIX.length());
+            String payloadType = line.substring(FMTP_PREFIX.length(), space == -1 ? line.length() : space);
+            fmtpLineByPayloadType.put(payloadType, index);
+        }
+    }
+
+    private static Map<String, String> parseFmtpParameters(String line) {
+        Map<String, String> parameters = new LinkedHashMap<>();
+        int space = line.indexOf(' ');
+        if (space == -1) {
+            return parameters;
+        }
+        int start = space + 1;
+        int length = line.length();
+
+        while (start < length) {
+            int end = line.indexOf(';', start);
+            if (end == -1) {
+                end = length;
+            }
+            String parameter = line.substring(start, end).trim();
+            if (parameter.length() > 0) {
+                int equals = parameter.indexOf('=');
+                if (equals == -1) {
+                    parameters.put(parameter, null);
+                } else {
+                    parameters.put(parameter.substring(0, equals).trim(), parameter.substring(equals + 1).trim());
+                }
+            }
+            start = end + 1;
+        }
+
+        return parameters;
+    }
+
+    private static String[] splitBySpace(String line) {
+        List<String> parts = new ArrayList<>();
+        int start = 0;
+        int length = line.length();
+        while (start < length) {
+            int end = line.indexOf(' ', start);
+            if (end == -1) {
+                end = length;
+            }
+            if (end > start) {
+                parts.add(line.substring(start, end));
+            }
+            start = end + 1;
+        }
+
+        return parts.toArray(new String[parts.size()]);
+    }
+}
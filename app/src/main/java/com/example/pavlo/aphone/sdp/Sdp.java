@@ -0,0 +1,87 @@
+package com.example.pavlo.aphone.sdp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Created by pavlo on 18.10.26.
+ *
+ * Session description split into session level lines and media sections. Parsing and
+ * serialization are single passes over the text without regular expressions.
+ */
+public class Sdp {
+
+    private static final String LINE_SEPARATOR = "\r\n";
+
+    private final List<String> sessionLines = new ArrayList<>();
+    private final List<MediaSection> mediaSections = new ArrayList<>();
+
+    private Sdp() {
+
+    }
+
+    public static Sdp parse(String description) {
+        Sdp sdp = new Sdp();
+        MediaSection currentSection = null;
+        int length = description.length();
+        int lineStart = 0;
+
+        while (lineStart < length) {
+            int lineEnd = description.indexOf('\n', lineStart);
+            if (lineEnd == -1) {
+                lineEnd = length;
+            }
+            int contentEnd = lineEnd;
+            if (contentEnd > lineStart && description.charAt(contentEnd - 1) == '\r') {
+                contentEnd--;
+            }
+
+            if (contentEnd > lineStart) {
+                String line = description.substring(lineStart, contentEnd);
+                if (line.startsWith("m=")) {
+                    currentSection = new MediaSection(line);
+                    sdp.mediaSections.add(currentSection);
+                } else if (currentSection != null) {
+                    currentSection.addLine(line);
+                } else {
+                    sdp.sessionLines.add(line);
+                }
+            }
+            lineStart = lineEnd + 1;
+        }
+
+        return sdp;
+    }
+
+    public List<String> getSessionLines() {
+        return sessionLines;
+    }
+
+    public List<MediaSection> getMediaSections() {
+        return mediaSections;
+    }
+
+    public List<MediaSection> getMediaSections(String media) {
+        List<MediaSection> sections = new ArrayList<>();
+        for (MediaSection section : mediaSections) {
+            if (section.getMedia().equals(media)) {
+                sections.add(section);
+            }
+        }
+
+        return sections;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (String line : sessionLines) {
+            builder.append(line).append(LINE_SEPARATOR);
+        }
+        for (MediaSection section : mediaSections) {
+            section.appendTo(builder, LINE_SEPARATOR);
+        }
+
+        return builder.toString();
+    }
+}
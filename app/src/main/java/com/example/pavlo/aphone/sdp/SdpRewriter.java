@@ -0,0 +1,185 @@
+package com.example.pavlo.aphone.sdp;
+
+import android.util.Log;
+
+import com.example.pavlo.aphone.interfaces.SdpRewrite;
+import com.example.pavlo.aphone.parameters.AudioProfile;
+import com.example.pavlo.aphone.util.PeerConnectionUtilities;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Created by pavlo on 18.10.26.
+ *
+ * Applies a fixed list of rewrites to a session description: it is parsed once, every rewrite
+ * edits the model and the result is serialized once.
+ */
+public class SdpRewriter {
+
+    private static final String LOG_TAG = "Sdp rewriter";
+
+    public static final String MEDIA_AUDIO = "audio";
+
+    private final List<SdpRewrite> rewrites = new ArrayList<>();
+
+    private SdpRewriter() {
+
+    }
+
+    public String apply(String description) {
+        if (rewrites.isEmpty()) {
+            return description;
+        }
+        Sdp sdp = Sdp.parse(description);
+        for (SdpRewrite rewrite : rewrites) {
+            rewrite.rewrite(sdp);
+        }
+
+        return sdp.toString();
+    }
+
+    public static Builder newBuilder() {
+        return new SdpRewriter().new Builder();
+    }
+
+    public class Builder {
+
+        private Builder() {
+
+        }
+
+        public Builder preferCodec(String media, String codec) {
+            rewrites.add(new PreferCodecRewrite(media, codec));
+
+            return this;
+        }
+
+        public Builder setFmtpParameter(String media, String codec, String key, String value) {
+            rewrites.add(new FmtpParameterRewrite(media, codec, key, value));
+
+            return this;
+        }
+
+        public Builder setStartBitrate(String codec, int bitrateKbps) {
+            return setFmtpParameter(MEDIA_AUDIO, codec, PeerConnectionUtilities.AUDIO_CODEC_PARAM_BITRATE,
+                    String.valueOf(bitrateKbps * 1000));
+        }
+
+        public Builder applyAudioProfile(AudioProfile profile) {
+            rewrites.add(new OpusProfileRewrite(profile));
+
+            return this;
+        }
+
+        public Builder addRewrite(SdpRewrite rewrite) {
+            rewrites.add(rewrite);
+
+            return this;
+        }
+
+        public SdpRewriter build() {
+            return SdpRewriter.this;
+        }
+    }
+
+    private static class PreferCodecRewrite implements SdpRewrite {
+
+        private final String media;
+        private final String codec;
+
+        private PreferCodecRewrite(String media, String codec) {
+            this.media = media;
+            this.codec = codec;
+        }
+
+        @Override
+        public void rewrite(Sdp sdp) {
+            List<MediaSection> sections = sdp.getMediaSections(media);
+            if (sections.isEmpty()) {
+                Log.w(LOG_TAG, "No m=" + media + " line, so can not prefer " + codec);
+                return;
+            }
+            for (MediaSection section : sections) {
+                String payloadType = section.getPayloadType(codec);
+                if (payloadType == null) {
+                    Log.w(LOG_TAG, "No rtpMap for " + codec);
+                    continue;
+                }
+                section.moveFormatToFront(payloadType);
+                Log.d(LOG_TAG, "Prefer " + codec + " payload type " + payloadType + " in m=" + media);
+            }
+        }
+    }
+
+    private static class FmtpParameterRewrite implements SdpRewrite {
+
+        private final String media;
+        private final String codec;
+        private final String key;
+        private final String value;
+
+        private FmtpParameterRewrite(String media, String codec, String key, String value) {
+            this.media = media;
+            this.codec = codec;
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public void rewrite(Sdp sdp) {
+            for (MediaSection section : sdp.getMediaSections(media)) {
+                String payloadType = section.getPayloadType(codec);
+                if (payloadType == null) {
+                    Log.w(LOG_TAG, "No rtp map for " + codec + " codec");
+                    continue;
+                }
+                Map<String, String> parameters = section.getFmtpParameters(payloadType);
+                parameters.put(key, value);
+                section.setFmtpParameters(payloadType, parameters);
+                Log.d(LOG_TAG, "Set " + codec + " " + key + "=" + value);
+            }
+        }
+    }
+
+    private static class OpusProfileRewrite implements SdpRewrite {
+
+        private final AudioProfile profile;
+
+        private OpusProfileRewrite(AudioProfile profile) {
+            this.profile = profile;
+        }
+
+        @Override
+        public void rewrite(Sdp sdp) {
+            for (MediaSection section : sdp.getMediaSections(MEDIA_AUDIO)) {
+                String payloadType = section.getPayloadType(PeerConnectionUtilities.AUDIO_CODEC_OPUS);
+                if (payloadType == null) {
+                    Log.w(LOG_TAG, "No rtp map for opus codec, can not apply " + profile.getName());
+                    continue;
+                }
+                Map<String, String> parameters = section.getFmtpParameters(payloadType);
+                parameters.put(PeerConnectionUtilities.AUDIO_CODEC_PARAM_DTX, profile.isUseDtx() ? "1" : "0");
+                parameters.put(PeerConnectionUtilities.AUDIO_CODEC_PARAM_INBAND_FEC,
+                        profile.isUseInbandFec() ? "1" : "0");
+                parameters.put(PeerConnectionUtilities.AUDIO_CODEC_PARAM_STEREO, profile.isStereo() ? "1" : "0");
+                if (profile.getMaxPlaybackRate() > 0) {
+                    parameters.put(PeerConnectionUtilities.AUDIO_CODEC_PARAM_MAX_PLAYBACK_RATE,
+                            String.valueOf(profile.getMaxPlaybackRate()));
+                }
+                if (profile.getBitrateKbps() > 0) {
+                    parameters.put(PeerConnectionUtilities.AUDIO_CODEC_PARAM_BITRATE,
+                            String.valueOf(profile.getBitrateKbps() * 1000));
+                }
+                section.setFmtpParameters(payloadType, parameters);
+
+                if (profile.getPtimeMs() > 0) {
+                    section.setAttribute(PeerConnectionUtilities.AUDIO_ATTRIBUTE_PTIME,
+                            String.valueOf(profile.getPtimeMs()));
+                }
+                Log.d(LOG_TAG, "Applied audio profile " + profile);
+            }
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.example.pavlo.aphone.stats;
+
+import android.os.SystemClock;
+
+import org.webrtc.StatsReport;
+
+/**
+ * Created by pavlo on 18.10.26.
+ *
+ * Turns raw {@code StatsReport[]} polls into numbers once: every relevant value is parsed into a
+ * primitive ring buffer per {@link Metric}, cumulative counters are converted into interval deltas
+ * and rates. Ingestion runs on the peer connection executor, queries may come from any thread.
+ *
+ * Interval metrics get a sample on every poll after the first. Gauges such as RTT only get one
+ * when a report carries them, so {@link #getCurrent} and {@link #getSampleAgeMs} tell a value of
+ * the latest poll from one left over by an earlier poll.
+ */
+public class CallStatsIngestor {
+
+    public enum Metric {
+        RTT_MS,
+        JITTER_MS,
+        SEND_PACKET_LOSS_PERCENT,
+        RECEIVE_PACKET_LOSS_PERCENT,
+        BYTES_SENT,
+        BYTES_RECEIVED,
+        SEND_BITRATE_KBPS,
+        RECEIVE_BITRATE_KBPS,
+        AUDIO_INPUT_LEVEL,
+        AUDIO_OUTPUT_LEVEL,
+        AVAILABLE_SEND_BANDWIDTH_KBPS
+    }
+
+    private static final Metric[] METRICS = Metric.values();
+
+    private final MetricRingBuffer[] buffers = new MetricRingBuffer[METRICS.length];
+
+    private long lastTimestampMs = -1;
+    private long lastBytesSent;
+    private long lastBytesReceived;
+    private long lastPacketsSent;
+    private long lastPacketsSentLost;
+    private long lastPacketsReceived;
+    private long lastPacketsReceivedLost;
+
+    /**
+     * @param capacity samples kept per metric, e.g. the expected call length divided by the
+     *                 slowest polling period.
+     */
+    public CallStatsIngestor(int capacity) {
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = new MetricRingBuffer(capacity);
+        }
+    }
+
+    public void ingest(StatsReport[] reports) {
+        ingest(reports, SystemClock.elapsedRealtime());
+    }
+
+    public synchronized void ingest(StatsReport[] reports, long timestampMs) {
+        long bytesSent = 0;
+        long bytesReceived = 0;
+        long packetsSent = 0;
+        long packetsSentLost = 0;
+        long packetsReceived = 0;
+        long packetsReceivedLost = 0;
+        double rttMs = -1;
+        double jitterMs = -1;
+        double inputLevel = -1;
+        double outputLevel = -1;
+        double availableSendKbps = -1;
+
+        for (StatsReport report : reports) {
+            if (report.type.equals("VideoBwe")) {
+                for (StatsReport.Value value : report.values) {
+                    if (value.name.equals("googAvailableSendBandwidth")) {
+                        availableSendKbps = parseLong(value.value) / 1000.0;
+                    }
+                }
+                continue;
+            }
+            if (!report.type.equals("ssrc")) {
+                continue;
+            }
+            // A send ssrc reports the loss the remote side saw in RTCP, a receive ssrc the local
+            // loss, so each is counted against its own packet counter.
+            boolean sendSsrc = report.id.endsWith("_send");
+            for (StatsReport.Value value : report.values) {
+                String name = value.name;
+                if (name.equals("bytesSent")) {
+                    bytesSent += parseLong(value.value);
+                } else if (name.equals("bytesReceived")) {
+                    bytesReceived += parseLong(value.value);
+                } else if (name.equals("packetsSent")) {
+                    packetsSent += parseLong(value.value);
+                } else if (name.equals("packetsReceived")) {
+                    packetsReceived += parseLong(value.value);
+                } else if (name.equals("packetsLost")) {
+                    if (sendSsrc) {
+                        packetsSentLost += parseLong(value.value);
+                    } else {
+                        packetsReceivedLost += parseLong(value.value);
+                    }
+                } else if (name.equals("googRtt")) {
+                    rttMs = Math.max(rttMs, parseLong(value.value));
+                } else if (name.equals("googJitterReceived")) {
+                    jitterMs = Math.max(jitterMs, parseLong(value.value));
+                } else if (name.equals("audioInputLevel")) {
+                    inputLevel = parseLong(value.value);
+                } else if (name.equals("audioOutputLevel")) {
+                    outputLevel = parseLong(value.value);
+                }
+            }
+        }
+
+        addIfPresent(Metric.RTT_MS, timestampMs, rttMs);
+        addIfPresent(Metric.JITTER_MS, timestampMs, jitterMs);
+        addIfPresent(Metric.AUDIO_INPUT_LEVEL, timestampMs, inputLevel);
+        addIfPresent(Metric.AUDIO_OUTPUT_LEVEL, timestampMs, outputLevel);
+        addIfPresent(Metric.AVAILABLE_SEND_BANDWIDTH_KBPS, timestampMs, availableSendKbps);
+
+        if (lastTimestampMs >= 0 && timestampMs > lastTimestampMs) {
+            long intervalMs = timestampMs - lastTimestampMs;
+            long sentDelta = Math.max(0, bytesSent - lastBytesSent);
+            long receivedDelta = Math.max(0, bytesReceived - lastBytesReceived);
+            long sentLostDelta = Math.max(0, packetsSentLost - lastPacketsSentLost);
+            long packetsSentDelta = Math.max(0, packetsSent - lastPacketsSent);
+            long receivedLostDelta = Math.max(0, packetsReceivedLost - lastPacketsReceivedLost);
+            long expectedDelta = receivedLostDelta + Math.max(0, packetsReceived - lastPacketsReceived);
+
+            buffers[Metric.BYTES_SENT.ordinal()].add(timestampMs, sentDelta);
+            buffers[Metric.BYTES_RECEIVED.ordinal()].add(timestampMs, receivedDelta);
+            buffers[Metric.SEND_BITRATE_KBPS.ordinal()].add(timestampMs, sentDelta * 8.0 / intervalMs);
+            buffers[Metric.RECEIVE_BITRATE_KBPS.ordinal()].add(timestampMs, receivedDelta * 8.0 / intervalMs);
+            buffers[Metric.SEND_PACKET_LOSS_PERCENT.ordinal()].add(timestampMs,
+                    lossPercent(sentLostDelta, packetsSentDelta));
+            buffers[Metric.RECEIVE_PACKET_LOSS_PERCENT.ordinal()].add(timestampMs,
+                    lossPercent(receivedLostDelta, expectedDelta));
+        }
+
+        lastTimestampMs = timestampMs;
+        lastBytesSent = bytesSent;
+        lastBytesReceived = bytesReceived;
+        lastPacketsSent = packetsSent;
+        lastPacketsSentLost = packetsSentLost;
+        lastPacketsReceived = packetsReceived;
+        lastPacketsReceivedLost = packetsReceivedLost;
+    }
+
+    public synchronized double getLast(Metric metric, double defaultValue) {
+        return buffers[metric.ordinal()].getLast(defaultValue);
+    }
+
+    /**
+     * @return the sample {@code metric} got from the latest poll, or {@code defaultValue} if that
+     * poll had none.
+     */
+    public synchronized double getCurrent(Metric metric, double defaultValue) {
+        return getSampleAgeMs(metric) == 0 ? getLast(metric, defaultValue) : defaultValue;
+    }
+
+    /**
+     * @return how much older the newest sample of {@code metric} is than the latest poll, 0 if the
+     * latest poll produced it, or -1 if there is no sample.
+     */
+    public synchronized long getSampleAgeMs(Metric metric) {
+        MetricRingBuffer buffer = buffers[metric.ordinal()];
+        if (buffer.size() == 0) {
+            return -1;
+        }
+
+        return lastTimestampMs - buffer.getLastTimestampMs();
+    }
+
+    /**
+     * Fills {@code out} with min/avg/p95 of {@code metric} over the last {@code windowMs}.
+     */
+    public synchronized void aggregate(Metric metric, long windowMs, MetricRingBuffer.Aggregate out) {
+        buffers[metric.ordinal()].aggregate(SystemClock.elapsedRealtime() - windowMs, out);
+    }
+
+    public synchronized void clear() {
+        for (MetricRingBuffer buffer : buffers) {
+            buffer.clear();
+        }
+        lastTimestampMs = -1;
+    }
+
+    private void addIfPresent(Metric metric, long timestampMs, double value) {
+        if (value >= 0) {
+            buffers[metric.ordinal()].add(timestampMs, value);
+        }
+    }
+
+    /**
+     * @return lost packets as percent of the expected ones, 0 for an interval without traffic.
+     */
+    private static double lossPercent(long lost, long expected) {
+        if (expected <= 0) {
+            return lost > 0 ? 100 : 0;
+        }
+
+        return Math.min(100, lost * 100.0 / expected);
+    }
+
+    private static long parseLong(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.pavlo.aphone.stats;
+
+import java.util.Arrays;
+
+/**
+ * Created by pavlo on 18.10.26.
+ *
+ * Fixed size ring of timestamped samples kept in primitive arrays. The oldest sample is
+ * overwritten when the ring is full. Aggregation sorts a preallocated scratch array, so nothing is
+ * allocated or boxed after construction. Not thread safe, the owner synchronizes.
+ */
+public class MetricRingBuffer {
+
+    private final long[] timestamps;
+    private final double[] values;
+    private final double[] scratch;
+
+    private int head;
+    private int size;
+
+    public MetricRingBuffer(int capacity) {
+        timestamps = new long[capacity];
+        values = new double[capacity];
+        scratch = new double[capacity];
+    }
+
+    public void add(long timestampMs, double value) {
+        timestamps[head] = timestampMs;
+        values[head] = value;
+        head = (head + 1) % values.length;
+        if (size < values.length) {
+            size++;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the newest sample, or {@code defaultValue} if there is none.
+     */
+    public double getLast(double defaultValue) {
+        if (size == 0) {
+            return defaultValue;
+        }
+
+        return values[(head - 1 + values.length) % values.length];
+    }
+
+    /**
+     * @return the timestamp of the newest sample, or -1 if there is none.
+     */
+    public long getLastTimestampMs() {
+        if (size == 0) {
+            return -1;
+        }
+
+        return timestamps[(head - 1 + timestamps.length) % timestamps.length];
+    }
+
+    /**
+     * Fills {@code out} with min, average and 95th percentile of the samples not older than
+     * {@code sinceMs}.
+     */
+    public void aggregate(long sinceMs, Aggregate out) {
+        int count = 0;
+        double sum = 0;
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+
+        for (int i = 0; i < size; i++) {
+            int index = (head - 1 - i + values.length) % values.length;
+            if (timestamps[index] < sinceMs) {
+                break;
+            }
+            double value = values[index];
+            scratch[count++] = value;
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+
+        if (count == 0) {
+            out.set(0, 0, 0, 0, 0);
+            return;
+        }
+        Arrays.sort(scratch, 0, count);
+        int p95Index = Math.min(count - 1, (int) Math.ceil(count * 0.95) - 1);
+        out.set(count, min, sum / count, scratch[Math.max(p95Index, 0)], max);
+    }
+
+    public void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    /**
+     * Reusable result of {@link #aggregate}.
+     */
+    public static class Aggregate {
+
+        private int count;
+        private double min;
+        private double average;
+        private double p95;
+        private double max;
+
+        void set(int count, double min, double average, double p95, double max) {
+            this.count = count;
+            this.min = min;
+            this.average = average;
+            this.p95 = p95;
+            this.max = max;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public double getMin() {
+            return min;
+        }
+
+        public double getAverage() {
+            return average;
+        }
+
+        public double getP95() {
+            return p95;
+        }
+
+        public double getMax() {
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return "n=" + count + ", min=" + min + ", avg=" + average + ", p95=" + p95 + ", max=" + max;
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package com.example.pavlo.aphone.tracing;
+
+import android.util.Log;
+
+import com.example.pavlo.aphone.util.Config;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Created by pavlo on 18.10.26.
+ *
+ * Records the setup phases of a call as spans on the monotonic clock. Spans are opened and closed
+ * from whatever thread reaches the phase. Every span is keyed by the ID of the call it belongs to,
+ * which callers capture with {@link #getCurrentCallId()} when they start working for a call, so a
+ * late callback of an earlier call can not close a span of the current one. The last
+ * {@link Config#TRACE_MAX_CALLS} calls are kept and can be exported as Chrome trace-event JSON,
+ * loadable in chrome://tracing or Perfetto.
+ */
+public class CallTracer {
+
+    private static final String LOG_TAG = "Call tracer";
+
+    private static final CallTracer instance = new CallTracer();
+
+    private static final TracePhase[] PHASES = TracePhase.values();
+
+    private final LinkedList<CallTrace> calls = new LinkedList<>();
+
+    private CallTrace currentCall;
+
+    private CallTracer() {
+
+    }
+
+    public static CallTracer getInstance() {
+        return instance;
+    }
+
+    public synchronized void startCall(String callId) {
+        currentCall = new CallTrace(callId, System.nanoTime());
+        calls.add(currentCall);
+        while (calls.size() > Config.TRACE_MAX_CALLS) {
+            calls.removeFirst();
+        }
+        begin(callId, TracePhase.CALL_SETUP);
+    }
+
+    public synchronized String getCurrentCallId() {
+        return currentCall != null ? currentCall.callId : null;
+    }
+
+    /**
+     * Opens the span of {@code phase} in call {@code callId}. Opening an already open span keeps
+     * the earlier start.
+     */
+    public synchronized void begin(String callId, TracePhase phase) {
+        CallTrace call = findCall(callId);
+        if (call == null || call.openSpans[phase.ordinal()] != 0) {
+            return;
+        }
+        call.openSpans[phase.ordinal()] = System.nanoTime();
+        call.openSpanThreads[phase.ordinal()] = Thread.currentThread().getId();
+    }
+
+    /**
+     * Closes the span of {@code phase} in call {@code callId}, if it is open.
+     */
+    public synchronized void end(String callId, TracePhase phase) {
+        CallTrace call = findCall(callId);
+        if (call == null || call.openSpans[phase.ordinal()] == 0) {
+            return;
+        }
+        long startNanos = call.openSpans[phase.ordinal()];
+        call.openSpans[phase.ordinal()] = 0;
+        call.add(new TraceEvent(phase, startNanos, System.nanoTime() - startNanos,
+                call.openSpanThreads[phase.ordinal()], false));
+    }
+
+    /**
+     * Drops the open span of {@code phase} in call {@code callId} without recording it, e.g. when
+     * the work it measured was thrown away.
+     */
+    public synchronized void cancel(String callId, TracePhase phase) {
+        CallTrace call = findCall(callId);
+        if (call != null) {
+            call.openSpans[phase.ordinal()] = 0;
+        }
+    }
+
+    /**
+     * Records {@code phase} as an instant of call {@code callId}, only its first occurrence.
+     */
+    public synchronized void mark(String callId, TracePhase phase) {
+        CallTrace call = findCall(callId);
+        if (call == null || call.marked[phase.ordinal()]) {
+            return;
+        }
+        call.marked[phase.ordinal()] = true;
+        call.add(new TraceEvent(phase, System.nanoTime(), 0, Thread.currentThread().getId(), true));
+    }
+
+    public synchronized void endCall() {
+        if (currentCall == null) {
+            return;
+        }
+        Log.d(LOG_TAG, currentCall.toString());
+        currentCall = null;
+    }
+
+    /**
+     * @return all kept calls as a Chrome trace-event JSON object. Every call is one process row,
+     * named after its call ID, with timestamps relative to its start.
+     */
+    public synchronized JSONObject toChromeTrace() throws JSONException {
+        JSONArray events = new JSONArray();
+        int pid = 1;
+        for (CallTrace call : calls) {
+            JSONObject processName = new JSONObject();
+            processName.put("name", "process_name");
+            processName.put("ph", "M");
+            processName.put("pid", pid);
+            processName.put("args", new JSONObject().put("name", "call " + call.callId));
+            events.put(processName);
+
+            for (TraceEvent event : call.events) {
+                JSONObject json = new JSONObject();
+                json.put("name", event.phase.name());
+                json.put("cat", "call_setup");
+                json.put("ph", event.instant ? "i" : "X");
+                json.put("ts", (event.startNanos - call.startNanos) / 1000);
+                if (event.instant) {
+                    json.put("s", "p");
+                } else {
+                    json.put("dur", event.durationNanos / 1000);
+                }
+                json.put("pid", pid);
+                json.put("tid", event.threadId);
+                json.put("args", new JSONObject().put("callId", call.callId));
+                events.put(json);
+            }
+            pid++;
+        }
+
+        JSONObject trace = new JSONObject();
+        trace.put("traceEvents", events);
+        trace.put("displayTimeUnit", "ms");
+
+        return trace;
+    }
+
+    /**
+     * Does file I/O, call it off the main thread.
+     */
+    public void writeChromeTrace(File file) throws IOException {
+        String json;
+        try {
+            json = toChromeTrace().toString();
+        } catch (JSONException e) {
+            throw new IOException("Trace JSON error: " + e.getMessage());
+        }
+
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(json);
+        } finally {
+            writer.close();
+        }
+        Log.d(LOG_TAG, "Chrome trace written to " + file);
+    }
+
+    private CallTrace findCall(String callId) {
+        if (callId == null) {
+            return null;
+        }
+        if (currentCall != null && currentCall.callId.equals(callId)) {
+            return currentCall;
+        }
+        for (CallTrace call : calls) {
+            if (call.callId.equals(callId)) {
+                return call;
+            }
+        }
+
+        return null;
+    }
+
+    private static class CallTrace {
+
+        private final String callId;
+        private final long startNanos;
+        private final List<TraceEvent> events = new ArrayList<>();
+        private final boolean[] marked = new boolean[PHASES.length];
+        private final long[] openSpans = new long[PHASES.length];
+        private final long[] openSpanThreads = new long[PHASES.length];
+
+        private CallTrace(String callId, long startNanos) {
+            this.callId = callId;
+            this.startNanos = startNanos;
+        }
+
+        private void add(TraceEvent event) {
+            events.add(event);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder("Call ").append(callId).append(':');
+            for (TraceEvent event : events) {
+                builder.append(' ').append(event.phase.name()).append('@')
+                        .append((event.startNanos - startNanos) / 1000000).append("ms");
+                if (!event.instant) {
+                    builder.append('+').append(event.durationNanos / 1000000).append("ms");
+                }
+            }
+
+            return builder.toString();
+        }
+    }
+
+    private static class TraceEvent {
+
+        private final TracePhase phase;
+        private final long startNanos;
+        private final long durationNanos;
+        private final long threadId;
+        private final boolean instant;
+
+        private TraceEvent(TracePhase phase, long startNanos, long durationNanos, long threadId, boolean instant) {
+            this.phase = phase;
+            this.startNanos = startNanos;
+            this.durationNanos = durationNanos;
+            this.threadId = threadId;
+            this.instant = instant;
+        }
+    }
+}
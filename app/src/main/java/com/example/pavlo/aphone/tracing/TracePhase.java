@@ -0,0 +1,20 @@
+package com.example.pavlo.aphone.tracing;
+
+/**
+ * Created by pavlo on 18.10.26.
+ */
+public enum TracePhase {
+    CALL_SETUP,
+    FACTORY_INIT,
+    JOIN_HTTP,
+    TURN_FETCH,
+    WEBSOCKET_OPEN,
+    WEBSOCKET_REGISTER,
+    CREATE_OFFER,
+    CREATE_ANSWER,
+    LOCAL_SDP_SET,
+    REMOTE_SDP_SET,
+    FIRST_LOCAL_CANDIDATE,
+    FIRST_REMOTE_CANDIDATE,
+    ICE_CONNECT
+}
@@ -1,5 +1,7 @@
 package com.example.pavlo.aphone.util;
 
+import android.os.Process;
+
 /**
  * Created by pavlo on 22.06.16.
  */
@@ -11,11 +13,52 @@ public class Config {
     public static final String ROOM_MESSAGE = "message";
     public static final String ROOM_LEAVE = "leave";
 
+    public static final String DEFAULT_WSS_URL = "wss://apprtc-ws.webrtc.org:443/ws";
+    public static final String DEFAULT_WSS_POST_URL = "https://apprtc-ws.webrtc.org:443";
+
+    public static final String DEFAULT_STUN_SERVER = "stun:stun.l.google.com:19302";
+
     public static final int STAT_CALLBACK_PERIOD = 1000;
+    public static final int STATS_FAST_PERIOD_MS = 500;
+    public static final int STATS_SLOW_PERIOD_MS = 5000;
+    public static final int STATS_STABLE_POLLS = 6;
+    public static final int STATS_DEGRADED_RTT_MS = 400;
+    public static final int STATS_DEGRADED_LOSS_PERCENT = 5;
+    public static final int STATS_HISTORY_MS = 60 * 60 * 1000;
     public static final int HTTP_TIMEOUT_MS = 8000;
     public static final int TURN_HTTP_TIMEOUT_MS = 5000;
-    private static final int CLOSE_TIMEOUT = 1000;
+    public static final long TURN_CACHE_DEFAULT_TTL_MS = 10 * 60 * 1000;
+    public static final long TURN_CACHE_EXPIRY_MARGIN_MS = 60 * 1000;
+    public static final int HTTP_MAX_THREADS = 4;
+    public static final int HTTP_MAX_REQUESTS_PER_HOST = 2;
+    public static final int HTTP_MAX_QUEUED_REQUESTS = 64;
+    public static final int HTTP_THREAD_KEEP_ALIVE_MS = 30000;
+    public static final int HTTP_MAX_IDLE_CONNECTIONS = 5;
+    public static final int TLS_SESSION_CACHE_SIZE = 16;
+    public static final int TLS_SESSION_TIMEOUT_S = 24 * 60 * 60;
+    public static final int WEBSOCKET_CLOSE_TIMEOUT_MS = 1000;
+    public static final int WEBSOCKET_RECONNECT_BASE_DELAY_MS = 250;
+    public static final int WEBSOCKET_RECONNECT_MAX_DELAY_MS = 4000;
+    public static final int WEBSOCKET_RECONNECT_MAX_ATTEMPTS = 6;
+    public static final int WEBSOCKET_REPLAY_BUFFER_SIZE = 32;
+    public static final int WEBSOCKET_REPLAY_WINDOW_MS = 5000;
+    public static final int WEBSOCKET_DEDUP_HISTORY_SIZE = 128;
+    public static final boolean SIGNALING_INITIATOR_OVER_WEBSOCKET = true;
+
+    public static final int ICE_POLICY_MIN_SAMPLES = 3;
+    public static final int EXECUTOR_DRAIN_BATCH_SIZE = 32;
+    public static final int EXECUTOR_LONG_TASK_MS = 50;
+    public static final int SIGNALING_THREAD_PRIORITY = Process.THREAD_PRIORITY_DEFAULT + Process.THREAD_PRIORITY_MORE_FAVORABLE;
+    public static final int PEER_CONNECTION_THREAD_PRIORITY = Process.THREAD_PRIORITY_DEFAULT + Process.THREAD_PRIORITY_MORE_FAVORABLE;
+    public static final int IO_THREAD_PRIORITY = Process.THREAD_PRIORITY_DEFAULT;
+    public static final int THREAD_BUDGET_SLACK = 2;
+    public static final int TRACE_MAX_CALLS = 10;
+    public static final int ICE_RESTART_GRACE_PERIOD_MS = 10000;
+    public static final int ICE_CANDIDATE_BATCH_WINDOW_MS = 40;
+    public static final int ICE_CANDIDATE_BATCH_MAX_SIZE = 10;
 
     public static final int PERMISSION_REQUEST_CODE = 0;
     public static final int AUDIO_BITRATE = 32;
+    public static final int AUDIO_BITRATE_MIN_KBPS = 8;
+    public static final int AUDIO_BITRATE_MAX_KBPS = 64;
 }
@@ -0,0 +1,33 @@
+package com.example.pavlo.aphone.util;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+
+/**
+ * Created by pavlo on 18.10.26.
+ */
+public class NetworkUtilities {
+
+    public static final String NETWORK_TYPE_NONE = "none";
+
+    public static String getActiveNetworkType(Context context) {
+        ConnectivityManager connectivityManager =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+
+        if (networkInfo == null || !networkInfo.isConnected()) {
+            return NETWORK_TYPE_NONE;
+        }
+
+        return networkInfo.getTypeName().toLowerCase();
+    }
+
+    public static boolean isMobileNetwork(Context context) {
+        ConnectivityManager connectivityManager =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+
+        return networkInfo != null && networkInfo.getType() == ConnectivityManager.TYPE_MOBILE;
+    }
+}
@@ -11,6 +11,11 @@ public class PeerConnectionUtilities {
     public static final String AUDIO_CODEC_ISAC = "ISAC";
 
     public static final String AUDIO_CODEC_PARAM_BITRATE = "maxaveragebitrate";
+    public static final String AUDIO_CODEC_PARAM_DTX = "usedtx";
+    public static final String AUDIO_CODEC_PARAM_INBAND_FEC = "useinbandfec";
+    public static final String AUDIO_CODEC_PARAM_MAX_PLAYBACK_RATE = "maxplaybackrate";
+    public static final String AUDIO_CODEC_PARAM_STEREO = "stereo";
+    public static final String AUDIO_ATTRIBUTE_PTIME = "ptime";
     public static final String AUDIO_ECHO_CANCELLATION_CONSTRAINT = "googEchoCancellation";
     public static final String AUDIO_AUTO_GAIN_CONTROL_CONSTRAINT= "googAutoGainControl";
     public static final String AUDIO_HIGH_PASS_FILTER_CONSTRAINT  = "googHighpassFilter";
@@ -19,6 +24,7 @@ public class PeerConnectionUtilities {
 
     public static final String OFFER_TO_RECIEVE_AUDIO = "OfferToReceiveAudio";
     public static final String OFFER_TO_RECIEVE_VIDEO = "OfferToReceiveVideo";
+    public static final String ICE_RESTART_CONSTRAINT = "IceRestart";
     public static final String LOCAL_MEDIA_STREAM_LABEL = "ARDAMS";
 
     public static final String EXTRA_ROOMID = "org.appspot.apprtc.ROOMID";
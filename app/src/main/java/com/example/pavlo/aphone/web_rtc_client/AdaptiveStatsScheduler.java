@@ -0,0 +1,227 @@
+package com.example.pavlo.aphone.web_rtc_client;
+
+import android.os.Debug;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.pavlo.aphone.executor.LooperExecutor;
+import com.example.pavlo.aphone.executor.ScheduledTask;
+import com.example.pavlo.aphone.interfaces.StatsSubscriber;
+import com.example.pavlo.aphone.stats.CallStatsIngestor;
+import com.example.pavlo.aphone.util.Config;
+
+import org.webrtc.PeerConnection;
+import org.webrtc.StatsObserver;
+import org.webrtc.StatsReport;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Created by pavlo on 18.10.26.
+ *
+ * Polls peer connection stats only while someone subscribed to them. Polling is fast during call
+ * setup and while quality is unstable, and slows down after {@link Config#STATS_STABLE_POLLS}
+ * healthy polls in a row. The polls skipped compared to a fixed
+ * {@link Config#STAT_CALLBACK_PERIOD} rate are counted together with the executor CPU time and
+ * report values they would have cost. Must be used on the executor thread only.
+ *
+ * On an initiator with adaptive audio bitrate the controller stays subscribed for the whole call,
+ * so polling then stops only between calls.
+ */
+public class AdaptiveStatsScheduler {
+
+    private static final String LOG_TAG = "Adaptive stats";
+
+    private enum Phase {
+        SETUP, UNSTABLE, STABLE
+    }
+
+    private final LooperExecutor executor;
+    private final List<StatsSubscriber> subscribers = new ArrayList<>();
+    private final CallStatsIngestor callStats =
+            new CallStatsIngestor(Config.STATS_HISTORY_MS / Config.STATS_SLOW_PERIOD_MS);
+
+    private final Runnable pollTask = new Runnable() {
+        @Override
+        public void run() {
+            poll();
+        }
+    };
+
+    private PeerConnection peerConnection;
+    private StatsObserver statsObserver;
+    private ScheduledTask scheduledPoll;
+
+    private Phase phase = Phase.SETUP;
+    private int healthyPolls;
+
+
+    private long activeSinceMs;
+    private long activeMs;
+    private long polls;
+    private long pollCpuNanos;
+    private long pollValues;
+
+    public AdaptiveStatsScheduler(LooperExecutor executor) {
+        this.executor = executor;
+    }
+
+    public void start(PeerConnection peerConnection) {
+        stop();
+        this.peerConnection = peerConnection;
+        statsObserver = new PollObserver();
+        phase = Phase.SETUP;
+        healthyPolls = 0;
+        callStats.clear();
+        updateSchedule();
+    }
+
+    public void stop() {
+        peerConnection = null;
+        statsObserver = null;
+        updateSchedule();
+    }
+
+    public void onConnected() {
+        setPhase(Phase.UNSTABLE);
+    }
+
+    public void onQualityDegraded() {
+        setPhase(Phase.UNSTABLE);
+    }
+
+    public void addSubscriber(StatsSubscriber subscriber) {
+        if (!subscribers.contains(subscriber)) {
+            subscribers.add(subscriber);
+            updateSchedule();
+        }
+    }
+
+    public void removeSubscriber(StatsSubscriber subscriber) {
+        if (subscribers.remove(subscriber)) {
+            updateSchedule();
+        }
+    }
+
+    /**
+     * @return parsed history of the current call, filled while stats are polled.
+     */
+    public CallStatsIngestor getCallStats() {
+        return callStats;
+    }
+
+    public long getSavedPolls() {
+        long elapsedMs = activeMs + (activeSinceMs > 0 ? SystemClock.elapsedRealtime() - activeSinceMs : 0);
+
+        return Math.max(0, elapsedMs / Config.STAT_CALLBACK_PERIOD - polls);
+    }
+
+    public long getSavedCpuMs() {
+        return polls == 0 ? 0 : getSavedPolls() * pollCpuNanos / polls / 1000000L;
+    }
+
+    public long getSavedReportValues() {
+        return polls == 0 ? 0 : getSavedPolls() * pollValues / polls;
+    }
+
+    @Override
+    public String toString() {
+        return "phase=" + phase + ", polls=" + polls + ", savedPolls=" + getSavedPolls() +
+                ", savedCpu=" + getSavedCpuMs() + "ms, savedReportValues=" + getSavedReportValues();
+    }
+
+    private void setPhase(Phase phase) {
+        healthyPolls = 0;
+        if (this.phase != phase) {
+            Log.d(LOG_TAG, "Phase " + this.phase + " -> " + phase);
+            this.phase = phase;
+            updateSchedule();
+        }
+    }
+
+    private long getPeriodMs() {
+        return phase == Phase.STABLE ? Config.STATS_SLOW_PERIOD_MS : Config.STATS_FAST_PERIOD_MS;
+    }
+
+    /**
+     * Polls right away when polling starts. An already running schedule is replaced with one
+     * whose first poll is a full period away, so a phase or subscriber change adds no extra poll.
+     */
+    private void updateSchedule() {
+        long initialDelayMs = scheduledPoll != null ? getPeriodMs() : 0;
+        executor.cancel(scheduledPoll);
+        scheduledPoll = null;
+
+        boolean active = peerConnection != null && !subscribers.isEmpty();
+        if (active && activeSinceMs == 0) {
+            activeSinceMs = SystemClock.elapsedRealtime();
+        } else if (!active && activeSinceMs > 0) {
+            activeMs += SystemClock.elapsedRealtime() - activeSinceMs;
+            activeSinceMs = 0;
+        }
+        if (active) {
+            scheduledPoll = executor.scheduleAtFixedRate(pollTask, initialDelayMs, getPeriodMs());
+        }
+    }
+
+    private void poll() {
+        long cpuStartNanos = Debug.threadCpuTimeNanos();
+        if (peerConnection == null || !peerConnection.getStats(statsObserver, null)) {
+            Log.d(LOG_TAG, "getStats returns false!");
+        }
+        pollCpuNanos += Debug.threadCpuTimeNanos() - cpuStartNanos;
+    }
+
+    private void onStatsReady(StatsReport[] reports) {
+        long cpuStartNanos = Debug.threadCpuTimeNanos();
+        processStats(reports);
+        pollCpuNanos += Debug.threadCpuTimeNanos() - cpuStartNanos;
+    }
+
+    private void processStats(StatsReport[] reports) {
+        polls++;
+        for (StatsReport report : reports) {
+            pollValues += report.values.length;
+        }
+        callStats.ingest(reports);
+
+        for (StatsSubscriber subscriber : subscribers) {
+            subscriber.onStatsReport(reports);
+        }
+        if (phase == Phase.SETUP) {
+            return;
+        }
+
+        if (isHealthy()) {
+            if (phase == Phase.UNSTABLE && ++healthyPolls >= Config.STATS_STABLE_POLLS) {
+                setPhase(Phase.STABLE);
+            }
+        } else {
+            setPhase(Phase.UNSTABLE);
+        }
+    }
+
+    private boolean isHealthy() {
+        return callStats.getCurrent(CallStatsIngestor.Metric.RTT_MS, 0) < Config.STATS_DEGRADED_RTT_MS &&
+                callStats.getCurrent(CallStatsIngestor.Metric.SEND_PACKET_LOSS_PERCENT, 0) <
+                        Config.STATS_DEGRADED_LOSS_PERCENT &&
+                callStats.getCurrent(CallStatsIngestor.Metric.RECEIVE_PACKET_LOSS_PERCENT, 0) <
+                        Config.STATS_DEGRADED_LOSS_PERCENT;
+    }
+
+    private class PollObserver implements StatsObserver {
+        @Override
+        public void onComplete(final StatsReport[] statsReports) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (statsObserver != PollObserver.this) {
+                        return;
+                    }
+                    onStatsReady(statsReports);
+                }
+            });
+        }
+    }
+}
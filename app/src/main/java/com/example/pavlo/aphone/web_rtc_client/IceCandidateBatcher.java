@@ -0,0 +1,151 @@
+package com.example.pavlo.aphone.web_rtc_client;
+
+import android.util.Log;
+
+import com.example.pavlo.aphone.executor.LooperExecutor;
+import com.example.pavlo.aphone.executor.ScheduledTask;
+import com.example.pavlo.aphone.interfaces.IceCandidateBatchEvents;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.webrtc.IceCandidate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Created by pavlo on 18.10.26.
+ *
+ * Collects local ICE candidates for up to {@code windowMs} or {@code maxBatchSize} candidates and
+ * hands them over as one batch. Must be used on the executor thread only.
+ */
+public class IceCandidateBatcher {
+
+    public static final String TYPE_CANDIDATE = "candidate";
+    public static final String TYPE_CANDIDATES = "candidates";
+
+    private static final String LOG_TAG = "Ice candidate batcher";
+
+    private final LooperExecutor executor;
+    private final IceCandidateBatchEvents events;
+    private final long windowMs;
+    private final int maxBatchSize;
+
+    private final List<IceCandidate> pendingCandidates = new ArrayList<>();
+
+    private ScheduledTask flushTask;
+
+    public IceCandidateBatcher(LooperExecutor executor, long windowMs, int maxBatchSize,
+                               IceCandidateBatchEvents events) {
+        this.executor = executor;
+        this.windowMs = windowMs;
+        this.maxBatchSize = maxBatchSize;
+        this.events = events;
+    }
+
+    public void add(IceCandidate candidate) {
+        pendingCandidates.add(candidate);
+
+        if (pendingCandidates.size() >= maxBatchSize || windowMs <= 0) {
+            flush();
+        } else if (pendingCandidates.size() == 1) {
+            flushTask = executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            }, windowMs);
+        }
+    }
+
+    public void flush() {
+        cancelFlushTask();
+        if (pendingCandidates.isEmpty()) {
+            return;
+        }
+        List<IceCandidate> batch = new ArrayList<>(pendingCandidates);
+        pendingCandidates.clear();
+        Log.d(LOG_TAG, "Flush " + batch.size() + " candidates");
+        events.onIceCandidateBatch(batch);
+    }
+
+    public void clear() {
+        cancelFlushTask();
+        pendingCandidates.clear();
+    }
+
+    private void cancelFlushTask() {
+        executor.cancel(flushTask);
+        flushTask = null;
+    }
+
+    /**
+     * Single candidates keep the legacy {@code "candidate"} message so older peers still understand
+     * them, larger batches are sent as one {@code "candidates"} message.
+     */
+    public static JSONObject toJson(List<IceCandidate> candidates) throws JSONException {
+        if (candidates.size() == 1) {
+            JSONObject json = candidateToJson(candidates.get(0));
+            json.put("type", TYPE_CANDIDATE);
+
+            return json;
+        }
+        JSONArray array = new JSONArray();
+        for (IceCandidate candidate : candidates) {
+            array.put(candidateToJson(candidate));
+        }
+        JSONObject json = new JSONObject();
+        json.put("type", TYPE_CANDIDATES);
+        json.put(TYPE_CANDIDATES, array);
+
+        return json;
+    }
+
+    /**
+     * @param peerSupportsBatches false for a peer such as the stock apprtc web client, which drops
+     * the unknown {@code "candidates"} message; the batch then becomes one legacy
+     * {@code "candidate"} message per candidate, still sent together.
+     */
+    public static List<JSONObject> toMessages(List<IceCandidate> candidates, boolean peerSupportsBatches)
+            throws JSONException {
+        List<JSONObject> messages = new ArrayList<>();
+        if (peerSupportsBatches) {
+            messages.add(toJson(candidates));
+        } else {
+            for (IceCandidate candidate : candidates) {
+                messages.add(toJson(Collections.singletonList(candidate)));
+            }
+        }
+
+        return messages;
+    }
+
+    public static List<IceCandidate> fromJson(JSONObject json) throws JSONException {
+        List<IceCandidate> candidates = new ArrayList<>();
+        if (TYPE_CANDIDATES.equals(json.optString("type"))) {
+            JSONArray array = json.getJSONArray(TYPE_CANDIDATES);
+            for (int i = 0; i < array.length(); i++) {
+                candidates.add(candidateFromJson(array.getJSONObject(i)));
+            }
+        } else {
+            candidates.add(candidateFromJson(json));
+        }
+
+        return candidates;
+    }
+
+    private static JSONObject candidateToJson(IceCandidate candidate) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("label", candidate.sdpMLineIndex);
+        json.put("id", candidate.sdpMid);
+        json.put("candidate", candidate.sdp);
+
+        return json;
+    }
+
+    private static IceCandidate candidateFromJson(JSONObject json) throws JSONException {
+        return new IceCandidate(json.getString("id"), json.getInt("label"), json.getString("candidate"));
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.pavlo.aphone.web_rtc_client;
+
+import android.util.Log;
+
+import com.example.pavlo.aphone.parameters.IcePolicy;
+import com.example.pavlo.aphone.util.Config;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Created by pavlo on 18.10.26.
+ *
+ * Time from peer connection creation to ICE connected, kept per network type and ICE policy.
+ */
+public class IcePolicyMetrics {
+
+    private static final String LOG_TAG = "Ice policy metrics";
+
+    private static final IcePolicyMetrics instance = new IcePolicyMetrics();
+
+    private final Map<String, Sample> samples = new HashMap<>();
+
+    private IcePolicyMetrics() {
+
+    }
+
+    public static IcePolicyMetrics getInstance() {
+        return instance;
+    }
+
+    public synchronized void record(String networkType, IcePolicy policy, long timeToConnectedMs) {
+        String key = key(networkType, policy);
+        Sample sample = samples.get(key);
+        if (sample == null) {
+            sample = new Sample();
+            samples.put(key, sample);
+        }
+        sample.add(timeToConnectedMs);
+        Log.d(LOG_TAG, key + ": " + timeToConnectedMs + "ms, " + sample);
+    }
+
+    /**
+     * Picks a policy for {@code networkType}: policies with fewer than
+     * {@link Config#ICE_POLICY_MIN_SAMPLES} measurements are tried first, then the one with the
+     * lowest average time to connected wins.
+     */
+    public synchronized IcePolicy selectPolicy(String networkType, IcePolicy... policies) {
+        IcePolicy fastest = null;
+        long fastestAverageMs = Long.MAX_VALUE;
+
+        for (IcePolicy policy : policies) {
+            Sample sample = samples.get(key(networkType, policy));
+            if (sample == null || sample.count < Config.ICE_POLICY_MIN_SAMPLES) {
+                return policy;
+            }
+            if (sample.getAverageMs() < fastestAverageMs) {
+                fastestAverageMs = sample.getAverageMs();
+                fastest = policy;
+            }
+        }
+
+        return fastest;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return samples.toString();
+    }
+
+    private static String key(String networkType, IcePolicy policy) {
+        return networkType + "/" + policy.getName();
+    }
+
+    private static class Sample {
+
+        private int count;
+        private long totalMs;
+        private long minMs = Long.MAX_VALUE;
+        private long maxMs;
+
+        private void add(long valueMs) {
+            count++;
+            totalMs += valueMs;
+            minMs = Math.min(minMs, valueMs);
+            maxMs = Math.max(maxMs, valueMs);
+        }
+
+        private long getAverageMs() {
+            return count == 0 ? 0 : totalMs / count;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + count + ", avg=" + getAverageMs() + "ms, min=" + minMs + "ms, max=" + maxMs + "ms";
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.pavlo.aphone.web_rtc_client;
+
+import android.util.Log;
+
+/**
+ * Created by pavlo on 18.10.26.
+ *
+ * Outcome of ICE recoveries: how often a disconnected call came back within the grace period and
+ * how long that took.
+ */
+public class IceRecoveryMetrics {
+
+    private static final String LOG_TAG = "Ice recovery metrics";
+
+    private static final IceRecoveryMetrics instance = new IceRecoveryMetrics();
+
+    private int attempts;
+    private int recovered;
+    private int failed;
+    private int restarts;
+
+    private long totalRecoveryMs;
+    private long maxRecoveryMs;
+
+    private IceRecoveryMetrics() {
+
+    }
+
+    public static IceRecoveryMetrics getInstance() {
+        return instance;
+    }
+
+    public synchronized void recordAttempt() {
+        attempts++;
+    }
+
+    public synchronized void recordRestart() {
+        restarts++;
+    }
+
+    public synchronized void recordRecovered(long recoveryMs) {
+        recovered++;
+        totalRecoveryMs += recoveryMs;
+        maxRecoveryMs = Math.max(maxRecoveryMs, recoveryMs);
+        Log.d(LOG_TAG, "ICE recovered in " + recoveryMs + "ms. " + this);
+    }
+
+    public synchronized void recordFailed(long elapsedMs) {
+        failed++;
+        Log.d(LOG_TAG, "ICE recovery failed after " + elapsedMs + "ms. " + this);
+    }
+
+    public synchronized int getAttempts() {
+        return attempts;
+    }
+
+    public synchronized int getRecovered() {
+        return recovered;
+    }
+
+    public synchronized int getFailed() {
+        return failed;
+    }
+
+    public synchronized int getRestarts() {
+        return restarts;
+    }
+
+    /**
+     * @return share of finished recoveries that succeeded, 0 if none finished yet.
+     */
+    public synchronized float getSuccessRate() {
+        int finished = recovered + failed;
+
+        return finished == 0 ? 0 : (float) recovered / finished;
+    }
+
+    public synchronized long getAverageRecoveryMs() {
+        return recovered == 0 ? 0 : totalRecoveryMs / recovered;
+    }
+
+    public synchronized long getMaxRecoveryMs() {
+        return maxRecoveryMs;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "attempts=" + attempts + ", recovered=" + recovered + ", failed=" + failed +
+                ", restarts=" + restarts + ", successRate=" + getSuccessRate() +
+                ", avgRecovery=" + getAverageRecoveryMs() + "ms, maxRecovery=" + maxRecoveryMs + "ms";
+    }
+}
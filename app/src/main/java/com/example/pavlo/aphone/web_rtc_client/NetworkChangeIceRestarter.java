@@ -0,0 +1,80 @@
+package com.example.pavlo.aphone.web_rtc_client;
+
+import android.util.Log;
+
+import com.example.pavlo.aphone.interfaces.IceRestartEvents;
+import com.example.pavlo.aphone.interfaces.NetworkMonitorEvents;
+import com.example.pavlo.aphone.util.NetworkUtilities;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Created by pavlo on 18.10.26.
+ *
+ * Restarts ICE when a {@link com.example.pavlo.aphone.interfaces.NetworkMonitor} reports a new
+ * active interface, since the local candidates of the old one are gone. This is not an ICE loss:
+ * the call state and the ICE recovery metrics are left alone. Changes are handed over to
+ * {@code executor}, every other method must be called on its thread.
+ */
+public class NetworkChangeIceRestarter implements NetworkMonitorEvents {
+
+    private static final String LOG_TAG = "Network ICE restarter";
+
+    private final Executor executor;
+    private final IceRestartEvents events;
+
+    private String networkType = NetworkUtilities.NETWORK_TYPE_NONE;
+    private boolean iceConnected;
+    private boolean continualGathering;
+
+    public NetworkChangeIceRestarter(Executor executor, IceRestartEvents events) {
+        this.executor = executor;
+        this.events = events;
+    }
+
+    @Override
+    public void onNetworkChanged(final String networkType, final boolean connected) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                onNetworkChangedInternal(networkType, connected);
+            }
+        });
+    }
+
+    /**
+     * Starts a new call on {@code networkType}.
+     */
+    public void reset(String networkType) {
+        this.networkType = networkType;
+        iceConnected = false;
+        continualGathering = false;
+    }
+
+    /**
+     * @param continualGathering true if the ICE policy keeps gathering candidates, so a restart
+     * pays off even before ICE first connected.
+     */
+    public void onPeerConnectionCreated(boolean continualGathering) {
+        this.continualGathering = continualGathering;
+        iceConnected = false;
+    }
+
+    public void onIceConnected() {
+        iceConnected = true;
+    }
+
+    public String getNetworkType() {
+        return networkType;
+    }
+
+    private void onNetworkChangedInternal(String networkType, boolean connected) {
+        Log.d(LOG_TAG, "Network changed to " + networkType + ", connected: " + connected);
+        this.networkType = networkType;
+
+        // Without a network the restart could not gather anything, the next change brings one.
+        if (connected && (iceConnected || continualGathering)) {
+            events.onIceRestartNeeded();
+        }
+    }
+}
@@ -2,14 +2,33 @@ package com.example.pavlo.aphone.web_rtc_client;
 
 import android.content.Context;
 import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
 import android.util.Log;
 
+import com.example.pavlo.aphone.bitrate_control.AudioBitrateController;
+import com.example.pavlo.aphone.bitrate_control.BitrateControlLaw;
+import com.example.pavlo.aphone.executor.CallRuntime;
+import com.example.pavlo.aphone.executor.ExecutorMetrics;
 import com.example.pavlo.aphone.executor.LooperExecutor;
+import com.example.pavlo.aphone.executor.ScheduledTask;
+import com.example.pavlo.aphone.interfaces.AudioBitrateEvents;
+import com.example.pavlo.aphone.interfaces.IceRestartEvents;
+import com.example.pavlo.aphone.interfaces.NetworkMonitor;
 import com.example.pavlo.aphone.interfaces.PeerConnectionEvents;
+import com.example.pavlo.aphone.interfaces.StatsSubscriber;
+import com.example.pavlo.aphone.parameters.AudioProfile;
+import com.example.pavlo.aphone.parameters.IcePolicy;
 import com.example.pavlo.aphone.parameters.PeerConnectionParameters;
 import com.example.pavlo.aphone.parameters.SignalingParameters;
+import com.example.pavlo.aphone.sdp.SdpRewriter;
+import com.example.pavlo.aphone.stats.CallStatsIngestor;
+import com.example.pavlo.aphone.tracing.CallTracer;
+import com.example.pavlo.aphone.tracing.TracePhase;
+import com.example.pavlo.aphone.util.Config;
+import com.example.pavlo.aphone.util.NetworkUtilities;
 import com.example.pavlo.aphone.util.PeerConnectionUtilities;
 
+import org.webrtc.AudioSource;
 import org.webrtc.DataChannel;
 import org.webrtc.IceCandidate;
 import org.webrtc.Logging;
@@ -19,18 +38,13 @@ import org.webrtc.PeerConnection;
 import org.webrtc.PeerConnectionFactory;
 import org.webrtc.SdpObserver;
 import org.webrtc.SessionDescription;
-import org.webrtc.StatsObserver;
-import org.webrtc.StatsReport;
 import org.webrtc.voiceengine.WebRtcAudioUtils;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.EnumSet;
 import java.util.LinkedList;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.List;
 
 /**
  * Created by pavlo on 22.06.16.
@@ -41,16 +55,22 @@ public class PeerConnectionClient {
 
     private static final PeerConnectionClient instance = new PeerConnectionClient();
 
-    private final PCObserver pcObserver = new PCObserver();
-    private final SDPObserver sdpObserver = new SDPObserver();
-
     private final LooperExecutor executor;
+    private final PeerConnectionFactoryManager factoryManager = new PeerConnectionFactoryManager();
+    private final AdaptiveStatsScheduler statsScheduler;
+    private final NetworkChangeIceRestarter networkRestarter;
+    private final CallTracer tracer = CallTracer.getInstance();
+    private String traceCallId;
 
     private PeerConnectionFactory factory;
     private PeerConnection peerConnection;
     private PeerConnectionFactory.Options options = null;
     private PeerConnectionParameters peerConnectionParameters;
     private PeerConnectionEvents events;
+    private NetworkMonitor networkMonitor;
+
+    private PCObserver pcObserver;
+    private SDPObserver sdpObserver;
 
     private LinkedList<IceCandidate> queuedRemoteCandidates;
 
@@ -63,6 +83,10 @@ public class PeerConnectionClient {
     private MediaConstraints sdpMediaConstraints;
 
     private MediaStream mediaStream;
+    private AudioSource audioSource;
+
+    private SdpRewriter localSdpRewriter;
+    private SdpRewriter remoteSdpRewriter;
 
     private ParcelFileDescriptor aecDumpFileDescriptor;
 
@@ -70,17 +94,76 @@ public class PeerConnectionClient {
     private boolean isError;
     private boolean isInitiator;
 
-    private Timer statsTimer;
+    private long peerConnectionCreatedMs;
+    private boolean iceConnectedReported;
+
+    private boolean localDescriptionPending;
+    private boolean renegotiationPending;
+    private boolean renegotiationQueued;
+    private boolean queuedIceRestart;
+
+    private AudioBitrateController audioBitrateController;
+    private int audioBitrateKbps;
+    private boolean audioFec;
+
+    private boolean iceRecovering;
+    private long iceRecoveryStartedMs;
+    private ScheduledTask iceRecoveryTimeoutTask;
+
+    private boolean speculative;
+    private boolean speculativeOfferAdopted;
+    private boolean localDescriptionHeld;
+    private LinkedList<IceCandidate> heldLocalCandidates;
 
     private PeerConnectionClient() {
-        executor = new LooperExecutor();
-        executor.requestStart();
+        executor = CallRuntime.getInstance().getPeerConnectionExecutor();
+        statsScheduler = new AdaptiveStatsScheduler(executor);
+        networkRestarter = new NetworkChangeIceRestarter(executor, new IceRestartEvents() {
+            @Override
+            public void onIceRestartNeeded() {
+                onNetworkIceRestartInternal();
+            }
+        });
     }
 
     public static PeerConnectionClient getInstance() {
         return instance;
     }
 
+    /**
+     * Initializes the native globals and the shared factory in the background, so the first call
+     * does not pay for it. Safe to call more than once.
+     */
+    public void prewarmFactory(final Context context) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                factoryManager.warmUp(context);
+            }
+        });
+    }
+
+    public void trimMemory() {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                factoryManager.trimMemory();
+            }
+        });
+    }
+
+    /**
+     * Sets the source of network changes used by the following calls. A change of the active
+     * interface restarts ICE right away instead of waiting for the connectivity checks to time out.
+     */
+    public void setNetworkMonitor(NetworkMonitor networkMonitor) {
+        this.networkMonitor = networkMonitor;
+    }
+
+    public ExecutorMetrics.Snapshot getExecutorMetrics() {
+        return executor.getMetrics();
+    }
+
     public void setPeerConnectionFactoryOptions(PeerConnectionFactory.Options options) {
         this.options = options;
     }
@@ -90,18 +173,24 @@ public class PeerConnectionClient {
                                             final PeerConnectionEvents events) {
         this.peerConnectionParameters = parameters;
         this.events = events;
+        final String callId = tracer.getCurrentCallId();
 
-        factory = null;
-        peerConnection = null;
-        preferIsac = false;
-        isError = false;
-        queuedRemoteCandidates = null;
-        localSdp = null;
-        mediaStream = null;
-        statsTimer = new Timer();
+        if (networkMonitor != null) {
+            networkMonitor.start(networkRestarter);
+        }
         executor.execute(new Runnable() {
             @Override
             public void run() {
+                traceCallId = callId;
+                peerConnection = null;
+                preferIsac = false;
+                isError = false;
+                queuedRemoteCandidates = null;
+                localSdp = null;
+                mediaStream = null;
+                resetSpeculativeStateInternal();
+                resetIceRecoveryStateInternal();
+                stopAudioBitrateControlInternal();
                 createPeerConnectionFactoryInternal(context);
             }
         });
@@ -115,12 +204,109 @@ public class PeerConnectionClient {
         executor.execute(new Runnable() {
             @Override
             public void run() {
+                if (speculative) {
+                    adoptSpeculativePeerConnectionInternal();
+                    return;
+                }
+                createMediaConstraintsInternal();
+                createPeerConnectionInternal(signalingParameters.getIceServers());
+            }
+        });
+    }
+
+    /**
+     * Builds the peer connection with the default ICE servers and starts creating the offer before
+     * the room join completes. The local offer and candidates are held back until
+     * {@link #createPeerConnection} brings the real signaling parameters: an initiator keeps the
+     * work and switches to the real ICE servers, otherwise everything is discarded and redone.
+     */
+    public void createSpeculativePeerConnection() {
+        if (peerConnectionParameters == null || !(peerConnectionParameters.isSpeculativeSetup() ||
+                peerConnectionParameters.getIcePolicy().getCandidatePoolSize() > 0)) {
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (peerConnection != null || factory == null || isError) {
+                    return;
+                }
+                Log.d(LOG_TAG, "Speculative peer connection setup.");
+                List<PeerConnection.IceServer> iceServers = new LinkedList<PeerConnection.IceServer>();
+                iceServers.add(new PeerConnection.IceServer(Config.DEFAULT_STUN_SERVER));
+
                 createMediaConstraintsInternal();
-                createPeerConnectionInternal();
+                createPeerConnectionInternal(iceServers);
+                if (peerConnection == null) {
+                    return;
+                }
+                speculative = true;
+                heldLocalCandidates = new LinkedList<IceCandidate>();
+                isInitiator = true;
+                tracer.begin(traceCallId, TracePhase.CREATE_OFFER);
+                peerConnection.createOffer(sdpObserver, sdpMediaConstraints);
             }
         });
     }
 
+    private void adoptSpeculativePeerConnectionInternal() {
+        speculative = false;
+
+        if (signalingParameters.isInitiator() &&
+                peerConnection.updateIce(signalingParameters.getIceServers(), pcConstraints)) {
+            Log.d(LOG_TAG, "Speculative peer connection adopted.");
+            speculativeOfferAdopted = true;
+            if (localDescriptionHeld) {
+                localDescriptionHeld = false;
+                events.onLocalDescription(localSdp);
+            }
+            for (IceCandidate candidate : heldLocalCandidates) {
+                events.onIceCandidate(candidate);
+            }
+            heldLocalCandidates = null;
+            return;
+        }
+
+        Log.d(LOG_TAG, "Speculative peer connection discarded.");
+        tracer.cancel(traceCallId, TracePhase.CREATE_OFFER);
+        tracer.cancel(traceCallId, TracePhase.LOCAL_SDP_SET);
+        tracer.cancel(traceCallId, TracePhase.ICE_CONNECT);
+        disposePeerConnectionInternal();
+        resetSpeculativeStateInternal();
+        localSdp = null;
+        createPeerConnectionInternal(signalingParameters.getIceServers());
+    }
+
+    private void resetIceRecoveryStateInternal() {
+        localDescriptionPending = false;
+        renegotiationPending = false;
+        renegotiationQueued = false;
+        queuedIceRestart = false;
+        iceRecovering = false;
+        executor.cancel(iceRecoveryTimeoutTask);
+        iceRecoveryTimeoutTask = null;
+    }
+
+    private void resetSpeculativeStateInternal() {
+        speculative = false;
+        speculativeOfferAdopted = false;
+        localDescriptionHeld = false;
+        heldLocalCandidates = null;
+    }
+
+    private void disposePeerConnectionInternal() {
+        statsScheduler.stop();
+        if (peerConnection != null) {
+            peerConnection.dispose();
+            peerConnection = null;
+        }
+        mediaStream = null;
+        if (audioSource != null) {
+            audioSource.dispose();
+            audioSource = null;
+        }
+    }
+
     private void createPeerConnectionFactoryInternal(Context context) {
         isError = false;
         preferIsac = false;
@@ -129,16 +315,52 @@ public class PeerConnectionClient {
                 peerConnectionParameters.getAudioCodec().equals(PeerConnectionUtilities.AUDIO_CODEC_ISAC)) {
             preferIsac = true;
         }
+        createSdpRewritersInternal();
+        networkRestarter.reset(NetworkUtilities.getActiveNetworkType(context));
 
-        if (!PeerConnectionFactory.initializeAndroidGlobals(context, true, false, false, null)) {
+        tracer.begin(traceCallId, TracePhase.FACTORY_INIT);
+        factory = factoryManager.acquire(context);
+        tracer.end(traceCallId, TracePhase.FACTORY_INIT);
+        if (factory == null) {
             events.onPeerConnectionError("Failed to initialize Android Globals");
+            return;
         }
 
         if (options != null) {
             Log.d(LOG_TAG, "Factoty networkIgnoreMask option: " + options.networkIgnoreMask);
         }
-        factory = new PeerConnectionFactory();
-        Log.d(LOG_TAG, "Peer connection factory created!");
+        Log.d(LOG_TAG, "Peer connection factory ready!");
+    }
+
+    private void createSdpRewritersInternal() {
+        SdpRewriter.Builder localBuilder = SdpRewriter.newBuilder();
+        SdpRewriter.Builder remoteBuilder = SdpRewriter.newBuilder();
+
+        if (preferIsac) {
+            localBuilder.preferCodec(SdpRewriter.MEDIA_AUDIO, PeerConnectionUtilities.AUDIO_CODEC_ISAC);
+            remoteBuilder.preferCodec(SdpRewriter.MEDIA_AUDIO, PeerConnectionUtilities.AUDIO_CODEC_ISAC);
+        }
+        AudioProfile audioProfile = peerConnectionParameters.getAudioProfile();
+        if (audioProfile != null) {
+            localBuilder.applyAudioProfile(audioProfile);
+            remoteBuilder.applyAudioProfile(audioProfile);
+        } else if (peerConnectionParameters.getAudioStartBitrate() > 0) {
+            remoteBuilder.setStartBitrate(PeerConnectionUtilities.AUDIO_CODEC_OPUS,
+                    peerConnectionParameters.getAudioStartBitrate());
+        }
+
+        if (audioBitrateKbps > 0) {
+            String fec = audioFec ? "1" : "0";
+            localBuilder.setStartBitrate(PeerConnectionUtilities.AUDIO_CODEC_OPUS, audioBitrateKbps).
+                    setFmtpParameter(SdpRewriter.MEDIA_AUDIO, PeerConnectionUtilities.AUDIO_CODEC_OPUS,
+                            PeerConnectionUtilities.AUDIO_CODEC_PARAM_INBAND_FEC, fec);
+            remoteBuilder.setStartBitrate(PeerConnectionUtilities.AUDIO_CODEC_OPUS, audioBitrateKbps).
+                    setFmtpParameter(SdpRewriter.MEDIA_AUDIO, PeerConnectionUtilities.AUDIO_CODEC_OPUS,
+                            PeerConnectionUtilities.AUDIO_CODEC_PARAM_INBAND_FEC, fec);
+        }
+
+        localSdpRewriter = localBuilder.build();
+        remoteSdpRewriter = remoteBuilder.build();
     }
 
     private void createMediaConstraintsInternal() {
@@ -174,28 +396,54 @@ public class PeerConnectionClient {
                 new MediaConstraints.KeyValuePair(PeerConnectionUtilities.OFFER_TO_RECIEVE_VIDEO, "false"));
     }
 
-    private void createPeerConnectionInternal() {
+    private void createPeerConnectionInternal(List<PeerConnection.IceServer> iceServers) {
         if (factory == null || isError) {
             Log.d(LOG_TAG, "PeerConnection factory is not created!");
             return;
         }
 
         queuedRemoteCandidates = new LinkedList<IceCandidate>();
+        localDescriptionPending = false;
+        renegotiationPending = false;
+        renegotiationQueued = false;
+        queuedIceRestart = false;
+        pcObserver = new PCObserver();
+        sdpObserver = new SDPObserver();
+
+        IcePolicy icePolicy = peerConnectionParameters.getIcePolicy();
+        Log.d(LOG_TAG, "ICE policy: " + icePolicy);
+
+        PeerConnection.RTCConfiguration rtcConfiguration = new PeerConnection.RTCConfiguration(iceServers);
+
+        rtcConfiguration.tcpCandidatePolicy = icePolicy.getTcpCandidatePolicy();
+        rtcConfiguration.bundlePolicy = icePolicy.getBundlePolicy();
+        rtcConfiguration.iceTransportsType = icePolicy.isRelayOnly() ?
+                PeerConnection.IceTransportsType.RELAY : PeerConnection.IceTransportsType.ALL;
+
+        // The factory outlives this call, so the policy mask goes into a fresh copy of the options
+        // instead of accumulating in the caller's object.
+        PeerConnectionFactory.Options factoryOptions = new PeerConnectionFactory.Options();
+        if (options != null) {
+            factoryOptions.networkIgnoreMask = options.networkIgnoreMask;
+            factoryOptions.disableEncryption = options.disableEncryption;
+        }
+        factoryOptions.networkIgnoreMask |= icePolicy.getNetworkIgnoreMask();
+        factory.setOptions(factoryOptions);
 
-        PeerConnection.RTCConfiguration rtcConfiguration =
-                new PeerConnection.RTCConfiguration(signalingParameters.getIceServers());
-
-        rtcConfiguration.tcpCandidatePolicy = PeerConnection.TcpCandidatePolicy.DISABLED;
-        rtcConfiguration.bundlePolicy = PeerConnection.BundlePolicy.MAXBUNDLE;
+        peerConnectionCreatedMs = SystemClock.elapsedRealtime();
+        tracer.begin(traceCallId, TracePhase.ICE_CONNECT);
+        iceConnectedReported = false;
+        networkRestarter.onPeerConnectionCreated(icePolicy.isContinualGathering());
 
         peerConnection = factory.createPeerConnection(rtcConfiguration, pcConstraints, pcObserver);
         isInitiator = false;
 
         mediaStream = factory.createLocalMediaStream(PeerConnectionUtilities.LOCAL_MEDIA_STREAM_LABEL);
-        mediaStream.addTrack(factory.createAudioTrack(PeerConnectionUtilities.AUDIO_TRACK_ID,
-                factory.createAudioSource(audioConstraints)));
+        audioSource = factory.createAudioSource(audioConstraints);
+        mediaStream.addTrack(factory.createAudioTrack(PeerConnectionUtilities.AUDIO_TRACK_ID, audioSource));
 
         peerConnection.addStream(mediaStream);
+        statsScheduler.start(peerConnection);
 
         if (peerConnectionParameters.isAecDump()) {
             try {
@@ -212,72 +460,80 @@ public class PeerConnectionClient {
         Log.d(LOG_TAG, "Peer connection created!");
     }
 
-    public void closeInternal() {
-        Log.d(LOG_TAG, "Closing peer connection.");
-        statsTimer.cancel();
-
-        if (peerConnection != null) {
-            peerConnection.dispose();
-            peerConnection = null;
+    /**
+     * Stops the network monitor and closes the call on the executor thread; may be called from
+     * any thread. {@link PeerConnectionEvents#onPeerConnectionClosed} reports the end.
+     */
+    public void close() {
+        if (networkMonitor != null) {
+            networkMonitor.stop();
         }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Log.d(LOG_TAG, "Closing peer connection.");
+                stopAudioBitrateControlInternal();
+                Log.d(LOG_TAG, "Stats polling: " + statsScheduler);
+
+                disposePeerConnectionInternal();
+                resetSpeculativeStateInternal();
+                resetIceRecoveryStateInternal();
+
+                Log.d(LOG_TAG, "Releasing peer connection factory.");
+                if (factory != null) {
+                    factoryManager.release();
+                    factory = null;
+                }
+                options = null;
 
-        Log.d(LOG_TAG, "Closing peer connection factory.");
-        if (factory != null) {
-            factory.dispose();
-            factory = null;
-        }
-        options = null;
-
-        Log.d(LOG_TAG, "Closing peer connection done!");
-        events.onPeerConnectionClosed();
+                Log.d(LOG_TAG, "Closing peer connection done!");
+                events.onPeerConnectionClosed();
+            }
+        });
     }
 
-    private void getStats() {
-        if (peerConnection == null || isError) {
-            return;
-        }
-
-        boolean success = peerConnection.getStats(new StatsObserver() {
+    /**
+     * Subscribers get stats reports on the executor thread. Stats are polled only while at least
+     * one subscriber is registered.
+     */
+    public void addStatsSubscriber(final StatsSubscriber subscriber) {
+        executor.execute(new Runnable() {
             @Override
-            public void onComplete(StatsReport[] statsReports) {
-                events.onPeerConnectionStatsReady(statsReports);
+            public void run() {
+                statsScheduler.addSubscriber(subscriber);
             }
-        }, null);
+        });
+    }
 
-        if (!success) {
-            Log.d(LOG_TAG, "getStats returns false!");
-        }
+    /**
+     * @return parsed stats of the current call. Filled only while a stats subscriber is registered.
+     */
+    public CallStatsIngestor getCallStats() {
+        return statsScheduler.getCallStats();
     }
 
-    public void enableStatsEvents(boolean enable, int periodMs) {
-        if (enable) {
-            try {
-                statsTimer.schedule(new TimerTask() {
-                    @Override
-                    public void run() {
-                        executor.execute(new Runnable() {
-                            @Override
-                            public void run() {
-                                getStats();
-                            }
-                        });
-                    }
-                }, 0, periodMs);
-            } catch (Exception e) {
-                Log.e(LOG_TAG, "Can not schedule statistics timer", e);
+    public void removeStatsSubscriber(final StatsSubscriber subscriber) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                statsScheduler.removeSubscriber(subscriber);
             }
-        } else {
-            statsTimer.cancel();
-        }
+        });
     }
 
     public void createOffer() {
         executor.execute(new Runnable() {
             @Override
             public void run() {
+                if (speculativeOfferAdopted) {
+                    Log.d(LOG_TAG, "Offer already created speculatively.");
+                    speculativeOfferAdopted = false;
+                    return;
+                }
                 if (peerConnection != null && !isError) {
                     Log.d(LOG_TAG, "PC create offer.");
                     isInitiator = true;
+                    tracer.begin(traceCallId, TracePhase.CREATE_OFFER);
                     peerConnection.createOffer(sdpObserver, sdpMediaConstraints);
                 }
             }
@@ -291,17 +547,179 @@ public class PeerConnectionClient {
                 if (peerConnection != null && !isError) {
                     Log.d(LOG_TAG, "Create PC answer.");
                     isInitiator = false;
+                    localSdp = null;
+                    tracer.begin(traceCallId, TracePhase.CREATE_ANSWER);
                     peerConnection.createAnswer(sdpObserver, sdpMediaConstraints);
                 }
             }
         });
     }
 
+    /**
+     * Restarts ICE over the existing signaling channel. Only the initiator sends the restart
+     * offer, the other side answers it as a regular remote offer.
+     */
+    public void restartIce() {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                restartIceInternal();
+            }
+        });
+    }
+
+    private void restartIceInternal() {
+        renegotiateInternal(true);
+    }
+
+    /**
+     * Sends a new offer from the initiator. While an offer is waiting for its answer, further
+     * requests are merged into one follow-up offer sent once the answer is applied.
+     */
+    private void renegotiateInternal(boolean iceRestart) {
+        if (peerConnection == null || isError || !isInitiator) {
+            return;
+        }
+        if (renegotiationPending) {
+            renegotiationQueued = true;
+            queuedIceRestart |= iceRestart;
+            return;
+        }
+        Log.d(LOG_TAG, iceRestart ? "Restarting ICE." : "Renegotiating.");
+        if (iceRestart) {
+            IceRecoveryMetrics.getInstance().recordRestart();
+        }
+        renegotiationPending = true;
+        localSdp = null;
+        queuedRemoteCandidates = new LinkedList<IceCandidate>();
+
+        MediaConstraints offerConstraints = new MediaConstraints();
+        offerConstraints.mandatory.addAll(sdpMediaConstraints.mandatory);
+        if (iceRestart) {
+            offerConstraints.mandatory.add(
+                    new MediaConstraints.KeyValuePair(PeerConnectionUtilities.ICE_RESTART_CONSTRAINT, "true"));
+        }
+        tracer.begin(traceCallId, TracePhase.CREATE_OFFER);
+        peerConnection.createOffer(sdpObserver, offerConstraints);
+    }
+
+    private void onRenegotiationAnsweredInternal() {
+        renegotiationPending = false;
+        if (renegotiationQueued) {
+            boolean iceRestart = queuedIceRestart;
+            renegotiationQueued = false;
+            queuedIceRestart = false;
+            renegotiateInternal(iceRestart);
+        }
+    }
+
+    private void startAudioBitrateControlInternal() {
+        AudioProfile audioProfile = peerConnectionParameters.getAudioProfile();
+        int startKbps = audioProfile != null ? audioProfile.getBitrateKbps() :
+                peerConnectionParameters.getAudioStartBitrate();
+        boolean startFec = audioProfile == null || audioProfile.isUseInbandFec();
+
+        BitrateControlLaw law = BitrateControlLaw.newBuilder().
+                setStart(startKbps > 0 ? startKbps : Config.AUDIO_BITRATE, startFec).
+                setRange(Config.AUDIO_BITRATE_MIN_KBPS, Config.AUDIO_BITRATE_MAX_KBPS).
+                setLossThresholds(1, Config.STATS_DEGRADED_LOSS_PERCENT).
+                setRttThresholds(Config.STATS_DEGRADED_RTT_MS / 2, Config.STATS_DEGRADED_RTT_MS).
+                build();
+        audioBitrateController = new AudioBitrateController(statsScheduler.getCallStats(), law,
+                new AudioBitrateEvents() {
+                    @Override
+                    public void onAudioBitrateChanged(final int bitrateKbps, final boolean fec) {
+                        audioBitrateKbps = bitrateKbps;
+                        audioFec = fec;
+                        createSdpRewritersInternal();
+                        renegotiateInternal(false);
+                    }
+                });
+        statsScheduler.addSubscriber(audioBitrateController);
+    }
+
+    private void stopAudioBitrateControlInternal() {
+        if (audioBitrateController != null) {
+            statsScheduler.removeSubscriber(audioBitrateController);
+            audioBitrateController = null;
+        }
+        audioBitrateKbps = 0;
+    }
+
+    private void onIceLostInternal(PeerConnection.IceConnectionState iceConnectionState) {
+        final int gracePeriodMs = peerConnectionParameters.getIceRestartGracePeriodMs();
+
+        if (gracePeriodMs <= 0 || !iceConnectedReported) {
+            if (iceConnectionState == PeerConnection.IceConnectionState.FAILED) {
+                reportError(PeerConnectionUtilities.ICE_CONNECTION_FAILED);
+            } else {
+                events.onIceDisconnected();
+            }
+            return;
+        }
+
+        if (!iceRecovering) {
+            Log.d(LOG_TAG, "ICE lost, recovering for " + gracePeriodMs + "ms.");
+            iceRecovering = true;
+            iceRecoveryStartedMs = SystemClock.elapsedRealtime();
+            statsScheduler.onQualityDegraded();
+            IceRecoveryMetrics.getInstance().recordAttempt();
+            events.onIceReconnecting();
+
+            iceRecoveryTimeoutTask = executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (iceRecovering) {
+                        onIceRecoveryTimeoutInternal();
+                    }
+                }
+            }, gracePeriodMs);
+        }
+        restartIceInternal();
+    }
+
+    /**
+     * Restarts ICE after a network change without going through ICE recovery: the call may well
+     * stay connected over the old path until the restart completes.
+     */
+    private void onNetworkIceRestartInternal() {
+        if (peerConnection == null || isError) {
+            return;
+        }
+        if (isInitiator) {
+            restartIceInternal();
+        } else {
+            events.onIceRestartNeeded();
+        }
+    }
+
+    private void onIceRecoveredInternal() {
+        iceRecovering = false;
+        executor.cancel(iceRecoveryTimeoutTask);
+        iceRecoveryTimeoutTask = null;
+        IceRecoveryMetrics.getInstance().recordRecovered(SystemClock.elapsedRealtime() - iceRecoveryStartedMs);
+        events.onIceReconnected();
+    }
+
+    private void onIceRecoveryTimeoutInternal() {
+        iceRecovering = false;
+        PeerConnection.IceConnectionState state = peerConnection != null ? peerConnection.iceConnectionState() : null;
+        if (state == PeerConnection.IceConnectionState.CONNECTED ||
+                state == PeerConnection.IceConnectionState.COMPLETED) {
+            Log.d(LOG_TAG, "ICE stayed connected during recovery.");
+            onIceRecoveredInternal();
+            return;
+        }
+        IceRecoveryMetrics.getInstance().recordFailed(SystemClock.elapsedRealtime() - iceRecoveryStartedMs);
+        events.onIceDisconnected();
+    }
+
     public void addRemoteIceCandidate(final IceCandidate candidate) {
         executor.execute(new Runnable() {
             @Override
             public void run() {
                 if (peerConnection != null && !isError) {
+                    tracer.mark(traceCallId, TracePhase.FIRST_REMOTE_CANDIDATE);
                     if (queuedRemoteCandidates != null) {
                         queuedRemoteCandidates.add(candidate);
                     } else {
@@ -320,20 +738,16 @@ public class PeerConnectionClient {
                     return;
                 }
 
-                String sdpDescription = sdp.description;
-
-                if (preferIsac) {
-                    sdpDescription = preferCodec(sdpDescription, PeerConnectionUtilities.AUDIO_CODEC_ISAC, true);
+                if (sdp.type == SessionDescription.Type.OFFER && peerConnection.getRemoteDescription() != null) {
+                    Log.d(LOG_TAG, "Remote offer renegotiates the call.");
+                    queuedRemoteCandidates = new LinkedList<IceCandidate>();
                 }
 
-                if (peerConnectionParameters.getAudioStartBitrate() > 0) {
-                    sdpDescription = setStartBitrate(PeerConnectionUtilities.AUDIO_CODEC_OPUS,
-                            sdpDescription,
-                            peerConnectionParameters.getAudioStartBitrate());
-                }
+                String sdpDescription = remoteSdpRewriter.apply(sdp.description);
                 Log.d(LOG_TAG, "Set remote sdp.");
 
                 SessionDescription sdpRemote = new SessionDescription(sdp.type, sdpDescription);
+                tracer.begin(traceCallId, TracePhase.REMOTE_SDP_SET);
                 peerConnection.setRemoteDescription(sdpObserver, sdpRemote);
             }
         });
@@ -352,121 +766,6 @@ public class PeerConnectionClient {
         });
     }
 
-    private static String setStartBitrate(String codec, String sdpDescription, int bitrateKbps) {
-        String[] lines = sdpDescription.split("\r\n");
-        int rtpmapLineIndex = -1;
-        boolean sdpFormatUpdated = false;
-        String codecRtpMap = null;
-
-        String regex = "^a=rtpmap:(\\d+) " + codec + "(/\\d+)+[\r]?$";
-        Pattern codecPattern = Pattern.compile(regex);
-
-        for (int i = 0; i < lines.length; i++) {
-            Matcher codecMatcher = codecPattern.matcher(lines[i]);
-            if (codecMatcher.matches()) {
-                codecRtpMap = codecMatcher.group(1);
-                rtpmapLineIndex = i;
-                break;
-            }
-        }
-
-        if (codecRtpMap == null) {
-            Log.w(LOG_TAG, "No rtp map for " + codec + " codec");
-            return sdpDescription;
-        }
-
-        Log.d(LOG_TAG, "Found " + codec + " rtpmap" + codecRtpMap + " at" + lines[rtpmapLineIndex]);
-
-        regex = "^a=fmtp:" + codecRtpMap + " \\w+=\\d+.*[\r]?$]";
-        codecPattern = Pattern.compile(regex);
-
-        for (int i = 0; i < lines.length; i++) {
-            Matcher codecMatcher = codecPattern.matcher(lines[i]);
-            if (codecMatcher.matches()) {
-                Log.d(LOG_TAG, "Found " + codec + " " + lines[i]);
-                lines[i] += "; " + PeerConnectionUtilities.AUDIO_CODEC_PARAM_BITRATE + "=" + (bitrateKbps * 1000);
-            }
-            Log.d(LOG_TAG, "Update remote SDP line: " + lines[i]);
-            sdpFormatUpdated = true;
-            break;
-        }
-
-        StringBuilder newSdpDescription = new StringBuilder();
-
-        for (int i = 0; i < lines.length; i++) {
-            newSdpDescription.append(lines[i]).append("\r\n");
-            if (!sdpFormatUpdated && i == rtpmapLineIndex) {
-                String bitrateSet = "a=fmtp:" + codecRtpMap + " " +
-                        PeerConnectionUtilities.AUDIO_CODEC_PARAM_BITRATE + "=" + (bitrateKbps * 1000);
-                Log.d(LOG_TAG, "Add remote SDP line " + bitrateSet);
-                newSdpDescription.append(bitrateSet).append("\r\n");
-            }
-        }
-
-        return newSdpDescription.toString();
-    }
-
-    private static String preferCodec(String sdpDescription, String codec, boolean isAudio) {
-        String[] lines = sdpDescription.split("\r\n");
-        int lineIndex = -1;
-        String codecRtpMap = null;
-
-        String regex = "^a=rtpmap:(\\d+) " + codec + "(/\\d+)+[\r]?$";
-        Pattern codecPattern = Pattern.compile(regex);
-
-        String mediaDescription = "m=audio";
-
-        for (int i = 0; (i < lines.length) && (lineIndex == -1 || codecRtpMap == null); i++) {
-            if (lines[i].startsWith(mediaDescription)) {
-                lineIndex = i;
-                continue;
-            }
-            Matcher codecMatcher = codecPattern.matcher(lines[i]);
-            if (codecMatcher.matches()) {
-                codecRtpMap = codecMatcher.group(1);
-                continue;
-            }
-        }
-
-        if (lineIndex == -1) {
-            Log.w(LOG_TAG, "No " + mediaDescription + " line, so can not prefer " + codec);
-            return sdpDescription;
-        }
-        if (codecRtpMap == null) {
-            Log.w(LOG_TAG, "No rtpMap for " + codec);
-            return sdpDescription;
-        }
-        Log.d(LOG_TAG, "Found " + codec + " rtpmap " + codecRtpMap + " ,prefer at " + lines[lineIndex]);
-
-        String[] origMLineParts = lines[lineIndex].split(" ");
-        if (origMLineParts.length > 3) {
-            StringBuilder newLine = new StringBuilder();
-            int originPartIndex = 0;
-
-            newLine.append(origMLineParts[originPartIndex++]).append(" ");
-            newLine.append(origMLineParts[originPartIndex++]).append(" ");
-            newLine.append(origMLineParts[originPartIndex++]).append(" ");
-            newLine.append(codecRtpMap);
-
-            for (; originPartIndex < origMLineParts.length; originPartIndex++) {
-                if (!origMLineParts[originPartIndex].equals(codecRtpMap)) {
-                    newLine.append(" ").append(origMLineParts[originPartIndex]);
-                }
-            }
-            lines[lineIndex] = newLine.toString();
-            Log.d(LOG_TAG, "Change media description: " + lines[lineIndex]);
-        } else {
-            Log.d(LOG_TAG, "Wrong SDP media description format: " + lines[lineIndex]);
-        }
-
-        StringBuilder newSdpDescription = new StringBuilder();
-        for (String line : lines) {
-            newSdpDescription.append(line).append("\r\n");
-        }
-
-        return newSdpDescription.toString();
-    }
-
     private void drainCandidates() {
         if (queuedRemoteCandidates != null) {
             Log.d(LOG_TAG, "Add " + queuedRemoteCandidates.size() + " remotes candidates");
@@ -488,13 +787,31 @@ public class PeerConnectionClient {
             executor.execute(new Runnable() {
                 @Override
                 public void run() {
+                    if (pcObserver != PCObserver.this) {
+                        return;
+                    }
                     Log.d(LOG_TAG, "IceConnectionState: " + iceConnectionState);
-                    if (iceConnectionState == PeerConnection.IceConnectionState.CONNECTED) {
-                        events.onIceConnected();
-                    } else if (iceConnectionState == PeerConnection.IceConnectionState.DISCONNECTED) {
-                        events.onIceDisconnected();
-                    } else if (iceConnectionState == PeerConnection.IceConnectionState.FAILED) {
-                        reportError(PeerConnectionUtilities.ICE_CONNECTION_FAILED);
+                    if (iceConnectionState == PeerConnection.IceConnectionState.CONNECTED ||
+                            iceConnectionState == PeerConnection.IceConnectionState.COMPLETED) {
+                        if (iceRecovering) {
+                            onIceRecoveredInternal();
+                        } else if (!iceConnectedReported) {
+                            iceConnectedReported = true;
+                            networkRestarter.onIceConnected();
+                            tracer.end(traceCallId, TracePhase.ICE_CONNECT);
+                            tracer.end(traceCallId, TracePhase.CALL_SETUP);
+                            IcePolicyMetrics.getInstance().record(networkRestarter.getNetworkType(), peerConnectionParameters.getIcePolicy(),
+                                    SystemClock.elapsedRealtime() - peerConnectionCreatedMs);
+                            statsScheduler.onConnected();
+                            // Only the initiator renegotiates, a callee could not apply a new bitrate.
+                            if (peerConnectionParameters.isAdaptiveAudioBitrate() && isInitiator) {
+                                startAudioBitrateControlInternal();
+                            }
+                            events.onIceConnected();
+                        }
+                    } else if (iceConnectionState == PeerConnection.IceConnectionState.DISCONNECTED ||
+                            iceConnectionState == PeerConnection.IceConnectionState.FAILED) {
+                        onIceLostInternal(iceConnectionState);
                     }
                 }
             });
@@ -510,7 +827,15 @@ public class PeerConnectionClient {
             executor.execute(new Runnable() {
                 @Override
                 public void run() {
-                    events.onIceCandidate(iceCandidate);
+                    if (pcObserver != PCObserver.this) {
+                        return;
+                    }
+                    tracer.mark(traceCallId, TracePhase.FIRST_LOCAL_CANDIDATE);
+                    if (heldLocalCandidates != null) {
+                        heldLocalCandidates.add(iceCandidate);
+                    } else {
+                        events.onIceCandidate(iceCandidate);
+                    }
                 }
             });
         }
@@ -549,25 +874,28 @@ public class PeerConnectionClient {
 
     private class SDPObserver implements SdpObserver {
         @Override
-        public void onCreateSuccess(SessionDescription sessionDescription) {
-            if (localSdp != null) {
-                reportError("Multiple SDP create.");
-                return;
-            }
-
-            String sdpDescription = sessionDescription.description;
-            if (preferIsac) {
-                sdpDescription = preferCodec(sdpDescription, PeerConnectionUtilities.AUDIO_CODEC_ISAC, true);
-            }
-
-            final SessionDescription sdp = new SessionDescription(sessionDescription.type, sdpDescription);
-            localSdp = sdp;
-
+        public void onCreateSuccess(final SessionDescription sessionDescription) {
             executor.execute(new Runnable() {
                 @Override
                 public void run() {
+                    if (sdpObserver != SDPObserver.this) {
+                        return;
+                    }
+                    tracer.end(traceCallId, sessionDescription.type == SessionDescription.Type.OFFER ?
+                            TracePhase.CREATE_OFFER : TracePhase.CREATE_ANSWER);
+                    if (localSdp != null) {
+                        reportError("Multiple SDP create.");
+                        return;
+                    }
+
+                    String sdpDescription = localSdpRewriter.apply(sessionDescription.description);
+                    SessionDescription sdp = new SessionDescription(sessionDescription.type, sdpDescription);
+                    localSdp = sdp;
+
                     if (peerConnection != null && !isError) {
                         Log.d(LOG_TAG, "Set local sdp from " + sdp.type);
+                        localDescriptionPending = true;
+                        tracer.begin(traceCallId, TracePhase.LOCAL_SDP_SET);
                         peerConnection.setLocalDescription(sdpObserver, sdp);
                     }
                 }
@@ -579,25 +907,28 @@ public class PeerConnectionClient {
             executor.execute(new Runnable() {
                 @Override
                 public void run() {
-                    if (peerConnection == null || isError) {
+                    if (sdpObserver != SDPObserver.this || peerConnection == null || isError) {
                         return;
                     }
 
-                    if (isInitiator) {
-                        if (peerConnection.getRemoteDescription() == null) {
-                            Log.d(LOG_TAG, "Local sdp set successfully!");
-                            events.onLocalDescription(localSdp);
+                    if (localDescriptionPending) {
+                        localDescriptionPending = false;
+                        Log.d(LOG_TAG, "Local sdp set successfully!");
+                        tracer.end(traceCallId, TracePhase.LOCAL_SDP_SET);
+                        if (speculative) {
+                            localDescriptionHeld = true;
                         } else {
-                            Log.d(LOG_TAG, "Remote SDP set succussfully!");
+                            events.onLocalDescription(localSdp);
+                        }
+                        if (!isInitiator) {
                             drainCandidates();
                         }
                     } else {
-                        if (peerConnection.getLocalDescription() == null) {
-                            Log.d(LOG_TAG, "Local sdp set successfully!");
-                            events.onLocalDescription(localSdp);
+                        Log.d(LOG_TAG, "Remote SDP set succussfully!");
+                        tracer.end(traceCallId, TracePhase.REMOTE_SDP_SET);
+                        if (isInitiator) {
                             drainCandidates();
-                        } else {
-                            Log.d(LOG_TAG, "Remote SDP set succussfully!");
+                            onRenegotiationAnsweredInternal();
                         }
                     }
                 }
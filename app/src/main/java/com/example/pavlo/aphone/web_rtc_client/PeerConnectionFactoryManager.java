@@ -0,0 +1,95 @@
+package com.example.pavlo.aphone.web_rtc_client;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.webrtc.PeerConnectionFactory;
+
+/**
+ * Created by pavlo on 18.10.26.
+ *
+ * Owns the native globals and the PeerConnectionFactory, so they are created once and shared by
+ * all calls instead of being rebuilt on every connect. Not thread safe: every method must be
+ * called on the peer connection executor thread.
+ */
+public class PeerConnectionFactoryManager {
+
+    private static final String LOG_TAG = "Factory manager";
+
+    private PeerConnectionFactory factory;
+
+    private boolean globalsInitialized;
+    private int users;
+
+    private long lastInitDurationMs;
+
+    /**
+     * Initializes the native globals and creates the factory if it does not exist yet.
+     *
+     * @return false if the Android globals could not be initialized.
+     */
+    public boolean warmUp(Context context) {
+        long startMs = SystemClock.elapsedRealtime();
+
+        if (!globalsInitialized) {
+            if (!PeerConnectionFactory.initializeAndroidGlobals(context.getApplicationContext(),
+                    true, false, false, null)) {
+                Log.e(LOG_TAG, "Failed to initialize Android Globals");
+                return false;
+            }
+            globalsInitialized = true;
+        }
+
+        if (factory == null) {
+            factory = new PeerConnectionFactory();
+            lastInitDurationMs = SystemClock.elapsedRealtime() - startMs;
+            Log.d(LOG_TAG, "Peer connection factory created in " + lastInitDurationMs + "ms");
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the shared factory, or null if it can not be created. Every successful call must be
+     * paired with {@link #release()}.
+     */
+    public PeerConnectionFactory acquire(Context context) {
+        boolean warm = factory != null;
+        if (!warmUp(context)) {
+            return null;
+        }
+        users++;
+        Log.d(LOG_TAG, "Factory acquired, warm: " + warm + ", users: " + users);
+
+        return factory;
+    }
+
+    public void release() {
+        if (users > 0) {
+            users--;
+        }
+        Log.d(LOG_TAG, "Factory released, users: " + users);
+    }
+
+    /**
+     * Disposes the factory if no call is using it. Native globals stay initialized, they can not
+     * be released.
+     */
+    public void trimMemory() {
+        if (users > 0 || factory == null) {
+            return;
+        }
+        factory.dispose();
+        factory = null;
+        Log.d(LOG_TAG, "Peer connection factory disposed on memory pressure.");
+    }
+
+    public boolean isWarm() {
+        return factory != null;
+    }
+
+    public long getLastInitDurationMs() {
+        return lastInitDurationMs;
+    }
+}
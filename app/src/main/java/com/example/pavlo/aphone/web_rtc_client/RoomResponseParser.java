@@ -0,0 +1,391 @@
+package com.example.pavlo.aphone.web_rtc_client;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.Log;
+
+import org.webrtc.IceCandidate;
+import org.webrtc.PeerConnection;
+import org.webrtc.SessionDescription;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.LinkedList;
+
+/**
+ * Created by pavlo on 18.10.26.
+ *
+ * Single-pass decoder for the room join response. Values are read straight from the token stream
+ * into the fields below, without building JSONObject trees. The server sends {@code params},
+ * {@code messages} and {@code pc_config} either inline or as JSON encoded strings, and both
+ * forms are accepted. A successful response must carry {@code pc_config}, and a callee response
+ * must carry {@code messages}, the same fields the JSONObject based parser required.
+ */
+public class RoomResponseParser {
+
+    private static final String LOG_TAG = "Room response parser";
+
+    private static final int PARAMS = 0;
+    private static final int MESSAGES = 1;
+    private static final int MESSAGE = 2;
+    private static final int PC_CONFIG = 3;
+
+    private String result;
+    private String roomId;
+    private String clientId;
+    private String wssUrl;
+    private String wssPostUrl;
+    private String turnUrl;
+    private boolean initiator;
+    private boolean messagesPresent;
+    private boolean pcConfigPresent;
+    private boolean peerTagsMessages;
+
+    private SessionDescription offerSdp;
+    private final LinkedList<IceCandidate> iceCandidates = new LinkedList<IceCandidate>();
+    private final LinkedList<PeerConnection.IceServer> iceServers = new LinkedList<PeerConnection.IceServer>();
+
+    private RoomResponseParser() {
+
+    }
+
+    public static RoomResponseParser parse(String response) throws IOException {
+        RoomResponseParser parser = new RoomResponseParser();
+        JsonReader reader = new JsonReader(new StringReader(response));
+        try {
+            parser.readEnvelope(reader);
+        } catch (IllegalStateException e) {
+            throw new IOException("Unexpected JSON token: " + e.getMessage());
+        } catch (NumberFormatException e) {
+            throw new IOException("Wrong JSON number: " + e.getMessage());
+        } finally {
+            reader.close();
+        }
+
+        return parser;
+    }
+
+    public boolean isSuccess() {
+        return "SUCCESS".equals(result);
+    }
+
+    public String getResult() {
+        return result;
+    }
+
+    public String getRoomId() {
+        return roomId;
+    }
+
+    public String getClientId() {
+        return clientId;
+    }
+
+    public String getWssUrl() {
+        return wssUrl;
+    }
+
+    public String getWssPostUrl() {
+        return wssPostUrl;
+    }
+
+    public String getTurnUrl() {
+        return turnUrl;
+    }
+
+    public boolean isInitiator() {
+        return initiator;
+    }
+
+    public SessionDescription getOfferSdp() {
+        return initiator ? null : offerSdp;
+    }
+
+    public LinkedList<IceCandidate> getIceCandidates() {
+        return initiator ? null : iceCandidates;
+    }
+
+    /**
+     * @return true if a message of the initiator carries a {@link WebRtcChannelClient#MESSAGE_ID},
+     * i.e. the initiator runs this app and understands batched candidates.
+     */
+    public boolean isPeerSupportingCandidateBatches() {
+        return !initiator && peerTagsMessages;
+    }
+
+    public LinkedList<PeerConnection.IceServer> getIceServers() {
+        return iceServers;
+    }
+
+    private void readEnvelope(JsonReader reader) throws IOException {
+        boolean paramsPresent = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("result")) {
+                result = readString(reader);
+            } else if (name.equals("params") && reader.peek() != JsonToken.NULL) {
+                paramsPresent = true;
+                readEmbedded(reader, PARAMS);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (result == null) {
+            throw new IOException("No value for result");
+        }
+        if (isSuccess() && !paramsPresent) {
+            throw new IOException("No value for params");
+        }
+        if (isSuccess()) {
+            requireValue(roomId, "room_id");
+            requireValue(clientId, "client_id");
+            requireValue(wssUrl, "wss_url");
+            requireValue(wssPostUrl, "wss_post_url");
+            if (!pcConfigPresent) {
+                throw new IOException("No value for pc_config");
+            }
+            if (!initiator && !messagesPresent) {
+                throw new IOException("No value for messages");
+            }
+        }
+    }
+
+    private void readParams(JsonReader reader) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("room_id")) {
+                roomId = readString(reader);
+            } else if (name.equals("client_id")) {
+                clientId = readString(reader);
+            } else if (name.equals("wss_url")) {
+                wssUrl = readString(reader);
+            } else if (name.equals("wss_post_url")) {
+                wssPostUrl = readString(reader);
+            } else if (name.equals("turn_url")) {
+                turnUrl = readString(reader);
+            } else if (name.equals("is_initiator")) {
+                initiator = readBoolean(reader);
+            } else if (name.equals("messages") && reader.peek() != JsonToken.NULL) {
+                messagesPresent = true;
+                readEmbedded(reader, MESSAGES);
+            } else if (name.equals("pc_config") && reader.peek() != JsonToken.NULL) {
+                pcConfigPresent = true;
+                readEmbedded(reader, PC_CONFIG);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private void readMessages(JsonReader reader) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            readEmbedded(reader, MESSAGE);
+        }
+        reader.endArray();
+    }
+
+    private void readMessage(JsonReader reader) throws IOException {
+        String type = null;
+        String sdp = null;
+        String id = null;
+        String candidate = null;
+        int label = -1;
+        LinkedList<IceCandidate> batch = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("type")) {
+                type = readString(reader);
+            } else if (name.equals("sdp")) {
+                sdp = readString(reader);
+            } else if (name.equals("id")) {
+                id = readString(reader);
+            } else if (name.equals("label")) {
+                label = reader.nextInt();
+            } else if (name.equals("candidate")) {
+                candidate = readString(reader);
+            } else if (name.equals(IceCandidateBatcher.TYPE_CANDIDATES)) {
+                batch = readCandidates(reader);
+            } else if (name.equals(WebRtcChannelClient.MESSAGE_ID)) {
+                peerTagsMessages = true;
+                reader.skipValue();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if ("offer".equals(type)) {
+            requireValue(sdp, "sdp");
+            offerSdp = new SessionDescription(SessionDescription.Type.fromCanonicalForm(type), sdp);
+        } else if (IceCandidateBatcher.TYPE_CANDIDATE.equals(type)) {
+            iceCandidates.add(buildCandidate(id, label, candidate));
+        } else if (IceCandidateBatcher.TYPE_CANDIDATES.equals(type)) {
+            if (batch == null) {
+                throw new IOException("No value for " + IceCandidateBatcher.TYPE_CANDIDATES);
+            }
+            iceCandidates.addAll(batch);
+        } else {
+            Log.d(LOG_TAG, "Unknown message: " + type);
+        }
+    }
+
+    private LinkedList<IceCandidate> readCandidates(JsonReader reader) throws IOException {
+        LinkedList<IceCandidate> candidates = new LinkedList<IceCandidate>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String id = null;
+            String candidate = null;
+            int label = -1;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals("id")) {
+                    id = readString(reader);
+                } else if (name.equals("label")) {
+                    label = reader.nextInt();
+                } else if (name.equals("candidate")) {
+                    candidate = readString(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            candidates.add(buildCandidate(id, label, candidate));
+        }
+        reader.endArray();
+
+        return candidates;
+    }
+
+    private void readPcConfig(JsonReader reader) throws IOException {
+        boolean serversPresent = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("iceServers")) {
+                serversPresent = true;
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    readIceServer(reader);
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (!serversPresent) {
+            throw new IOException("No value for iceServers");
+        }
+    }
+
+    private void readIceServer(JsonReader reader) throws IOException {
+        LinkedList<String> urls = new LinkedList<String>();
+        String credential = "";
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("urls")) {
+                if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        urls.add(reader.nextString());
+                    }
+                    reader.endArray();
+                } else {
+                    urls.add(reader.nextString());
+                }
+            } else if (name.equals("credential")) {
+                credential = readString(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (urls.isEmpty()) {
+            throw new IOException("No value for urls");
+        }
+        for (String url : urls) {
+            iceServers.add(new PeerConnection.IceServer(url, "", credential == null ? "" : credential));
+        }
+    }
+
+    /**
+     * Reads a value that is either inline or a string holding JSON, e.g. {@code "params": "{...}"}.
+     */
+    private void readEmbedded(JsonReader reader, int section) throws IOException {
+        if (reader.peek() != JsonToken.STRING) {
+            readSection(reader, section);
+            return;
+        }
+        JsonReader embeddedReader = new JsonReader(new StringReader(reader.nextString()));
+        try {
+            readSection(embeddedReader, section);
+        } finally {
+            embeddedReader.close();
+        }
+    }
+
+    private void readSection(JsonReader reader, int section) throws IOException {
+        switch (section) {
+            case PARAMS:
+                readParams(reader);
+                break;
+            case MESSAGES:
+                readMessages(reader);
+                break;
+            case MESSAGE:
+                readMessage(reader);
+                break;
+            case PC_CONFIG:
+                readPcConfig(reader);
+                break;
+        }
+    }
+
+    private static IceCandidate buildCandidate(String id, int label, String candidate) throws IOException {
+        requireValue(id, "id");
+        requireValue(candidate, "candidate");
+        if (label < 0) {
+            throw new IOException("No value for label");
+        }
+
+        return new IceCandidate(id, label, candidate);
+    }
+
+    private static String readString(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+
+        return reader.nextString();
+    }
+
+    private static boolean readBoolean(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.BOOLEAN) {
+            return reader.nextBoolean();
+        }
+
+        return Boolean.parseBoolean(readString(reader));
+    }
+
+    private static void requireValue(String value, String name) throws IOException {
+        if (value == null) {
+            throw new IOException("No value for " + name);
+        }
+    }
+}
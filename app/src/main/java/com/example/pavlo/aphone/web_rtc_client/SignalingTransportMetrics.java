@@ -0,0 +1,77 @@
+package com.example.pavlo.aphone.web_rtc_client;
+
+import com.example.pavlo.aphone.executor.LatencyHistogram;
+
+/**
+ * Created by pavlo on 18.10.26.
+ *
+ * Signaling latency of the call initiator. The offer to answer round trip is kept per transport
+ * the offer went over and is the number to compare them by. The WebSocket has no
+ * acknowledgements, so only POST has a request latency of its own: the time until the server
+ * answered the request.
+ */
+public class SignalingTransportMetrics {
+
+    private static final SignalingTransportMetrics instance = new SignalingTransportMetrics();
+
+    private final LatencyHistogram[] answerRoundTrips =
+            new LatencyHistogram[SignalingTransportSelector.Transport.values().length];
+    private final LatencyHistogram postLatency = new LatencyHistogram();
+    private final int[] failures = new int[SignalingTransportSelector.Transport.values().length];
+
+    private int fallbacks;
+
+    private SignalingTransportMetrics() {
+        for (int i = 0; i < answerRoundTrips.length; i++) {
+            answerRoundTrips[i] = new LatencyHistogram();
+        }
+    }
+
+    public static SignalingTransportMetrics getInstance() {
+        return instance;
+    }
+
+    public synchronized void recordAnswerRoundTrip(SignalingTransportSelector.Transport transport, long latencyMicros) {
+        answerRoundTrips[transport.ordinal()].record(latencyMicros);
+    }
+
+    public synchronized void recordPostLatency(long latencyMicros) {
+        postLatency.record(latencyMicros);
+    }
+
+    public synchronized void recordFailure(SignalingTransportSelector.Transport transport) {
+        failures[transport.ordinal()]++;
+    }
+
+    public synchronized void recordFallback() {
+        fallbacks++;
+    }
+
+    public synchronized LatencyHistogram getAnswerRoundTrip(SignalingTransportSelector.Transport transport) {
+        return answerRoundTrips[transport.ordinal()].copy();
+    }
+
+    public synchronized LatencyHistogram getPostLatency() {
+        return postLatency.copy();
+    }
+
+    public synchronized int getFailures(SignalingTransportSelector.Transport transport) {
+        return failures[transport.ordinal()];
+    }
+
+    public synchronized int getFallbacks() {
+        return fallbacks;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (SignalingTransportSelector.Transport transport : SignalingTransportSelector.Transport.values()) {
+            builder.append(transport).append(" offer-answer: ").append(answerRoundTrips[transport.ordinal()]).
+                    append(", failures=").append(failures[transport.ordinal()]).append("; ");
+        }
+        builder.append("POST request: ").append(postLatency).append("; fallbacks=").append(fallbacks);
+
+        return builder.toString();
+    }
+}
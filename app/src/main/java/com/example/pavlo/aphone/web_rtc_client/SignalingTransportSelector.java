@@ -0,0 +1,139 @@
+package com.example.pavlo.aphone.web_rtc_client;
+
+import android.util.Log;
+
+import com.example.pavlo.aphone.util.Config;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Created by pavlo on 18.10.26.
+ *
+ * Picks the transport for signaling messages of the call initiator. Once the WebSocket is
+ * registered they go over it instead of one HTTP POST each. The WebSocket has no
+ * acknowledgements, so messages sent over it are kept until they are known to have arrived: the
+ * latest offer until its answer comes back, and up to {@link Config#WEBSOCKET_REPLAY_BUFFER_SIZE}
+ * candidate messages, which nothing acknowledges. The offer is kept apart from the candidates so
+ * they can never push it out. If the WebSocket fails for good, the call falls back to POST and
+ * the kept messages are returned for resending.
+ * <p>
+ * The server announces no support for initiator messages over the WebSocket, so
+ * {@link Config#SIGNALING_INITIATOR_OVER_WEBSOCKET} only lets the initiator try it. A server that
+ * does not relay them answers with an error message, which the client takes as a rejection once
+ * {@link #hasSentOverWebSocket()} and handles like a failed WebSocket, before or after the answer.
+ * Must be used on the signaling executor thread only.
+ */
+public class SignalingTransportSelector {
+
+    private static final String LOG_TAG = "Signaling transport";
+
+    public enum Transport {
+        WEBSOCKET, HTTP_POST
+    }
+
+    private final LinkedList<String> unacknowledgedCandidates = new LinkedList<>();
+
+    private String unacknowledgedOffer;
+    private long offerSentNanos;
+    private Transport offerTransport;
+    private boolean offerAnswered;
+    private boolean webSocketFailed;
+    private boolean sentOverWebSocket;
+
+    public Transport select(boolean initiator, WebRtcChannelClient.WebSocketConnectionState state) {
+        if (!initiator) {
+            return Transport.WEBSOCKET;
+        }
+        if (Config.SIGNALING_INITIATOR_OVER_WEBSOCKET && !webSocketFailed &&
+                state == WebRtcChannelClient.WebSocketConnectionState.REGISTERED) {
+            return Transport.WEBSOCKET;
+        }
+
+        return Transport.HTTP_POST;
+    }
+
+    /**
+     * @param offer true for an offer SDP, false for candidates.
+     */
+    public void onSent(String message, boolean offer, Transport transport) {
+        if (transport == Transport.WEBSOCKET) {
+            sentOverWebSocket = true;
+        }
+        if (offer) {
+            offerSentNanos = System.nanoTime();
+            offerTransport = transport;
+            offerAnswered = false;
+            unacknowledgedOffer = transport == Transport.WEBSOCKET ? message : null;
+            return;
+        }
+        if (transport != Transport.WEBSOCKET) {
+            return;
+        }
+        unacknowledgedCandidates.add(message);
+        if (unacknowledgedCandidates.size() > Config.WEBSOCKET_REPLAY_BUFFER_SIZE) {
+            unacknowledgedCandidates.removeFirst();
+        }
+    }
+
+    /**
+     * Acknowledges the latest offer and records its offer to answer round trip.
+     */
+    public void onAnswerReceived() {
+        if (offerTransport == null) {
+            return;
+        }
+        SignalingTransportMetrics.getInstance().recordAnswerRoundTrip(offerTransport,
+                (System.nanoTime() - offerSentNanos) / 1000);
+        offerTransport = null;
+        offerAnswered = true;
+        unacknowledgedOffer = null;
+    }
+
+    /**
+     * @return true if the latest offer was answered, so the call can go on without receiving over
+     * the WebSocket.
+     */
+    public boolean isOfferAnswered() {
+        return offerAnswered;
+    }
+
+    /**
+     * @return true if an initiator message went over the WebSocket since the last fallback, so an
+     * error message from the server may be its rejection.
+     */
+    public boolean hasSentOverWebSocket() {
+        return sentOverWebSocket;
+    }
+
+    /**
+     * Switches to POST for the rest of the call after the WebSocket failed.
+     *
+     * @return messages sent over the WebSocket and not acknowledged, the offer first.
+     */
+    public List<String> onWebSocketFailed() {
+        webSocketFailed = true;
+        sentOverWebSocket = false;
+        List<String> messages = new ArrayList<>(unacknowledgedCandidates.size() + 1);
+        if (unacknowledgedOffer != null) {
+            messages.add(unacknowledgedOffer);
+        }
+        messages.addAll(unacknowledgedCandidates);
+        unacknowledgedOffer = null;
+        unacknowledgedCandidates.clear();
+        Log.w(LOG_TAG, "WebSocket failed, falling back to POST. Resending " + messages.size() + " messages.");
+        SignalingTransportMetrics.getInstance().recordFallback();
+
+        return messages;
+    }
+
+    public void reset() {
+        unacknowledgedOffer = null;
+        unacknowledgedCandidates.clear();
+        offerTransport = null;
+        offerAnswered = false;
+        webSocketFailed = false;
+        sentOverWebSocket = false;
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.pavlo.aphone.web_rtc_client;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.example.pavlo.aphone.util.Config;
+
+/**
+ * Created by pavlo on 18.10.26.
+ *
+ * WebSocket URLs returned by the last room join, persisted to app-private preferences so the next
+ * call can open the WebSocket while its join request is in flight. Falls back to
+ * {@link Config#DEFAULT_WSS_URL} before the first join.
+ */
+public class SignalingUrlCache {
+
+    private static final String LOG_TAG = "Signaling url cache";
+
+    private static final String PREFERENCES_NAME = "signaling_url_cache";
+    private static final String KEY_WSS_URL = "wss_url";
+    private static final String KEY_WSS_POST_URL = "wss_post_url";
+
+    private static final SignalingUrlCache instance = new SignalingUrlCache();
+
+    private Context context;
+    private boolean loaded;
+
+    private String wssUrl = Config.DEFAULT_WSS_URL;
+    private String wssPostUrl = Config.DEFAULT_WSS_POST_URL;
+
+    private SignalingUrlCache() {
+
+    }
+
+    public static SignalingUrlCache getInstance() {
+        return instance;
+    }
+
+    public synchronized void setContext(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    public synchronized String getWssUrl() {
+        load();
+        return wssUrl;
+    }
+
+    public synchronized String getWssPostUrl() {
+        load();
+        return wssPostUrl;
+    }
+
+    public synchronized void update(String wssUrl, String wssPostUrl) {
+        load();
+        if (wssUrl == null || wssPostUrl == null ||
+                (wssUrl.equals(this.wssUrl) && wssPostUrl.equals(this.wssPostUrl))) {
+            return;
+        }
+        Log.d(LOG_TAG, "WebSocket URL changed: " + this.wssUrl + " -> " + wssUrl);
+        this.wssUrl = wssUrl;
+        this.wssPostUrl = wssPostUrl;
+        if (context != null) {
+            getPreferences().edit().
+                    putString(KEY_WSS_URL, wssUrl).
+                    putString(KEY_WSS_POST_URL, wssPostUrl).
+                    apply();
+        }
+    }
+
+    private void load() {
+        if (loaded || context == null) {
+            return;
+        }
+        loaded = true;
+        SharedPreferences preferences = getPreferences();
+        wssUrl = preferences.getString(KEY_WSS_URL, wssUrl);
+        wssPostUrl = preferences.getString(KEY_WSS_POST_URL, wssPostUrl);
+    }
+
+    private SharedPreferences getPreferences() {
+        return context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.pavlo.aphone.web_rtc_client;
+
+import android.util.Log;
+
+/**
+ * Created by pavlo on 18.10.26.
+ *
+ * Hangup-to-idle time of the signaling channel: from the disconnect request until the WebSocket
+ * reported its close or the close timed out.
+ */
+public class TeardownMetrics {
+
+    private static final String LOG_TAG = "Teardown metrics";
+
+    private static final TeardownMetrics instance = new TeardownMetrics();
+
+    private int teardowns;
+    private int timeouts;
+
+    private long totalHangupToIdleMs;
+    private long maxHangupToIdleMs;
+
+    private TeardownMetrics() {
+
+    }
+
+    public static TeardownMetrics getInstance() {
+        return instance;
+    }
+
+    public synchronized void record(long hangupToIdleMs, boolean timedOut) {
+        teardowns++;
+        if (timedOut) {
+            timeouts++;
+        }
+        totalHangupToIdleMs += hangupToIdleMs;
+        maxHangupToIdleMs = Math.max(maxHangupToIdleMs, hangupToIdleMs);
+        Log.d(LOG_TAG, "Hangup to idle in " + hangupToIdleMs + "ms, timed out: " + timedOut + ". " + this);
+    }
+
+    public synchronized int getTeardowns() {
+        return teardowns;
+    }
+
+    public synchronized int getTimeouts() {
+        return timeouts;
+    }
+
+    public synchronized long getAverageHangupToIdleMs() {
+        return teardowns == 0 ? 0 : totalHangupToIdleMs / teardowns;
+    }
+
+    public synchronized long getMaxHangupToIdleMs() {
+        return maxHangupToIdleMs;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "teardowns=" + teardowns + ", timeouts=" + timeouts +
+                ", avgHangupToIdle=" + getAverageHangupToIdleMs() + "ms, maxHangupToIdle=" + maxHangupToIdleMs + "ms";
+    }
+}
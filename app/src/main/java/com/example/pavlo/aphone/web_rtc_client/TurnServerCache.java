@@ -0,0 +1,235 @@
+package com.example.pavlo.aphone.web_rtc_client;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.example.pavlo.aphone.http_url_connection.AsyncHttpUrlConnection;
+import com.example.pavlo.aphone.interfaces.AsyncHttpEvents;
+import com.example.pavlo.aphone.interfaces.TurnServerEvents;
+import com.example.pavlo.aphone.util.Config;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.webrtc.PeerConnection;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Created by pavlo on 18.10.26.
+ *
+ * TURN credentials are valid for the TTL returned by the TURN endpoint, so they are kept here
+ * across calls and persisted to app-private preferences. The endpoint URL from the last join is
+ * remembered too, which lets the next call fetch credentials while the join request is in flight.
+ * Credentials are not tied to the endpoint URL, so fresh ones are used even if the URL changed.
+ */
+public class TurnServerCache {
+
+    private static final String LOG_TAG = "Turn server cache";
+
+    private static final String PREFERENCES_NAME = "turn_server_cache";
+    private static final String KEY_URL = "url";
+    private static final String KEY_RESPONSE = "response";
+    private static final String KEY_EXPIRES_AT = "expires_at";
+
+    private static final TurnServerCache instance = new TurnServerCache();
+
+    private final Object lock = new Object();
+
+    private Context context;
+    private boolean loaded;
+
+    private String lastUrl;
+    private String cachedResponse;
+    private long expiresAtMs;
+
+    private boolean requestInFlight;
+    private final List<TurnServerEvents> pendingEvents = new ArrayList<>();
+
+    private TurnServerCache() {
+
+    }
+
+    public static TurnServerCache getInstance() {
+        return instance;
+    }
+
+    public void setContext(Context context) {
+        synchronized (lock) {
+            this.context = context.getApplicationContext();
+        }
+    }
+
+    /**
+     * Starts fetching credentials from the last known TURN endpoint unless fresh ones are cached.
+     */
+    public void prefetch() {
+        String url;
+        synchronized (lock) {
+            loadLocked();
+            url = lastUrl;
+        }
+        if (url != null) {
+            prefetch(url);
+        }
+    }
+
+    public void prefetch(final String url) {
+        synchronized (lock) {
+            loadLocked();
+            if (isFreshLocked() || requestInFlight) {
+                return;
+            }
+            requestInFlight = true;
+        }
+        Log.d(LOG_TAG, "Request TURN from: " + url);
+
+        AsyncHttpUrlConnection httpUrlConnection = new AsyncHttpUrlConnection("GET", url, null,
+                new AsyncHttpEvents() {
+            @Override
+            public void onHttpError(String errorMessage) {
+                Log.e(LOG_TAG, "TURN request error: " + errorMessage);
+                onTurnRequestFailed("TURN request to " + url + " failed: " + errorMessage);
+            }
+
+            @Override
+            public void onHttpComplete(String response) {
+                onTurnResponse(url, response);
+            }
+        });
+        httpUrlConnection.setTimeoutMs(Config.TURN_HTTP_TIMEOUT_MS);
+        httpUrlConnection.setSignalingHeaders(false);
+        httpUrlConnection.send();
+    }
+
+    /**
+     * Delivers cached credentials right away, or once the request in flight, or a new request to
+     * {@code url} if nothing usable is cached, completes. Never blocks: {@code events} is called
+     * on the calling thread or on an HTTP dispatcher thread.
+     */
+    public void getTurnServers(String url, TurnServerEvents events) {
+        String response = null;
+        synchronized (lock) {
+            loadLocked();
+            if (isFreshLocked()) {
+                response = cachedResponse;
+            } else {
+                pendingEvents.add(events);
+            }
+        }
+
+        if (response != null) {
+            deliver(events, response);
+        } else {
+            prefetch(url);
+        }
+    }
+    public void clear() {
+        synchronized (lock) {
+            cachedResponse = null;
+            expiresAtMs = 0;
+            if (context != null) {
+                getPreferences().edit().remove(KEY_RESPONSE).remove(KEY_EXPIRES_AT).apply();
+            }
+        }
+    }
+
+    private void onTurnResponse(String url, String response) {
+        Log.d(LOG_TAG, "TURN response: " + response);
+        try {
+            JSONObject responseJson = new JSONObject(response);
+            long ttlMs = responseJson.has("ttl") ?
+                    responseJson.getLong("ttl") * 1000 : Config.TURN_CACHE_DEFAULT_TTL_MS;
+            parseTurnServers(response);
+
+            List<TurnServerEvents> waiting;
+            synchronized (lock) {
+                lastUrl = url;
+                cachedResponse = response;
+                expiresAtMs = System.currentTimeMillis() + ttlMs - Config.TURN_CACHE_EXPIRY_MARGIN_MS;
+                requestInFlight = false;
+                if (context != null) {
+                    getPreferences().edit().
+                            putString(KEY_URL, lastUrl).
+                            putString(KEY_RESPONSE, cachedResponse).
+                            putLong(KEY_EXPIRES_AT, expiresAtMs).
+                            apply();
+                }
+                waiting = takePendingEventsLocked();
+            }
+            for (TurnServerEvents events : waiting) {
+                deliver(events, response);
+            }
+        } catch (JSONException e) {
+            onTurnRequestFailed("TURN response JSON error: " + e.getMessage());
+        }
+    }
+
+    private void onTurnRequestFailed(String description) {
+        List<TurnServerEvents> waiting;
+        synchronized (lock) {
+            requestInFlight = false;
+            waiting = takePendingEventsLocked();
+        }
+        for (TurnServerEvents events : waiting) {
+            events.onTurnServersError(description);
+        }
+    }
+
+    private List<TurnServerEvents> takePendingEventsLocked() {
+        List<TurnServerEvents> waiting = new ArrayList<>(pendingEvents);
+        pendingEvents.clear();
+
+        return waiting;
+    }
+
+    private static void deliver(TurnServerEvents events, String response) {
+        LinkedList<PeerConnection.IceServer> turnServers;
+        try {
+            turnServers = parseTurnServers(response);
+        } catch (JSONException e) {
+            events.onTurnServersError("TURN response JSON error: " + e.getMessage());
+            return;
+        }
+        events.onTurnServersReady(turnServers);
+    }
+
+    private boolean isFreshLocked() {
+        return cachedResponse != null && System.currentTimeMillis() < expiresAtMs;
+    }
+
+    private void loadLocked() {
+        if (loaded || context == null) {
+            return;
+        }
+        loaded = true;
+        SharedPreferences preferences = getPreferences();
+        lastUrl = preferences.getString(KEY_URL, null);
+        cachedResponse = preferences.getString(KEY_RESPONSE, null);
+        expiresAtMs = preferences.getLong(KEY_EXPIRES_AT, 0);
+        Log.d(LOG_TAG, "Loaded TURN cache. Fresh: " + isFreshLocked());
+    }
+
+    private SharedPreferences getPreferences() {
+        return context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    private static LinkedList<PeerConnection.IceServer> parseTurnServers(String response) throws JSONException {
+        LinkedList<PeerConnection.IceServer> turnServers = new LinkedList<PeerConnection.IceServer>();
+
+        JSONObject responseJson = new JSONObject(response);
+        String username = responseJson.getString("username");
+        String password = responseJson.getString("password");
+        JSONArray turnUris = responseJson.getJSONArray("uris");
+
+        for (int i = 0; i < turnUris.length(); i++) {
+            String uri = turnUris.getString(i);
+            turnServers.add(new PeerConnection.IceServer(uri, username, password));
+        }
+
+        return turnServers;
+    }
+}
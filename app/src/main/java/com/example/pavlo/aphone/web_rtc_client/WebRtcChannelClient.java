@@ -1,18 +1,30 @@
 package com.example.pavlo.aphone.web_rtc_client;
 
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.example.pavlo.aphone.executor.LooperExecutor;
+import com.example.pavlo.aphone.executor.ScheduledTask;
 import com.example.pavlo.aphone.http_url_connection.AsyncHttpUrlConnection;
 import com.example.pavlo.aphone.interfaces.AsyncHttpEvents;
+import com.example.pavlo.aphone.interfaces.WebSocketCloseEvents;
 import com.example.pavlo.aphone.interfaces.WebSocketChannelEvents;
+import com.example.pavlo.aphone.interfaces.WebSocketFactory;
+import com.example.pavlo.aphone.tracing.CallTracer;
+import com.example.pavlo.aphone.tracing.TracePhase;
+import com.example.pavlo.aphone.util.Config;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
 
 import de.tavendo.autobahn.WebSocket;
 import de.tavendo.autobahn.WebSocketConnection;
@@ -20,16 +32,34 @@ import de.tavendo.autobahn.WebSocketException;
 
 /**
  * Created by pavlo on 22.06.16.
+ *
+ * A socket lost without {@link #disconnect} is reopened with jittered exponential backoff and
+ * registered again with the same room and client ID. The apprtc WebSocket protocol has no
+ * acknowledgements, so messages sent within {@link Config#WEBSOCKET_REPLAY_WINDOW_MS} before the
+ * loss was reported are replayed together with the ones sent while reconnecting. The queue for
+ * the latter drops old candidates when full, but never an SDP or bye. Every sent message
+ * carries a {@link #MESSAGE_ID} unique to this sender, which the receiver uses to drop the
+ * replayed copies it already got, see {@link #isReplayedMessage}.
  */
 public class WebRtcChannelClient {
 
     private static final String LOG_TAG = "Web socket channel RTC client ";
 
-    private final Object closeEventLoock = new Object();
+    public static final String MESSAGE_ID = "mid";
+
+    private static final WebSocketFactory AUTOBAHN_FACTORY = new WebSocketFactory() {
+        @Override
+        public WebSocket createWebSocket() {
+            return new WebSocketConnection();
+        }
+    };
+
     private final LooperExecutor executor;
+    private final WebSocketFactory webSocketFactory;
+    private final String traceCallId = CallTracer.getInstance().getCurrentCallId();
 
     private WebSocketChannelEvents events;
-    private WebSocketConnection webSocketConnection;
+    private WebSocket webSocketConnection;
     private WebSocketObserver webSocketObserver;
 
     private String webSocketServerUrl;
@@ -39,16 +69,38 @@ public class WebRtcChannelClient {
 
     private WebSocketConnectionState state;
 
-    private boolean closeEvent;
+    private WebSocketCloseEvents closeEvents;
+    private ScheduledTask closeTimeoutTask;
+
+    private ScheduledTask reconnectTask;
+    private int reconnectAttempts;
+    private int reconnects;
+    private final Random random = new Random();
 
     private final LinkedList<String> webSocketSendQueue;
+    private final LinkedList<SentMessage> sentMessages = new LinkedList<>();
+    private final LinkedHashSet<String> receivedMessageIds = new LinkedHashSet<>();
+    private final String messageIdPrefix = Long.toHexString(random.nextLong()) + "-";
+    private int nextMessageId;
+    private boolean socketActive;
+    private long socketLostAtMs;
 
     public enum WebSocketConnectionState {
-        NEW, CONNECTED, REGISTERED, CLOSED, ERROR
+        NEW, CONNECTED, REGISTERED, RECONNECTING, CLOSED, ERROR
     };
 
     public WebRtcChannelClient(LooperExecutor executor, WebSocketChannelEvents events) {
+        this(executor, events, AUTOBAHN_FACTORY);
+    }
+
+    /**
+     * @param webSocketFactory creates the socket for every connect and reconnect, tests pass a
+     * fake instead of the autobahn connection.
+     */
+    public WebRtcChannelClient(LooperExecutor executor, WebSocketChannelEvents events,
+                               WebSocketFactory webSocketFactory) {
         this.executor = executor;
+        this.webSocketFactory = webSocketFactory;
         this.events = events;
         roomId = null;
         clientId = null;
@@ -60,6 +112,19 @@ public class WebRtcChannelClient {
         return state;
     }
 
+    public String getWebSocketServerUrl() {
+        return webSocketServerUrl;
+    }
+
+    /**
+     * Replaces the URL used for the DELETE on disconnect, for a socket opened before the room
+     * join returned it.
+     */
+    public void setPostUrl(String postUrl) {
+        checkIfCalledOnValidThread();
+        postServerUrl = postUrl;
+    }
+
     public void connect(final String webSocketUrl, final String postUrl) {
         checkIfCalledOnValidThread();
         if (state != WebSocketConnectionState.NEW) {
@@ -69,18 +134,25 @@ public class WebRtcChannelClient {
 
         webSocketServerUrl = webSocketUrl;
         postServerUrl = postUrl;
-        closeEvent = false;
 
         Log.d(LOG_TAG, "Connecting WebSocket to: " + webSocketServerUrl + ". Post URL: " + postUrl);
 
-        webSocketConnection = new WebSocketConnection();
+        CallTracer.getInstance().begin(traceCallId, TracePhase.WEBSOCKET_OPEN);
+        openSocket();
+    }
+
+    private void openSocket() {
+        webSocketConnection = webSocketFactory.createWebSocket();
         webSocketObserver = new WebSocketObserver();
+        socketActive = true;
 
         try {
             webSocketConnection.connect(new URI(webSocketServerUrl), webSocketObserver);
         } catch (URISyntaxException e) {
+            socketActive = false;
             reportError("URI error: " + e.getMessage());
         } catch (WebSocketException e) {
+            socketActive = false;
             reportError("WebSocket connection error: " + e.getMessage());
         }
     }
@@ -89,6 +161,7 @@ public class WebRtcChannelClient {
         checkIfCalledOnValidThread();
         this.roomId = roomId;
         this.clientId = clientId;
+        CallTracer.getInstance().begin(traceCallId, TracePhase.WEBSOCKET_REGISTER);
         if (state != WebSocketConnectionState.CONNECTED) {
             Log.w(LOG_TAG, "WebSocket register() in state " + state);
             return;
@@ -104,7 +177,9 @@ public class WebRtcChannelClient {
             webSocketConnection.sendTextMessage(json.toString());
 
             state = WebSocketConnectionState.REGISTERED;
+            CallTracer.getInstance().end(traceCallId, TracePhase.WEBSOCKET_REGISTER);
 
+            replaySentMessages();
             for (String message : webSocketSendQueue) {
                 send(message);
             }
@@ -116,10 +191,16 @@ public class WebRtcChannelClient {
 
     public void send(String message) {
         checkIfCalledOnValidThread();
+        message = tagMessage(message);
         switch (state) {
             case NEW:
             case CONNECTED:
+            case RECONNECTING:
                 Log.d(LOG_TAG, "WS ACC: " + message);
+                if (webSocketSendQueue.size() >= Config.WEBSOCKET_REPLAY_BUFFER_SIZE && !dropQueuedCandidate()) {
+                    reportError("WebSocket send queue full of session messages, dropping: " + message);
+                    return;
+                }
                 webSocketSendQueue.add(message);
                 return;
             case ERROR:
@@ -131,9 +212,9 @@ public class WebRtcChannelClient {
                 try {
                     json.put("cmd", "send");
                     json.put("msg", message);
-                    message = json.toString();
-                    Log.d(LOG_TAG, "C->WSS: " + message);
-                    webSocketConnection.sendTextMessage(message);
+                    rememberSentMessage(message);
+                    Log.d(LOG_TAG, "C->WSS: " + json.toString());
+                    webSocketConnection.sendTextMessage(json.toString());
                 } catch (JSONException e) {
                     reportError("WebSocket send JSON error: " + e.getMessage());
                 }
@@ -147,33 +228,195 @@ public class WebRtcChannelClient {
         sendWSSMessage("POST", message);
     }
 
-    public void disconnect(boolean waitForComplete) {
+    /**
+     * @return true if {@code message}, a received signaling message, carries a
+     * {@link #MESSAGE_ID} seen before, i.e. it is a copy the sender replayed after a reconnect.
+     */
+    public boolean isReplayedMessage(JSONObject message) {
+        checkIfCalledOnValidThread();
+        String messageId = message.optString(MESSAGE_ID);
+        if (messageId.length() == 0) {
+            return false;
+        }
+        if (!receivedMessageIds.add(messageId)) {
+            return true;
+        }
+        if (receivedMessageIds.size() > Config.WEBSOCKET_DEDUP_HISTORY_SIZE) {
+            Iterator<String> oldest = receivedMessageIds.iterator();
+            oldest.next();
+            oldest.remove();
+        }
+
+        return false;
+    }
+
+    /**
+     * Sends bye, deletes the registration and starts closing the socket without waiting for it.
+     * {@code closeEvents} is called on the executor thread when autobahn reports the close, or
+     * after {@link Config#WEBSOCKET_CLOSE_TIMEOUT_MS} if it never does. Without an open or opening
+     * socket, e.g. while waiting to reconnect, it is called right away.
+     */
+    public void disconnect(final WebSocketCloseEvents closeEvents) {
         checkIfCalledOnValidThread();
-        Log.d(LOG_TAG, "Disconnect WebSocket. State: " + state);
+        Log.d(LOG_TAG, "Disconnect WebSocket. State: " + state + ", reconnects: " + reconnects);
+        executor.cancel(reconnectTask);
+        reconnectTask = null;
+        sentMessages.clear();
+        webSocketSendQueue.clear();
         if (state == WebSocketConnectionState.REGISTERED) {
             send("{\"type\": \"bye\"}");
             state = WebSocketConnectionState.CONNECTED;
             sendWSSMessage("DELETE", "");
         }
 
-        if (state == WebSocketConnectionState.CONNECTED || state == WebSocketConnectionState.ERROR) {
+        if (socketActive && state != WebSocketConnectionState.CLOSED) {
+            this.closeEvents = closeEvents;
+            closeTimeoutTask = executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    onCloseComplete(true);
+                }
+            }, Config.WEBSOCKET_CLOSE_TIMEOUT_MS);
             webSocketConnection.disconnect();
             state = WebSocketConnectionState.CLOSED;
+            return;
+        }
+        state = WebSocketConnectionState.CLOSED;
+        Log.d(LOG_TAG, "Disconnecting WebSocket done!");
+        if (closeEvents != null) {
+            closeEvents.onWebSocketCloseComplete(false);
+        }
+    }
 
-            if (waitForComplete) {
-                synchronized (closeEventLoock) {
-                    while (!closeEvent) {
-                        try {
-                            closeEventLoock.wait();
-                            break;
-                        } catch (InterruptedException e) {
-                            Log.e(LOG_TAG, "Wait error: " + e.getMessage());
-                        }
-                    }
+    private void onCloseComplete(boolean timedOut) {
+        executor.cancel(closeTimeoutTask);
+        closeTimeoutTask = null;
+        WebSocketCloseEvents closeEvents = this.closeEvents;
+        if (closeEvents == null) {
+            return;
+        }
+        this.closeEvents = null;
+
+        if (timedOut) {
+            Log.w(LOG_TAG, "WebSocket close timed out after " + Config.WEBSOCKET_CLOSE_TIMEOUT_MS + "ms");
+        } else {
+            Log.d(LOG_TAG, "Disconnecting WebSocket done!");
+        }
+        closeEvents.onWebSocketCloseComplete(timedOut);
+    }
+
+    /**
+     * Schedules the next attempt to reopen a lost socket.
+     *
+     * @return false if all {@link Config#WEBSOCKET_RECONNECT_MAX_ATTEMPTS} attempts failed.
+     */
+    private boolean scheduleReconnect() {
+        if (reconnectAttempts >= Config.WEBSOCKET_RECONNECT_MAX_ATTEMPTS) {
+            Log.e(LOG_TAG, "WebSocket reconnect failed after " + reconnectAttempts + " attempts.");
+            return false;
+        }
+        long backoffMs = Math.min(Config.WEBSOCKET_RECONNECT_MAX_DELAY_MS,
+                (long) Config.WEBSOCKET_RECONNECT_BASE_DELAY_MS << reconnectAttempts);
+        long delayMs = backoffMs / 2 + (long) (random.nextFloat() * backoffMs / 2);
+        reconnectAttempts++;
+        state = WebSocketConnectionState.RECONNECTING;
+        Log.w(LOG_TAG, "WebSocket lost, reconnect attempt " + reconnectAttempts + " in " + delayMs + "ms");
+
+        reconnectTask = executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                reconnectTask = null;
+                if (state == WebSocketConnectionState.RECONNECTING) {
+                    openSocket();
                 }
             }
+        }, delayMs);
+
+        return true;
+    }
+
+    /**
+     * Adds a {@link #MESSAGE_ID} to {@code message} unless it has one, so a replayed copy keeps
+     * the ID of the original.
+     */
+    public String tagMessage(String message) {
+        try {
+            JSONObject json = new JSONObject(message);
+            if (json.has(MESSAGE_ID)) {
+                return message;
+            }
+            json.put(MESSAGE_ID, messageIdPrefix + nextMessageId++);
+
+            return json.toString();
+        } catch (JSONException e) {
+            Log.w(LOG_TAG, "Sending untagged non JSON message: " + message);
+            return message;
+        }
+    }
+
+    /**
+     * Removes the oldest candidate from the send queue. A lost candidate only costs a connectivity
+     * path, a lost SDP or bye breaks the call.
+     *
+     * @return false if the queue holds no candidate.
+     */
+    private boolean dropQueuedCandidate() {
+        Iterator<String> queued = webSocketSendQueue.iterator();
+        while (queued.hasNext()) {
+            String message = queued.next();
+            if (isCandidateMessage(message)) {
+                queued.remove();
+                Log.w(LOG_TAG, "WebSocket send queue full, dropping: " + message);
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean isCandidateMessage(String message) {
+        try {
+            String type = new JSONObject(message).optString("type");
+            return type.equals(IceCandidateBatcher.TYPE_CANDIDATE) ||
+                    type.equals(IceCandidateBatcher.TYPE_CANDIDATES);
+        } catch (JSONException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Messages are remembered only while registered, so one older than the window now is also
+     * older than it when a later loss is reported.
+     */
+    private void rememberSentMessage(String message) {
+        long nowMs = SystemClock.elapsedRealtime();
+        sentMessages.add(new SentMessage(message, nowMs));
+        while (sentMessages.size() > Config.WEBSOCKET_REPLAY_BUFFER_SIZE ||
+                nowMs - sentMessages.getFirst().sentAtMs > Config.WEBSOCKET_REPLAY_WINDOW_MS) {
+            sentMessages.removeFirst();
+        }
+    }
+
+    /**
+     * Replays the messages sent within the window before the socket loss, however long the
+     * reconnect took.
+     */
+    private void replaySentMessages() {
+        List<String> replay = new ArrayList<>(sentMessages.size());
+        for (SentMessage sentMessage : sentMessages) {
+            if (socketLostAtMs - sentMessage.sentAtMs <= Config.WEBSOCKET_REPLAY_WINDOW_MS) {
+                replay.add(sentMessage.message);
+            }
+        }
+        sentMessages.clear();
+        if (replay.isEmpty()) {
+            return;
+        }
+
+        Log.d(LOG_TAG, "Replaying " + replay.size() + " messages sent before the reconnect.");
+        for (String message : replay) {
+            send(message);
         }
-        Log.d(LOG_TAG, "Disconnecting WebSocket done!");
     }
 
     private void reportError(final String errorMessage) {
@@ -223,7 +466,21 @@ public class WebRtcChannelClient {
             executor.execute(new Runnable() {
                 @Override
                 public void run() {
+                    if (webSocketObserver != WebSocketObserver.this) {
+                        return;
+                    }
+                    if (state == WebSocketConnectionState.CLOSED) {
+                        Log.d(LOG_TAG, "WebSocket opened after disconnect, closing it.");
+                        webSocketConnection.disconnect();
+                        return;
+                    }
+                    if (state == WebSocketConnectionState.RECONNECTING) {
+                        reconnects++;
+                        Log.d(LOG_TAG, "WebSocket reconnected after " + reconnectAttempts + " attempts.");
+                    }
+                    reconnectAttempts = 0;
                     state = WebSocketConnectionState.CONNECTED;
+                    CallTracer.getInstance().end(traceCallId, TracePhase.WEBSOCKET_OPEN);
 
                     if (roomId != null && clientId != null) {
                         register(roomId, clientId);
@@ -237,17 +494,26 @@ public class WebRtcChannelClient {
             Log.d(LOG_TAG, "WebSocket connection closed. Code: " + webSocketCloseNotification +
             ", reason: " + s + ", state: " + state);
 
-            synchronized (closeEventLoock) {
-                closeEvent = true;
-                closeEventLoock.notify();
-            }
             executor.execute(new Runnable() {
                 @Override
                 public void run() {
-                    if (state != WebSocketConnectionState.CLOSED) {
-                        state = WebSocketConnectionState.CLOSED;
-                        events.onWebSocketClose();
+                    if (webSocketObserver != WebSocketObserver.this) {
+                        return;
+                    }
+                    socketActive = false;
+                    onCloseComplete(false);
+                    if (state == WebSocketConnectionState.CLOSED) {
+                        return;
+                    }
+                    // Failed reconnect attempts close too, only the first close marks the loss.
+                    if (state != WebSocketConnectionState.RECONNECTING) {
+                        socketLostAtMs = SystemClock.elapsedRealtime();
                     }
+                    if (state != WebSocketConnectionState.ERROR && scheduleReconnect()) {
+                        return;
+                    }
+                    state = WebSocketConnectionState.CLOSED;
+                    events.onWebSocketClose();
                 }
             });
         }
@@ -259,6 +525,9 @@ public class WebRtcChannelClient {
             executor.execute(new Runnable() {
                 @Override
                 public void run() {
+                    if (webSocketObserver != WebSocketObserver.this) {
+                        return;
+                    }
                     if (state == WebSocketConnectionState.CONNECTED || state == WebSocketConnectionState.REGISTERED) {
                         events.onWebSocketMessage(message);
                     }
@@ -276,4 +545,15 @@ public class WebRtcChannelClient {
 
         }
     }
+
+    private static class SentMessage {
+
+        private final String message;
+        private final long sentAtMs;
+
+        private SentMessage(String message, long sentAtMs) {
+            this.message = message;
+            this.sentAtMs = sentAtMs;
+        }
+    }
 }
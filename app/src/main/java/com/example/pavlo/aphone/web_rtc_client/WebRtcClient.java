@@ -1,15 +1,19 @@
 package com.example.pavlo.aphone.web_rtc_client;
 
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.example.pavlo.aphone.R;
+import com.example.pavlo.aphone.executor.ExecutorMetrics;
 import com.example.pavlo.aphone.executor.LooperExecutor;
 import com.example.pavlo.aphone.http_url_connection.AsyncHttpUrlConnection;
 import com.example.pavlo.aphone.interfaces.AsyncHttpEvents;
+import com.example.pavlo.aphone.interfaces.IceCandidateBatchEvents;
 import com.example.pavlo.aphone.interfaces.RoomParametersFetcherEvents;
 import com.example.pavlo.aphone.interfaces.RtcClient;
 import com.example.pavlo.aphone.interfaces.SignalingEvents;
 import com.example.pavlo.aphone.interfaces.WebSocketChannelEvents;
+import com.example.pavlo.aphone.interfaces.WebSocketCloseEvents;
 import com.example.pavlo.aphone.parameters.RoomConnectionParameters;
 import com.example.pavlo.aphone.parameters.SignalingParameters;
 import com.example.pavlo.aphone.util.Config;
@@ -19,14 +23,20 @@ import org.json.JSONObject;
 import org.webrtc.IceCandidate;
 import org.webrtc.SessionDescription;
 
+import java.util.List;
+
 /**
  * Created by pavlo on 22.06.16.
  */
-public class WebRtcClient implements WebSocketChannelEvents, RtcClient {
+public class WebRtcClient implements WebSocketChannelEvents, WebSocketCloseEvents, RtcClient, IceCandidateBatchEvents {
 
     private static final String LOG_TAG = "WSRTCClient";
 
+    private static final String TYPE_RESTART = "restart";
+
     private final LooperExecutor executor;
+    private final IceCandidateBatcher candidateBatcher;
+    private final SignalingTransportSelector transportSelector = new SignalingTransportSelector();
 
     private SignalingEvents events;
     private boolean initiator;
@@ -38,6 +48,11 @@ public class WebRtcClient implements WebSocketChannelEvents, RtcClient {
     private String messageUrl;
     private String leaveUrl;
 
+    private long disconnectRequestedMs;
+
+    private String lastRemoteSdp;
+    private boolean peerCandidateBatches;
+
     private enum ConnectionState {
         NEW, CONNECTED, CLOSED, ERROR
     };
@@ -50,9 +65,15 @@ public class WebRtcClient implements WebSocketChannelEvents, RtcClient {
         this.events = events;
         this.executor = executor;
         roomState = ConnectionState.NEW;
+        candidateBatcher = new IceCandidateBatcher(executor, Config.ICE_CANDIDATE_BATCH_WINDOW_MS,
+                Config.ICE_CANDIDATE_BATCH_MAX_SIZE, this);
         executor.requestStart();
     }
 
+    public ExecutorMetrics.Snapshot getExecutorMetrics() {
+        return executor.getMetrics();
+    }
+
     @Override
     public void connectToRoom(RoomConnectionParameters connectionParameters) {
         this.connectionParameters = connectionParameters;
@@ -77,7 +98,7 @@ public class WebRtcClient implements WebSocketChannelEvents, RtcClient {
                 JSONObject json = new JSONObject();
                 jsonPut(json, "sdp", sdp.description);
                 jsonPut(json, "type", "offer");
-                sendPostMessage(MessageType.MESSAGE, messageUrl, json.toString());
+                sendInitiatorMessage(json.toString(), true);
 
                 if (connectionParameters.isLoopback()) {
                     SessionDescription sdpAnswer = new SessionDescription(
@@ -112,44 +133,88 @@ public class WebRtcClient implements WebSocketChannelEvents, RtcClient {
         executor.execute(new Runnable() {
             @Override
             public void run() {
-                JSONObject json = new JSONObject();
-                jsonPut(json, "type", "candidate");
-                jsonPut(json, "label", candidate.sdpMLineIndex);
-                jsonPut(json, "id", candidate.sdpMid);
-                jsonPut(json, "candidate", candidate.sdp);
-
-                if (initiator) {
-                    if (roomState != ConnectionState.CONNECTED) {
-                        reportError("Sending ICE candidate in non connected state.");
-                        return;
-                    }
-                    sendPostMessage(MessageType.MESSAGE, messageUrl, json.toString());
-                    if (connectionParameters.isLoopback()) {
-                        events.onRemoteIceCandidate(candidate);
-                    }
-                } else {
-                    webRtcChannelClient.send(json.toString());
+                candidateBatcher.add(candidate);
+            }
+        });
+    }
+
+    /**
+     * Asks the call initiator to restart ICE. Only the initiator sends offers, so the receiving
+     * side of a call can not restart by itself.
+     */
+    @Override
+    public void requestIceRestart() {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (initiator || roomState != ConnectionState.CONNECTED) {
+                    return;
                 }
+                Log.d(LOG_TAG, "Requesting ICE restart.");
+                JSONObject json = new JSONObject();
+                jsonPut(json, "type", TYPE_RESTART);
+                webRtcChannelClient.send(json.toString());
             }
         });
     }
 
+    /**
+     * Sends a flushed batch as one {@code "candidates"} message only to a peer known to understand
+     * it: one whose messages carry a {@link WebRtcChannelClient#MESSAGE_ID}. Any other peer may be
+     * the stock apprtc web client and gets one {@code "candidate"} message per candidate.
+     */
+    @Override
+    public void onIceCandidateBatch(final List<IceCandidate> candidates) {
+        List<JSONObject> messages;
+        try {
+            messages = IceCandidateBatcher.toMessages(candidates, peerCandidateBatches);
+        } catch (JSONException e) {
+            throw new RuntimeException(e);
+        }
+
+        if (initiator) {
+            if (roomState != ConnectionState.CONNECTED) {
+                reportError("Sending ICE candidate in non connected state.");
+                return;
+            }
+            for (JSONObject json : messages) {
+                sendInitiatorMessage(json.toString(), false);
+            }
+            if (connectionParameters.isLoopback()) {
+                for (IceCandidate candidate : candidates) {
+                    events.onRemoteIceCandidate(candidate);
+                }
+            }
+        } else {
+            for (JSONObject json : messages) {
+                webRtcChannelClient.send(json.toString());
+            }
+        }
+    }
+
     @Override
     public void disconnectFromRoom() {
+        final long requestedMs = SystemClock.elapsedRealtime();
         executor.execute(new Runnable() {
             @Override
             public void run() {
+                disconnectRequestedMs = requestedMs;
                 disconnectFromRoomInternal();
             }
         });
-        executor.requestStop();
     }
 
     private void conectToRoomInternal() {
         String connectionUrl = getConnectionUrl(connectionParameters);
         Log.d(LOG_TAG, "Connect to room: " + connectionUrl);
         roomState = ConnectionState.NEW;
-        webRtcChannelClient = new WebRtcChannelClient(executor, this);
+        lastRemoteSdp = null;
+        peerCandidateBatches = false;
+        transportSelector.reset();
+
+        webRtcChannelClient = createChannelClient();
+        webRtcChannelClient.connect(SignalingUrlCache.getInstance().getWssUrl(),
+                SignalingUrlCache.getInstance().getWssPostUrl());
 
         RoomParametersFetcherEvents callbacks = new RoomParametersFetcherEvents() {
             @Override
@@ -179,8 +244,11 @@ public class WebRtcClient implements WebSocketChannelEvents, RtcClient {
         }
 
         roomState = ConnectionState.CLOSED;
+        candidateBatcher.clear();
         if (webRtcChannelClient != null) {
-            webRtcChannelClient.disconnect(true);
+            webRtcChannelClient.disconnect(this);
+        } else {
+            onWebSocketCloseComplete(false);
         }
     }
 
@@ -213,7 +281,12 @@ public class WebRtcClient implements WebSocketChannelEvents, RtcClient {
         }
 
         initiator = signalingParameters.isInitiator();
+        peerCandidateBatches = signalingParameters.isPeerCandidateBatches();
         messageUrl = getMessageUrl(connectionParameters, signalingParameters);
+        if (signalingParameters.getOfferSdp() != null) {
+            // The collider may deliver the offer of the join response again over the WebSocket.
+            lastRemoteSdp = signalingParameters.getOfferSdp().description;
+        }
         leaveUrl = getLeaveUrl(connectionParameters, signalingParameters);
 
         Log.d(LOG_TAG, "Message URL: " + messageUrl);
@@ -223,10 +296,39 @@ public class WebRtcClient implements WebSocketChannelEvents, RtcClient {
 
         events.onConnectedToRoom(signalingParameters);
 
-        webRtcChannelClient.connect(signalingParameters.getWssUrl(), signalingParameters.getWssPostUrl());
+        SignalingUrlCache.getInstance().update(signalingParameters.getWssUrl(), signalingParameters.getWssPostUrl());
+        reconcileWebSocket(signalingParameters);
         webRtcChannelClient.register(connectionParameters.getRoomId(), signalingParameters.getClientId());
     }
 
+    private WebRtcChannelClient createChannelClient() {
+        ChannelEvents channelEvents = new ChannelEvents();
+        channelEvents.channelClient = new WebRtcChannelClient(executor, channelEvents);
+
+        return channelEvents.channelClient;
+    }
+
+    /**
+     * Keeps the WebSocket opened while the join was in flight if it went to the URL the server
+     * returned and has not failed, otherwise replaces it with a socket to that URL.
+     */
+    private void reconcileWebSocket(SignalingParameters signalingParameters) {
+        WebRtcChannelClient.WebSocketConnectionState state = webRtcChannelClient.getState();
+        if (signalingParameters.getWssUrl().equals(webRtcChannelClient.getWebSocketServerUrl()) &&
+                (state == WebRtcChannelClient.WebSocketConnectionState.NEW ||
+                        state == WebRtcChannelClient.WebSocketConnectionState.CONNECTED)) {
+            Log.d(LOG_TAG, "Using pre-connected WebSocket, state: " + state);
+            webRtcChannelClient.setPostUrl(signalingParameters.getWssPostUrl());
+            return;
+        }
+
+        Log.d(LOG_TAG, "Pre-connected WebSocket to " + webRtcChannelClient.getWebSocketServerUrl() +
+                " not usable, state: " + state + ". Connecting to " + signalingParameters.getWssUrl());
+        webRtcChannelClient.disconnect(null);
+        webRtcChannelClient = createChannelClient();
+        webRtcChannelClient.connect(signalingParameters.getWssUrl(), signalingParameters.getWssPostUrl());
+    }
+
     private void reportError(final String errorMessage) {
         Log.e(LOG_TAG, "Error message: " + errorMessage);
         executor.execute(new Runnable() {
@@ -248,6 +350,68 @@ public class WebRtcClient implements WebSocketChannelEvents, RtcClient {
         }
     }
 
+    /**
+     * Sends a message of the call initiator over the transport picked by the selector. Loopback
+     * rooms always use POST. The message gets its WebSocket message ID here, so a copy resent over
+     * POST after a WebSocket failure is recognized by the receiver.
+     *
+     * @param offer true for an offer SDP, false for candidates.
+     */
+    private void sendInitiatorMessage(String message, boolean offer) {
+        SignalingTransportSelector.Transport transport = connectionParameters.isLoopback() ?
+                SignalingTransportSelector.Transport.HTTP_POST :
+                transportSelector.select(initiator, webRtcChannelClient.getState());
+        message = webRtcChannelClient.tagMessage(message);
+        if (transport == SignalingTransportSelector.Transport.HTTP_POST) {
+            sendPostMessage(MessageType.MESSAGE, messageUrl, message);
+        } else {
+            webRtcChannelClient.send(message);
+        }
+        transportSelector.onSent(message, offer, transport);
+    }
+
+    /**
+     * Resends the initiator messages the WebSocket may have lost over POST once it failed for
+     * good. This keeps the call going only if the offer was already answered, because the answer
+     * can arrive over the WebSocket only.
+     *
+     * @return true if the call goes on over POST.
+     */
+    private boolean fallBackToPost() {
+        if (roomState != ConnectionState.CONNECTED || !initiator || connectionParameters.isLoopback() ||
+                !transportSelector.isOfferAnswered()) {
+            return false;
+        }
+        resendOverPost();
+
+        return true;
+    }
+
+    /**
+     * The collider answers a message it can not relay with an error message. Once the initiator
+     * used the WebSocket, that is taken as the server rejecting initiator messages over it: the
+     * call switches to POST and resends what was not acknowledged, whether or not the offer was
+     * answered. The answer still comes over the WebSocket, which stays open.
+     *
+     * @return true if the call goes on over POST.
+     */
+    private boolean fallBackToPostOnRejection(String errorText) {
+        if (!initiator || connectionParameters.isLoopback() || !transportSelector.hasSentOverWebSocket()) {
+            return false;
+        }
+        Log.w(LOG_TAG, "WebSocket rejected initiator messages, continuing over POST: " + errorText);
+        resendOverPost();
+
+        return true;
+    }
+
+    private void resendOverPost() {
+        SignalingTransportMetrics.getInstance().recordFailure(SignalingTransportSelector.Transport.WEBSOCKET);
+        for (String message : transportSelector.onWebSocketFailed()) {
+            sendPostMessage(MessageType.MESSAGE, messageUrl, message);
+        }
+    }
+
     private void sendPostMessage(final MessageType messageType, final String url, final String message) {
         String logInfo = url;
 
@@ -257,15 +421,20 @@ public class WebRtcClient implements WebSocketChannelEvents, RtcClient {
 
         Log.d(LOG_TAG, "C->GAE: " + logInfo);
 
+        final long startNanos = System.nanoTime();
         AsyncHttpUrlConnection httpUrlConnection = new AsyncHttpUrlConnection("POST", url, message, new AsyncHttpEvents() {
             @Override
             public void onHttpError(String errorMessage) {
+                if (messageType == MessageType.MESSAGE) {
+                    SignalingTransportMetrics.getInstance().recordFailure(SignalingTransportSelector.Transport.HTTP_POST);
+                }
                 reportError("GAE POST error: " + errorMessage);
             }
 
             @Override
             public void onHttpComplete(String response) {
                 if (messageType == MessageType.MESSAGE) {
+                    SignalingTransportMetrics.getInstance().recordPostLatency((System.nanoTime() - startNanos) / 1000);
                     try {
                         JSONObject roomJson = new JSONObject(response);
                         String result = roomJson.getString("result");
@@ -295,15 +464,22 @@ public class WebRtcClient implements WebSocketChannelEvents, RtcClient {
             if (messageText.length() > 0) {
                 json = new JSONObject(messageText);
                 String type = json.optString("type");
+                if (json.has(WebRtcChannelClient.MESSAGE_ID)) {
+                    peerCandidateBatches = true;
+                }
 
-                if (type.equals("candidate")) {
-                    IceCandidate candidate = new IceCandidate(
-                            json.getString("id"),
-                            json.getInt("label"),
-                            json.getString("candidate"));
-                    events.onRemoteIceCandidate(candidate);
+                if (webRtcChannelClient.isReplayedMessage(json)) {
+                    Log.d(LOG_TAG, "Dropping replayed " + type);
+                } else if (type.equals(IceCandidateBatcher.TYPE_CANDIDATE) ||
+                        type.equals(IceCandidateBatcher.TYPE_CANDIDATES)) {
+                    for (IceCandidate candidate : IceCandidateBatcher.fromJson(json)) {
+                        events.onRemoteIceCandidate(candidate);
+                    }
+                } else if ((type.equals("answer") || type.equals("offer")) && isDuplicateRemoteSdp(json)) {
+                    Log.d(LOG_TAG, "Dropping replayed remote " + type);
                 } else if (type.equals("answer")) {
                     if (initiator) {
+                        transportSelector.onAnswerReceived();
                         SessionDescription sdp = new SessionDescription(
                                 SessionDescription.Type.fromCanonicalForm(type),
                                 json.getString("sdp"));
@@ -320,6 +496,12 @@ public class WebRtcClient implements WebSocketChannelEvents, RtcClient {
                     } else {
                         reportError("Received offer for call receiver: " + message);
                     }
+                } else if (type.equals(TYPE_RESTART)) {
+                    if (initiator) {
+                        events.onIceRestartRequested();
+                    } else {
+                        reportError("Received ICE restart request for call receiver: " + message);
+                    }
                 } else if (type.equals("bye")) {
                     events.onChannelClose();
                 } else {
@@ -327,7 +509,9 @@ public class WebRtcClient implements WebSocketChannelEvents, RtcClient {
                 }
             } else {
                 if (errorText != null && errorText.length() > 0) {
-                    reportError("WebSocket error message: " + errorText);
+                    if (!fallBackToPostOnRejection(errorText)) {
+                        reportError("WebSocket error message: " + errorText);
+                    }
                 } else {
                     reportError("Unexpected WebSocket message: " + message);
                 }
@@ -337,13 +521,80 @@ public class WebRtcClient implements WebSocketChannelEvents, RtcClient {
         }
     }
 
+    /**
+     * A peer that reconnected its WebSocket replays recent messages, so the same SDP may arrive
+     * twice. The offer of the join response is remembered as well, since the collider may also
+     * deliver it over the WebSocket. Candidates are not checked, adding a known candidate again is
+     * harmless.
+     */
+    private boolean isDuplicateRemoteSdp(JSONObject json) throws JSONException {
+        String sdp = json.getString("sdp");
+        if (sdp.equals(lastRemoteSdp)) {
+            return true;
+        }
+        lastRemoteSdp = sdp;
+
+        return false;
+    }
+
     @Override
     public void onWebSocketClose() {
+        if (roomState == ConnectionState.NEW) {
+            Log.w(LOG_TAG, "Pre-connected WebSocket closed before the room join completed.");
+            return;
+        }
+        if (fallBackToPost()) {
+            Log.w(LOG_TAG, "WebSocket closed, initiator signaling continues over POST.");
+            return;
+        }
         events.onChannelClose();
     }
 
+    @Override
+    public void onWebSocketCloseComplete(final boolean timedOut) {
+        TeardownMetrics.getInstance().record(SystemClock.elapsedRealtime() - disconnectRequestedMs, timedOut);
+    }
+
     @Override
     public void onWebSocketError(final String description) {
+        if (roomState == ConnectionState.NEW) {
+            Log.w(LOG_TAG, "Pre-connected WebSocket failed: " + description);
+            return;
+        }
+        if (fallBackToPost()) {
+            Log.w(LOG_TAG, "WebSocket failed, initiator signaling continues over POST: " + description);
+            return;
+        }
         reportError("WebSocket error: " + description);
     }
+
+    /**
+     * Forwards events of one WebSocket only while it is the current one, so a replaced socket can
+     * not fail or close the call.
+     */
+    private class ChannelEvents implements WebSocketChannelEvents {
+
+        private WebRtcChannelClient channelClient;
+
+        @Override
+        public void onWebSocketMessage(final String message) {
+            if (channelClient == webRtcChannelClient) {
+                WebRtcClient.this.onWebSocketMessage(message);
+            }
+        }
+
+        @Override
+        public void onWebSocketClose() {
+            if (channelClient == webRtcChannelClient) {
+                WebRtcClient.this.onWebSocketClose();
+            }
+        }
+
+        @Override
+        public void onWebSocketError(final String description) {
+            if (channelClient == webRtcChannelClient) {
+                WebRtcClient.this.onWebSocketError(description);
+            }
+        }
+    }
 }
@@ -0,0 +1,127 @@
+package com.example.pavlo.aphone.bitrate_control;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by pavlo on 18.10.26.
+ *
+ * Drives the control law sample by sample with the defaults of the builder: 32kbps start,
+ * 8-64kbps range, decrease after 1s of congestion, increase after 4s of a clean link, 2s hold.
+ * Congestion tests start with FEC on, so that switching FEC does not count as the change.
+ */
+public class BitrateControlLawTest {
+
+    private static BitrateControlLaw newLaw(boolean fec) {
+        return BitrateControlLaw.newBuilder().
+                setStart(32, fec).
+                build();
+    }
+
+    @Test
+    public void decreasesAfterSustainedCongestion() {
+        BitrateControlLaw law = newLaw(true);
+
+        assertFalse(law.update(0, 10, 100, 0));
+        assertFalse(law.update(500, 10, 100, 0));
+        assertTrue(law.update(1000, 10, 100, 0));
+        assertEquals(24, law.getBitrateKbps());
+        assertTrue(law.isFec());
+    }
+
+    @Test
+    public void singleBadSampleIsIgnored() {
+        BitrateControlLaw law = newLaw(false);
+
+        assertFalse(law.update(0, 0, 100, 0));
+        law.update(500, 0, 900, 0);
+        assertFalse(law.update(1000, 0, 100, 0));
+        assertFalse(law.update(1500, 0, 900, 0));
+        assertEquals(32, law.getBitrateKbps());
+    }
+
+    @Test
+    public void increasesAfterCleanPeriod() {
+        BitrateControlLaw law = newLaw(false);
+
+        for (long nowMs = 0; nowMs < 4000; nowMs += 500) {
+            assertFalse(law.update(nowMs, 0, 50, 0));
+        }
+        assertTrue(law.update(4000, 0, 50, 0));
+        assertEquals(36, law.getBitrateKbps());
+    }
+
+    @Test
+    public void holdsAfterChange() {
+        BitrateControlLaw law = newLaw(true);
+
+        law.update(0, 10, 100, 0);
+        assertTrue(law.update(1000, 10, 100, 0));
+        assertFalse(law.update(2000, 10, 100, 0));
+        assertFalse(law.update(2500, 10, 100, 0));
+        assertTrue(law.update(3000, 10, 100, 0));
+        assertEquals(18, law.getBitrateKbps());
+    }
+
+    @Test
+    public void sameReactionTimeAtFastAndSlowPolling() {
+        BitrateControlLaw fast = newLaw(false);
+        BitrateControlLaw slow = newLaw(false);
+
+        long fastIncreaseMs = -1;
+        for (long nowMs = 0; nowMs <= 20000 && fastIncreaseMs < 0; nowMs += 500) {
+            if (fast.update(nowMs, 0, 50, 0)) {
+                fastIncreaseMs = nowMs;
+            }
+        }
+        long slowIncreaseMs = -1;
+        for (long nowMs = 0; nowMs <= 20000 && slowIncreaseMs < 0; nowMs += 5000) {
+            if (slow.update(nowMs, 0, 50, 0)) {
+                slowIncreaseMs = nowMs;
+            }
+        }
+
+        assertEquals(4000, fastIncreaseMs);
+        assertEquals(5000, slowIncreaseMs);
+    }
+
+    @Test
+    public void cappedByAvailableBandwidth() {
+        BitrateControlLaw law = newLaw(false);
+
+        assertTrue(law.update(0, 0, 50, 20));
+        assertEquals(16, law.getBitrateKbps());
+        for (long nowMs = 500; nowMs < 30000; nowMs += 500) {
+            law.update(nowMs, 0, 50, 20);
+            assertTrue(law.getBitrateKbps() <= 16);
+        }
+    }
+
+    @Test
+    public void staysInRange() {
+        BitrateControlLaw law = newLaw(false);
+
+        for (long nowMs = 0; nowMs < 60000; nowMs += 500) {
+            law.update(nowMs, 50, 1000, 0);
+        }
+        assertEquals(8, law.getBitrateKbps());
+
+        for (long nowMs = 60000; nowMs < 300000; nowMs += 500) {
+            law.update(nowMs, 0, 50, 0);
+        }
+        assertEquals(64, law.getBitrateKbps());
+    }
+
+    @Test
+    public void fecHysteresis() {
+        BitrateControlLaw law = newLaw(false);
+
+        assertTrue(law.update(0, 3, 100, 0));
+        assertTrue(law.isFec());
+        assertFalse(law.update(2500, 1, 100, 0));
+        assertTrue(law.isFec());
+        assertTrue(law.update(5000, 0, 100, 0));
+        assertFalse(law.isFec());
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.pavlo.aphone.bitrate_control;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by pavlo on 18.10.26.
+ *
+ * Replays synthetic stats traces through the control law: a congestion episode, a clean link
+ * sampled at the fast and the slow polling period, and a bandwidth drop.
+ */
+public class BitrateTraceSimulatorTest {
+
+    private static BitrateControlLaw newLaw() {
+        return BitrateControlLaw.newBuilder().
+                setStart(32, false).
+                build();
+    }
+
+    /**
+     * 10s clean, 10s with 8% loss, 20s clean, sampled every {@code periodMs}.
+     */
+    private static String congestionTrace(long periodMs) {
+        StringBuilder trace = new StringBuilder("# timeMs,lossPercent,rttMs,availableKbps\n");
+        for (long timeMs = 0; timeMs <= 40000; timeMs += periodMs) {
+            double lossPercent = timeMs >= 10000 && timeMs < 20000 ? 8 : 0;
+            trace.append(timeMs).append(',').append(lossPercent).append(",80,0\n");
+        }
+
+        return trace.toString();
+    }
+
+    @Test
+    public void replaysTrace() throws Exception {
+        BitrateTraceSimulator.Result result = new BitrateTraceSimulator(newLaw()).replay(
+                new StringReader("# header\n\n0,0,50,0\n1000,0,50,0\n2000,0,50,0\n"));
+
+        assertEquals(3, result.getSamples());
+        assertEquals(0, result.getRenegotiations());
+        assertEquals(32, result.getAverageKbps(), 0.001);
+        assertEquals(0, result.getCongestedMs());
+    }
+
+    @Test
+    public void backsOffDuringCongestion() throws Exception {
+        BitrateTraceSimulator.Result result =
+                new BitrateTraceSimulator(newLaw()).replay(new StringReader(congestionTrace(500)));
+
+        assertEquals(10000, result.getCongestedMs());
+        assertTrue(result.getMinKbps() < 32);
+        assertTrue(result.getRenegotiations() > 0);
+    }
+
+    @Test
+    public void pollingPeriodDoesNotChangeRampUp() throws Exception {
+        StringBuilder fastTrace = new StringBuilder();
+        for (long timeMs = 0; timeMs <= 20000; timeMs += 500) {
+            fastTrace.append(timeMs).append(",0,80,0\n");
+        }
+        StringBuilder slowTrace = new StringBuilder();
+        for (long timeMs = 0; timeMs <= 20000; timeMs += 5000) {
+            slowTrace.append(timeMs).append(",0,80,0\n");
+        }
+
+        BitrateTraceSimulator.Result fast =
+                new BitrateTraceSimulator(newLaw()).replay(new StringReader(fastTrace.toString()));
+        BitrateTraceSimulator.Result slow =
+                new BitrateTraceSimulator(newLaw()).replay(new StringReader(slowTrace.toString()));
+
+        // 20s of a clean link is worth 4 or 5 increase steps whatever the polling period.
+        assertEquals(52, fast.getMaxKbps());
+        assertEquals(48, slow.getMaxKbps());
+    }
+
+    @Test
+    public void followsBandwidthDrop() throws Exception {
+        StringBuilder trace = new StringBuilder();
+        for (long timeMs = 0; timeMs <= 20000; timeMs += 500) {
+            trace.append(timeMs).append(",0,80,").append(timeMs < 5000 ? 100 : 24).append('\n');
+        }
+
+        BitrateTraceSimulator.Result result =
+                new BitrateTraceSimulator(newLaw()).replay(new StringReader(trace.toString()));
+
+        // The drop lands inside the hold after the 4s increase, so the cap applies once it ends.
+        assertTrue(result.toString(), result.getOverBandwidthMs() <= 2000);
+        assertEquals(19, result.getMinKbps());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsShortLine() throws Exception {
+        new BitrateTraceSimulator(newLaw()).replay(new StringReader("0,1,2\n"));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsBadNumber() throws Exception {
+        new BitrateTraceSimulator(newLaw()).replay(new StringReader("0,x,2,3\n"));
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.pavlo.aphone.executor;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by pavlo on 18.10.26.
+ *
+ * Producer to consumer hand-off throughput of MpscTaskQueue against a monitor guarded deque and
+ * ConcurrentLinkedQueue on the JVM. The deque is only a proxy for {@link LooperExecutor.Mode#HANDLER},
+ * which serializes producers on the executor monitor: Robolectric runs tasks posted to a
+ * background looper on the posting thread, so the real modes can not be compared here. The
+ * on-device LooperExecutorBenchmark compares them. The numbers are printed, not asserted, since
+ * they depend on the host; the benchmark is ignored in regular test runs.
+ */
+public class MpscTaskQueueBenchmark {
+
+    private static final int PRODUCERS = 4;
+    private static final int TASKS_PER_PRODUCER = 500000;
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int ROUNDS = 5;
+
+    private static final Runnable TASK = new Runnable() {
+        @Override
+        public void run() {
+
+        }
+    };
+
+    private interface Queue {
+        void offer(Runnable task);
+
+        Runnable poll();
+    }
+
+    @Ignore("Benchmark, run by hand")
+    @Test
+    public void compareQueues() throws Exception {
+        report("MpscTaskQueue", new QueueFactory() {
+            @Override
+            public Queue create() {
+                final MpscTaskQueue queue = new MpscTaskQueue();
+                return new Queue() {
+                    @Override
+                    public void offer(Runnable task) {
+                        queue.offer(task);
+                    }
+
+                    @Override
+                    public Runnable poll() {
+                        return queue.poll();
+                    }
+                };
+            }
+        });
+        report("synchronized ArrayDeque", new QueueFactory() {
+            @Override
+            public Queue create() {
+                final ArrayDeque<Runnable> queue = new ArrayDeque<Runnable>();
+                return new Queue() {
+                    @Override
+                    public synchronized void offer(Runnable task) {
+                        queue.offer(task);
+                    }
+
+                    @Override
+                    public synchronized Runnable poll() {
+                        return queue.poll();
+                    }
+                };
+            }
+        });
+        report("ConcurrentLinkedQueue", new QueueFactory() {
+            @Override
+            public Queue create() {
+                final ConcurrentLinkedQueue<Runnable> queue = new ConcurrentLinkedQueue<Runnable>();
+                return new Queue() {
+                    @Override
+                    public void offer(Runnable task) {
+                        queue.offer(task);
+                    }
+
+                    @Override
+                    public Runnable poll() {
+                        return queue.poll();
+                    }
+                };
+            }
+        });
+    }
+
+    private interface QueueFactory {
+        Queue create();
+    }
+
+    private static void report(String name, QueueFactory factory) throws Exception {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            runRound(factory.create());
+        }
+        long totalNanos = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            totalNanos += runRound(factory.create());
+        }
+        long tasks = (long) PRODUCERS * TASKS_PER_PRODUCER * ROUNDS;
+        System.out.println(name + ": " + (totalNanos / tasks) + " ns/task, " +
+                (tasks * 1000000000L / totalNanos) + " tasks/s with " + PRODUCERS + " producers");
+    }
+
+    private static long runRound(final Queue queue) throws Exception {
+        final CountDownLatch startSignal = new CountDownLatch(1);
+        Thread[] producers = new Thread[PRODUCERS];
+        for (int p = 0; p < PRODUCERS; p++) {
+            producers[p] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        startSignal.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < TASKS_PER_PRODUCER; i++) {
+                        queue.offer(TASK);
+                    }
+                }
+            });
+            producers[p].start();
+        }
+
+        int expected = PRODUCERS * TASKS_PER_PRODUCER;
+        int received = 0;
+        long start = System.nanoTime();
+        startSignal.countDown();
+        while (received < expected) {
+            Runnable task = queue.poll();
+            if (task == null) {
+                Thread.yield();
+                continue;
+            }
+            task.run();
+            received++;
+        }
+        long elapsed = System.nanoTime() - start;
+
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        assertNull(queue.poll());
+
+        return elapsed;
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.pavlo.aphone.executor;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by pavlo on 18.10.26.
+ *
+ * Several producers offer numbered tasks while one consumer polls. Every task must arrive exactly
+ * once and the tasks of each producer in the order it offered them.
+ */
+public class MpscTaskQueueTest {
+
+    private static final int PRODUCERS = 4;
+    private static final int TASKS_PER_PRODUCER = 200000;
+
+    @Test
+    public void emptyQueue() {
+        MpscTaskQueue queue = new MpscTaskQueue();
+
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void singleThreadFifo() {
+        MpscTaskQueue queue = new MpscTaskQueue();
+        Runnable[] tasks = new Runnable[3];
+        for (int i = 0; i < tasks.length; i++) {
+            tasks[i] = new SequencedTask(0, i);
+            queue.offer(tasks[i]);
+        }
+
+        assertFalse(queue.isEmpty());
+        for (Runnable task : tasks) {
+            assertSame(task, queue.poll());
+        }
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+    }
+
+    @Test(timeout = 30000)
+    public void multipleProducersSingleConsumer() throws Exception {
+        final MpscTaskQueue queue = new MpscTaskQueue();
+        final CountDownLatch startSignal = new CountDownLatch(1);
+        Thread[] producers = new Thread[PRODUCERS];
+
+        for (int p = 0; p < PRODUCERS; p++) {
+            final int producer = p;
+            producers[p] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        startSignal.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < TASKS_PER_PRODUCER; i++) {
+                        queue.offer(new SequencedTask(producer, i));
+                    }
+                }
+            }, "producer-" + p);
+            producers[p].start();
+        }
+
+        int[] nextSequence = new int[PRODUCERS];
+        int received = 0;
+        startSignal.countDown();
+        while (received < PRODUCERS * TASKS_PER_PRODUCER) {
+            Runnable task = queue.poll();
+            if (task == null) {
+                Thread.yield();
+                continue;
+            }
+            SequencedTask sequencedTask = (SequencedTask) task;
+            assertEquals("Producer " + sequencedTask.producer + " out of order",
+                    nextSequence[sequencedTask.producer], sequencedTask.sequence);
+            nextSequence[sequencedTask.producer]++;
+            received++;
+        }
+
+        for (Thread producer : producers) {
+            producer.join(TimeUnit.SECONDS.toMillis(5));
+        }
+        for (int p = 0; p < PRODUCERS; p++) {
+            assertEquals(TASKS_PER_PRODUCER, nextSequence[p]);
+        }
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+    }
+
+    private static class SequencedTask implements Runnable {
+
+        private final int producer;
+        private final int sequence;
+
+        private SequencedTask(int producer, int sequence) {
+            this.producer = producer;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+
+        }
+    }
+}
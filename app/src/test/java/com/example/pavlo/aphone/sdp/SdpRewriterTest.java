@@ -0,0 +1,114 @@
+package com.example.pavlo.aphone.sdp;
+
+import com.example.pavlo.aphone.parameters.AudioProfile;
+import com.example.pavlo.aphone.util.PeerConnectionUtilities;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by pavlo on 18.10.26.
+ *
+ * Runs the rewrites on the offer of {@link SdpTest} and checks the serialized lines.
+ */
+public class SdpRewriterTest {
+
+    private static List<String> audioLines(String description) {
+        return Sdp.parse(description).getMediaSections(SdpRewriter.MEDIA_AUDIO).get(0).getLines();
+    }
+
+    @Test
+    public void noRewritesKeepsDescription() {
+        String description = SdpTest.OFFER.replace("\r\n", "\n");
+
+        assertSame(description, SdpRewriter.newBuilder().build().apply(description));
+    }
+
+    @Test
+    public void startBitrateMergesIntoOpusFmtp() {
+        String result = SdpRewriter.newBuilder().
+                setStartBitrate(PeerConnectionUtilities.AUDIO_CODEC_OPUS, 32).
+                build().
+                apply(SdpTest.OFFER);
+
+        assertTrue(result.contains("\r\na=fmtp:111 minptime=10;useinbandfec=1;maxaveragebitrate=32000\r\n"));
+        assertEquals(1, countOccurrences(result, "a=fmtp:111 "));
+        assertFalse(result.contains("]"));
+    }
+
+    @Test
+    public void missingFmtpIsInsertedAfterRtpmap() {
+        String result = SdpRewriter.newBuilder().
+                setStartBitrate(PeerConnectionUtilities.AUDIO_CODEC_ISAC, 24).
+                build().
+                apply(SdpTest.OFFER);
+
+        List<String> lines = audioLines(result);
+        int rtpmap = lines.indexOf("a=rtpmap:103 ISAC/16000");
+        assertEquals("a=fmtp:103 maxaveragebitrate=24000", lines.get(rtpmap + 1));
+        assertEquals("a=rtpmap:9 G722/8000", lines.get(rtpmap + 2));
+    }
+
+    @Test
+    public void preferCodecReordersMediaLine() {
+        String result = SdpRewriter.newBuilder().
+                preferCodec(SdpRewriter.MEDIA_AUDIO, PeerConnectionUtilities.AUDIO_CODEC_ISAC).
+                build().
+                apply(SdpTest.OFFER);
+
+        assertTrue(result.contains("\r\nm=audio 9 UDP/TLS/RTP/SAVPF 103 111 9 0\r\n"));
+    }
+
+    @Test
+    public void preferMissingCodecKeepsMediaLine() {
+        String result = SdpRewriter.newBuilder().
+                preferCodec(SdpRewriter.MEDIA_AUDIO, "VP8").
+                build().
+                apply(SdpTest.OFFER);
+
+        assertEquals(SdpTest.OFFER, result);
+    }
+
+    @Test
+    public void audioProfileWritesOpusParametersAndPtime() {
+        String result = SdpRewriter.newBuilder().
+                applyAudioProfile(AudioProfile.LOW_BANDWIDTH_CELLULAR).
+                build().
+                apply(SdpTest.OFFER);
+
+        List<String> lines = audioLines(result);
+        int rtpmap = lines.indexOf("a=rtpmap:111 opus/48000/2");
+        assertEquals("a=fmtp:111 minptime=10;useinbandfec=1;usedtx=1;stereo=0;maxplaybackrate=16000;" +
+                "maxaveragebitrate=16000", lines.get(rtpmap + 1));
+        assertEquals("a=ptime:40", lines.get(lines.size() - 1));
+        assertEquals(1, countOccurrences(result, "a=ptime:"));
+    }
+
+    @Test
+    public void audioProfileReplacesPtime() {
+        String offer = SdpTest.OFFER + "a=ptime:60\r\n";
+
+        String result = SdpRewriter.newBuilder().
+                applyAudioProfile(AudioProfile.VOICE_ONLY_DTX).
+                build().
+                apply(offer);
+
+        assertTrue(result.endsWith("\r\na=ptime:20\r\n"));
+        assertEquals(1, countOccurrences(result, "a=ptime:"));
+        assertTrue(result.contains(";usedtx=1;"));
+    }
+
+    private static int countOccurrences(String text, String part) {
+        int count = 0;
+        int index = text.indexOf(part);
+        while (index != -1) {
+            count++;
+            index = text.indexOf(part, index + part.length());
+        }
+
+        return count;
+    }
+}
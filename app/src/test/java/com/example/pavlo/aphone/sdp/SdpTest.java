@@ -0,0 +1,71 @@
+package com.example.pavlo.aphone.sdp;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by pavlo on 18.10.26.
+ *
+ * Parses and serializes a trimmed Opus offer. Serialized lines always end with CRLF, whatever
+ * the input used.
+ */
+public class SdpTest {
+
+    static final String OFFER = "v=0\r\n" +
+            "o=- 4611731400430051336 2 IN IP4 127.0.0.1\r\n" +
+            "s=-\r\n" +
+            "t=0 0\r\n" +
+            "a=group:BUNDLE audio\r\n" +
+            "m=audio 9 UDP/TLS/RTP/SAVPF 111 103 9 0\r\n" +
+            "c=IN IP4 0.0.0.0\r\n" +
+            "a=mid:audio\r\n" +
+            "a=rtpmap:111 opus/48000/2\r\n" +
+            "a=fmtp:111 minptime=10; useinbandfec=1\r\n" +
+            "a=rtpmap:103 ISAC/16000\r\n" +
+            "a=rtpmap:9 G722/8000\r\n" +
+            "a=rtpmap:0 PCMU/8000\r\n" +
+            "a=maxptime:60\r\n";
+
+    @Test
+    public void roundTripKeepsDescription() {
+        assertEquals(OFFER, Sdp.parse(OFFER).toString());
+    }
+
+    @Test
+    public void parsesLineFeedOnlyInput() {
+        String description = OFFER.replace("\r\n", "\n");
+
+        Sdp sdp = Sdp.parse(description);
+
+        assertEquals(OFFER, sdp.toString());
+        assertEquals(5, sdp.getSessionLines().size());
+        assertEquals(1, sdp.getMediaSections().size());
+    }
+
+    @Test
+    public void parsesLastLineWithoutSeparator() {
+        String description = OFFER.substring(0, OFFER.length() - 2);
+
+        assertEquals(OFFER, Sdp.parse(description).toString());
+    }
+
+    @Test
+    public void indexesMediaSection() {
+        MediaSection audio = Sdp.parse(OFFER).getMediaSections(SdpRewriter.MEDIA_AUDIO).get(0);
+
+        assertEquals("audio", audio.getMedia());
+        assertEquals("111", audio.getPayloadType("opus"));
+        assertEquals("103", audio.getPayloadType("isac"));
+        assertNull(audio.getPayloadType("VP8"));
+        assertEquals("60", audio.getAttribute("maxptime"));
+
+        Map<String, String> parameters = audio.getFmtpParameters("111");
+        assertEquals(2, parameters.size());
+        assertEquals("10", parameters.get("minptime"));
+        assertEquals("1", parameters.get("useinbandfec"));
+        assertTrue(audio.getFmtpParameters("103").isEmpty());
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.pavlo.aphone.web_rtc_client;
+
+import com.example.pavlo.aphone.interfaces.IceRestartEvents;
+import com.example.pavlo.aphone.interfaces.NetworkMonitor;
+import com.example.pavlo.aphone.interfaces.NetworkMonitorEvents;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by pavlo on 18.10.26.
+ *
+ * Drives the restarter through a fake network monitor, the way PeerConnectionClient starts it,
+ * with an executor that runs tasks inline.
+ */
+public class NetworkChangeIceRestarterTest {
+
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private FakeNetworkMonitor networkMonitor;
+    private NetworkChangeIceRestarter restarter;
+    private int restarts;
+
+    @Before
+    public void setUp() {
+        networkMonitor = new FakeNetworkMonitor();
+        restarter = new NetworkChangeIceRestarter(DIRECT_EXECUTOR, new IceRestartEvents() {
+            @Override
+            public void onIceRestartNeeded() {
+                restarts++;
+            }
+        });
+        restarter.reset("wifi");
+        networkMonitor.start(restarter);
+    }
+
+    @Test
+    public void restartsEstablishedCallOnNetworkChange() {
+        restarter.onPeerConnectionCreated(false);
+        restarter.onIceConnected();
+
+        networkMonitor.change("mobile", true);
+
+        assertEquals(1, restarts);
+        assertEquals("mobile", restarter.getNetworkType());
+    }
+
+    @Test
+    public void waitsForNetworkAfterDisconnect() {
+        restarter.onPeerConnectionCreated(false);
+        restarter.onIceConnected();
+
+        networkMonitor.change("none", false);
+        assertEquals(0, restarts);
+
+        networkMonitor.change("mobile", true);
+        assertEquals(1, restarts);
+    }
+
+    @Test
+    public void ignoresChangeBeforeIceConnected() {
+        restarter.onPeerConnectionCreated(false);
+
+        networkMonitor.change("mobile", true);
+
+        assertEquals(0, restarts);
+        assertEquals("mobile", restarter.getNetworkType());
+    }
+
+    @Test
+    public void restartsBeforeIceConnectedWithContinualGathering() {
+        restarter.onPeerConnectionCreated(true);
+
+        networkMonitor.change("mobile", true);
+
+        assertEquals(1, restarts);
+    }
+
+    @Test
+    public void newPeerConnectionForgetsIceConnected() {
+        restarter.onPeerConnectionCreated(false);
+        restarter.onIceConnected();
+        restarter.onPeerConnectionCreated(false);
+
+        networkMonitor.change("mobile", true);
+
+        assertEquals(0, restarts);
+    }
+
+    @Test
+    public void stoppedMonitorReportsNothing() {
+        restarter.onPeerConnectionCreated(false);
+        restarter.onIceConnected();
+        networkMonitor.stop();
+
+        networkMonitor.change("mobile", true);
+
+        assertEquals(0, restarts);
+        assertEquals("wifi", restarter.getNetworkType());
+    }
+
+    private static class FakeNetworkMonitor implements NetworkMonitor {
+
+        private NetworkMonitorEvents events;
+        private String networkType = "wifi";
+
+        @Override
+        public void start(NetworkMonitorEvents events) {
+            this.events = events;
+        }
+
+        @Override
+        public void stop() {
+            events = null;
+        }
+
+        @Override
+        public String getNetworkType() {
+            return networkType;
+        }
+
+        void change(String networkType, boolean connected) {
+            this.networkType = networkType;
+            if (events != null) {
+                events.onNetworkChanged(networkType, connected);
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.pavlo.aphone.web_rtc_client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Created by pavlo on 18.10.26.
+ *
+ * Loads the recorded callee join response from the test resources.
+ */
+public class RoomResponseFixtures {
+
+    public static final String JOIN_RESPONSE = "room_join_response.json";
+
+    private RoomResponseFixtures() {
+
+    }
+
+    public static String load(String name) throws IOException {
+        InputStream stream = RoomResponseFixtures.class.getClassLoader().getResourceAsStream(name);
+        if (stream == null) {
+            throw new IOException("No test resource: " + name);
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toString("UTF-8");
+        } finally {
+            stream.close();
+        }
+    }
+}
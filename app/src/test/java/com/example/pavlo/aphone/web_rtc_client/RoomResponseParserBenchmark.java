@@ -0,0 +1,158 @@
+package com.example.pavlo.aphone.web_rtc_client;
+
+import com.example.pavlo.aphone.BuildConfig;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+import org.webrtc.IceCandidate;
+import org.webrtc.PeerConnection;
+import org.webrtc.SessionDescription;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedList;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by pavlo on 18.10.26.
+ *
+ * Compares the JSONObject based join response parser that RoomParametersFetcher used before
+ * with RoomResponseParser on the recorded join response: parse time and bytes allocated per
+ * parse, the latter from the HotSpot per-thread allocation counter. Both parsers must agree on
+ * the result; the numbers are printed, not asserted, since they depend on the host. The
+ * comparison is ignored in regular test runs; run it by hand from the IDE.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class RoomResponseParserBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 2000;
+    private static final int ITERATIONS = 10000;
+
+    private String response;
+
+    @Before
+    public void setUp() throws Exception {
+        response = RoomResponseFixtures.load(RoomResponseFixtures.JOIN_RESPONSE);
+    }
+
+    @Test
+    public void parsersAgree() throws Exception {
+        LegacyResult legacy = parseLegacy(response);
+        RoomResponseParser streaming = RoomResponseParser.parse(response);
+
+        assertEquals(legacy.offerSdp.description, streaming.getOfferSdp().description);
+        assertEquals(legacy.iceCandidates.size(), streaming.getIceCandidates().size());
+        for (int i = 0; i < legacy.iceCandidates.size(); i++) {
+            assertEquals(legacy.iceCandidates.get(i).sdp, streaming.getIceCandidates().get(i).sdp);
+        }
+        assertEquals(legacy.iceServers.size(), streaming.getIceServers().size());
+    }
+
+    @Ignore("Benchmark, run by hand")
+    @Test
+    public void compareParsers() throws Exception {
+        long legacyNs = 0;
+        long streamingNs = 0;
+        int sink = 0;
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            sink += parseLegacy(response).iceCandidates.size();
+            sink += RoomResponseParser.parse(response).getIceCandidates().size();
+        }
+
+        // Alternate the parsers so that GC and JIT noise hits both of them alike.
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            sink += parseLegacy(response).iceCandidates.size();
+            legacyNs += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            sink += RoomResponseParser.parse(response).getIceCandidates().size();
+            streamingNs += System.nanoTime() - start;
+        }
+
+        // Allocations are counted per loop, so the counter itself is read only twice per parser.
+        long allocatedBytes = allocatedBytes();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += parseLegacy(response).iceCandidates.size();
+        }
+        long legacyBytes = allocatedBytes() - allocatedBytes;
+
+        allocatedBytes = allocatedBytes();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += RoomResponseParser.parse(response).getIceCandidates().size();
+        }
+        long streamingBytes = allocatedBytes() - allocatedBytes;
+
+        assertEquals(2 * 5 * (WARMUP_ITERATIONS + 2 * ITERATIONS), sink);
+        System.out.println("Join response, " + response.length() + " chars, " + ITERATIONS + " iterations");
+        System.out.println("  JSONObject parser: " + (legacyNs / ITERATIONS) + " ns/op, " +
+                (legacyBytes / ITERATIONS) + " B/op");
+        System.out.println("  Streaming parser:  " + (streamingNs / ITERATIONS) + " ns/op, " +
+                (streamingBytes / ITERATIONS) + " B/op");
+    }
+
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static class LegacyResult {
+        SessionDescription offerSdp;
+        LinkedList<IceCandidate> iceCandidates = new LinkedList<IceCandidate>();
+        LinkedList<PeerConnection.IceServer> iceServers = new LinkedList<PeerConnection.IceServer>();
+    }
+
+    /**
+     * The parsing half of the old RoomParametersFetcher.roomHttpResponseParse, without the TURN
+     * request and the logging.
+     */
+    private static LegacyResult parseLegacy(String response) throws JSONException {
+        LegacyResult result = new LegacyResult();
+        JSONObject roomJson = new JSONObject(response);
+        if (!roomJson.getString("result").equals("SUCCESS")) {
+            return result;
+        }
+
+        roomJson = new JSONObject(roomJson.getString("params"));
+        roomJson.getString("room_id");
+        roomJson.getString("client_id");
+        roomJson.getString("wss_url");
+        roomJson.getString("wss_post_url");
+        boolean initiator = roomJson.getBoolean("is_initiator");
+
+        if (!initiator) {
+            JSONArray messages = new JSONArray(roomJson.getString("messages"));
+            for (int i = 0; i < messages.length(); ++i) {
+                JSONObject message = new JSONObject(messages.getString(i));
+                String messageType = message.getString("type");
+                if (messageType.equals("offer")) {
+                    result.offerSdp = new SessionDescription(
+                            SessionDescription.Type.fromCanonicalForm(messageType), message.getString("sdp"));
+                } else if (messageType.equals(IceCandidateBatcher.TYPE_CANDIDATE) ||
+                        messageType.equals(IceCandidateBatcher.TYPE_CANDIDATES)) {
+                    result.iceCandidates.addAll(IceCandidateBatcher.fromJson(message));
+                }
+            }
+        }
+
+        JSONArray servers = new JSONObject(roomJson.getString("pc_config")).getJSONArray("iceServers");
+        for (int i = 0; i < servers.length(); ++i) {
+            JSONObject server = servers.getJSONObject(i);
+            String credential = server.has("credential") ? server.getString("credential") : "";
+            result.iceServers.add(new PeerConnection.IceServer(server.getString("urls"), "", credential));
+        }
+
+        return result;
+    }
+}
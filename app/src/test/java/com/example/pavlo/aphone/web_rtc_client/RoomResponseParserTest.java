@@ -0,0 +1,150 @@
+package com.example.pavlo.aphone.web_rtc_client;
+
+import com.example.pavlo.aphone.BuildConfig;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+import org.webrtc.IceCandidate;
+import org.webrtc.SessionDescription;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by pavlo on 18.10.26.
+ *
+ * Parses the recorded join response and the malformed variants the JSONObject based parser
+ * rejected.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class RoomResponseParserTest {
+
+    private String response;
+
+    @Before
+    public void setUp() throws Exception {
+        response = RoomResponseFixtures.load(RoomResponseFixtures.JOIN_RESPONSE);
+    }
+
+    @Test
+    public void parsesRecordedJoinResponse() throws Exception {
+        RoomResponseParser parser = RoomResponseParser.parse(response);
+
+        assertTrue(parser.isSuccess());
+        assertEquals("419024", parser.getRoomId());
+        assertEquals("85011275", parser.getClientId());
+        assertEquals("wss://apprtc-ws.webrtc.org:443/ws", parser.getWssUrl());
+        assertEquals("https://apprtc-ws.webrtc.org:443", parser.getWssPostUrl());
+        assertFalse(parser.isInitiator());
+
+        SessionDescription offer = parser.getOfferSdp();
+        assertNotNull(offer);
+        assertEquals(SessionDescription.Type.OFFER, offer.type);
+        assertTrue(offer.description.startsWith("v=0\r\n"));
+
+        assertEquals(5, parser.getIceCandidates().size());
+        IceCandidate first = parser.getIceCandidates().getFirst();
+        assertEquals("audio", first.sdpMid);
+        assertEquals(0, first.sdpMLineIndex);
+        assertTrue(parser.getIceCandidates().getLast().sdp.contains("typ relay"));
+
+        assertEquals(2, parser.getIceServers().size());
+        assertEquals("stun:stun.l.google.com:19302", parser.getIceServers().get(0).uri);
+        assertEquals("hW2bL5x3nQ8=", parser.getIceServers().get(1).password);
+    }
+
+    @Test
+    public void acceptsEncodedParams() throws Exception {
+        JSONObject json = new JSONObject(response);
+        json.put("params", json.getJSONObject("params").toString());
+
+        RoomResponseParser parser = RoomResponseParser.parse(json.toString());
+
+        assertEquals("419024", parser.getRoomId());
+        assertEquals(5, parser.getIceCandidates().size());
+    }
+
+    @Test
+    public void reportsFailedResult() throws Exception {
+        RoomResponseParser parser = RoomResponseParser.parse("{\"result\": \"FULL\"}");
+
+        assertFalse(parser.isSuccess());
+        assertEquals("FULL", parser.getResult());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsMissingResult() throws Exception {
+        JSONObject json = new JSONObject(response);
+        json.remove("result");
+
+        RoomResponseParser.parse(json.toString());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsMissingPcConfig() throws Exception {
+        JSONObject json = new JSONObject(response);
+        json.getJSONObject("params").remove("pc_config");
+
+        RoomResponseParser.parse(json.toString());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsPcConfigWithoutIceServers() throws Exception {
+        JSONObject json = new JSONObject(response);
+        json.getJSONObject("params").put("pc_config", "{\"bundlePolicy\": \"max-bundle\"}");
+
+        RoomResponseParser.parse(json.toString());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsCalleeWithoutMessages() throws Exception {
+        JSONObject json = new JSONObject(response);
+        json.getJSONObject("params").remove("messages");
+
+        RoomResponseParser.parse(json.toString());
+    }
+
+    @Test
+    public void acceptsInitiatorWithoutMessages() throws Exception {
+        JSONObject json = new JSONObject(response);
+        json.getJSONObject("params").remove("messages");
+        json.getJSONObject("params").put("is_initiator", "true");
+
+        RoomResponseParser parser = RoomResponseParser.parse(json.toString());
+
+        assertTrue(parser.isInitiator());
+        assertNull(parser.getOfferSdp());
+    }
+
+    @Test
+    public void detectsPeerSupportingCandidateBatches() throws Exception {
+        assertFalse(RoomResponseParser.parse(response).isPeerSupportingCandidateBatches());
+
+        JSONObject json = new JSONObject(response);
+        json.getJSONObject("params").getJSONArray("messages").put(
+                "{\"type\": \"candidate\", \"label\": 0, \"id\": \"audio\", \"mid\": \"5f-7\", " +
+                        "\"candidate\": \"candidate:1 1 udp 1 1.2.3.4 1 typ host\"}");
+
+        assertTrue(RoomResponseParser.parse(json.toString()).isPeerSupportingCandidateBatches());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsCandidateWithoutLabel() throws Exception {
+        JSONObject json = new JSONObject(response);
+        json.getJSONObject("params").getJSONArray("messages").put(
+                "{\"type\": \"candidate\", \"id\": \"audio\", \"candidate\": \"candidate:1 1 udp 1 1.2.3.4 1 typ host\"}");
+
+        RoomResponseParser.parse(json.toString());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsTruncatedResponse() throws Exception {
+        RoomResponseParser.parse(response.substring(0, response.length() / 2));
+    }
+}
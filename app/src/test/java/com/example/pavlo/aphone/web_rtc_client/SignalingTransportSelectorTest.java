@@ -0,0 +1,80 @@
+package com.example.pavlo.aphone.web_rtc_client;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by pavlo on 18.10.26.
+ *
+ * Follows an initiator through a rejection of its WebSocket messages, before and after the
+ * answer, the way WebRtcClient drives the selector.
+ */
+public class SignalingTransportSelectorTest {
+
+    private static final WebRtcChannelClient.WebSocketConnectionState REGISTERED =
+            WebRtcChannelClient.WebSocketConnectionState.REGISTERED;
+
+    private SignalingTransportSelector selector;
+
+    @Before
+    public void setUp() {
+        selector = new SignalingTransportSelector();
+    }
+
+    @Test
+    public void postsUntilRegistered() {
+        assertEquals(SignalingTransportSelector.Transport.HTTP_POST,
+                selector.select(true, WebRtcChannelClient.WebSocketConnectionState.CONNECTED));
+        selector.onSent("offer", true, SignalingTransportSelector.Transport.HTTP_POST);
+
+        assertFalse(selector.hasSentOverWebSocket());
+        assertEquals(SignalingTransportSelector.Transport.WEBSOCKET, selector.select(true, REGISTERED));
+    }
+
+    @Test
+    public void rejectionBeforeAnswerResendsOfferFirst() {
+        selector.onSent("offer", true, SignalingTransportSelector.Transport.WEBSOCKET);
+        selector.onSent("candidates 1", false, SignalingTransportSelector.Transport.WEBSOCKET);
+        selector.onSent("candidates 2", false, SignalingTransportSelector.Transport.WEBSOCKET);
+        assertTrue(selector.hasSentOverWebSocket());
+
+        assertEquals(Arrays.asList("offer", "candidates 1", "candidates 2"), selector.onWebSocketFailed());
+        assertFalse(selector.hasSentOverWebSocket());
+        assertEquals(SignalingTransportSelector.Transport.HTTP_POST, selector.select(true, REGISTERED));
+    }
+
+    @Test
+    public void rejectionAfterAnswerResendsCandidatesOnly() {
+        selector.onSent("offer", true, SignalingTransportSelector.Transport.WEBSOCKET);
+        selector.onSent("candidates 1", false, SignalingTransportSelector.Transport.WEBSOCKET);
+        selector.onAnswerReceived();
+
+        assertTrue(selector.isOfferAnswered());
+        assertTrue(selector.hasSentOverWebSocket());
+        assertEquals(Collections.singletonList("candidates 1"), selector.onWebSocketFailed());
+    }
+
+    @Test
+    public void postedMessagesAreNotResent() {
+        selector.onSent("offer", true, SignalingTransportSelector.Transport.HTTP_POST);
+        selector.onSent("candidates 1", false, SignalingTransportSelector.Transport.HTTP_POST);
+
+        assertTrue(selector.onWebSocketFailed().isEmpty());
+    }
+
+    @Test
+    public void resetTriesWebSocketAgain() {
+        selector.onSent("offer", true, SignalingTransportSelector.Transport.WEBSOCKET);
+        selector.onWebSocketFailed();
+
+        selector.reset();
+
+        assertFalse(selector.hasSentOverWebSocket());
+        assertEquals(SignalingTransportSelector.Transport.WEBSOCKET, selector.select(true, REGISTERED));
+    }
+}